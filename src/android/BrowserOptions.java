@@ -0,0 +1,374 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The options string passed to open(), e.g. "location=no,hidden=yes", parsed
+ * in a single pass into an immutable value. Each open gets its own instance,
+ * so an option only applies to the open it was given to.
+ *
+ * Yes/no options are kept as bits of one int. Any value other than "no" turns
+ * a yes/no option on. Option names are case insensitive. The fields are only
+ * written while parsing, before the instance is handed out.
+ */
+public class BrowserOptions {
+
+    private static final String LOG_TAG = "BrowserOptions";
+    private static final int CACHE_SIZE = 8;
+
+    private static final String LOCATION = "location";
+    private static final String TOOLBAR = "toolbar";
+    private static final String ZOOM = "zoom";
+    private static final String HIDDEN = "hidden";
+    private static final String CLEAR_ALL_CACHE = "clearcache";
+    private static final String CLEAR_SESSION_CACHE = "clearsessioncache";
+    private static final String HARDWARE_BACK_BUTTON = "hardwareback";
+    private static final String REUSE = "reuse";
+    private static final String LEAVE_IAB_REGEX = "leaveiab";
+    private static final String LOADING_CAPTION = "loadingcaption";
+    private static final String REUSE_TIMEOUT = "reusetimeout";
+    private static final String BATCH_EVENTS = "batchevents";
+    private static final String BATCH_WINDOW = "batchwindow";
+    private static final String TIMINGS = "timings";
+    private static final String CACHE_ORIGINS = "cacheorigins";
+    private static final String PROFILE = "profile";
+    private static final String CONTENT_BLOCK = "contentblock";
+    private static final String DEFER = "defer";
+    private static final String HAR = "har";
+    private static final String NETWORK_MODE = "netmode";
+    private static final String ARCHIVE = "archive";
+    private static final String REPLAY_LATENCY = "replaylatency";
+    private static final String REPLAY_BANDWIDTH = "replaybandwidth";
+    private static final String DEFER_DELAY = "deferdelay";
+    private static final String DEFER_MAX = "defermax";
+
+    // The values of netmode, as NetworkArchive.MODE_RECORD and MODE_REPLAY
+    private static final String NETWORK_MODE_LIVE = "live";
+    private static final String NETWORK_MODE_RECORD = "record";
+    private static final String NETWORK_MODE_REPLAY = "replay";
+
+    private static final int FLAG_LOCATION = 1;
+    private static final int FLAG_TOOLBAR = 1 << 1;
+    private static final int FLAG_ZOOM = 1 << 2;
+    private static final int FLAG_HIDDEN = 1 << 3;
+    private static final int FLAG_CLEAR_ALL_CACHE = 1 << 4;
+    private static final int FLAG_CLEAR_SESSION_CACHE = 1 << 5;
+    private static final int FLAG_HARDWARE_BACK_BUTTON = 1 << 6;
+    private static final int FLAG_REUSE = 1 << 7;
+    private static final int FLAG_BATCH_EVENTS = 1 << 8;
+    private static final int FLAG_TIMINGS = 1 << 9;
+    private static final int FLAG_CONTENT_BLOCK = 1 << 10;
+    private static final int FLAG_HAR = 1 << 11;
+
+    private static final int DEFAULT_FLAGS = FLAG_LOCATION | FLAG_TOOLBAR | FLAG_ZOOM | FLAG_HARDWARE_BACK_BUTTON
+            | FLAG_CONTENT_BLOCK;
+    private static final String DEFAULT_LOADING_CAPTION = "Laddar...";
+    private static final int DEFAULT_DEFER_DELAY = 3000;
+    private static final int DEFAULT_DEFER_MAX = 2;
+    private static final String DEFAULT_ARCHIVE = "default";
+
+    public static final BrowserOptions DEFAULT = new BrowserOptions();
+
+    private static final Map<String, BrowserOptions> cache = new LinkedHashMap<String, BrowserOptions>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BrowserOptions> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private String source = "";
+    private int flags = DEFAULT_FLAGS;
+    private String loadingCaption = DEFAULT_LOADING_CAPTION;
+    private UrlRuleMatcher leaveIab = UrlRuleMatcher.EMPTY;
+    private UrlRuleMatcher cacheOrigins = UrlRuleMatcher.EMPTY;
+    private UrlRuleMatcher defer = UrlRuleMatcher.EMPTY;
+    private int deferDelay = DEFAULT_DEFER_DELAY;
+    private int deferMax = DEFAULT_DEFER_MAX;
+    private String networkMode = null;
+    private String archive = DEFAULT_ARCHIVE;
+    private int replayLatency = -1;
+    private int replayBandwidth = -1;
+    private int reuseTimeout = -1;
+    private int batchWindow = 0;
+    private String profile = null;
+
+    private BrowserOptions() {
+    }
+
+    /**
+     * Parse an options string. Recently seen strings are answered from a small cache,
+     * including their compiled leaveiab rules.
+     *
+     * @param optString  The options string from JavaScript, or "null".
+     * @return BrowserOptions
+     */
+    public static BrowserOptions parse(String optString) {
+        if (optString == null || optString.length() == 0 || optString.equals("null")) {
+            return DEFAULT;
+        }
+        synchronized (cache) {
+            BrowserOptions cached = cache.get(optString);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        BrowserOptions options = parseUncached(optString);
+        synchronized (cache) {
+            cache.put(optString, options);
+        }
+        return options;
+    }
+
+    private static BrowserOptions parseUncached(String optString) {
+        BrowserOptions options = new BrowserOptions();
+        options.source = optString;
+
+        int start = 0;
+        int length = optString.length();
+        while (start < length) {
+            int end = optString.indexOf(',', start);
+            if (end < 0) {
+                end = length;
+            }
+            int separator = optString.indexOf('=', start);
+            if (separator > start && separator < end) {
+                String key = optString.substring(start, separator).trim().toLowerCase(Locale.US);
+                // Values may contain '=' themselves, so take everything after the first one
+                String value = optString.substring(separator + 1, end);
+                int flag = flagFor(key);
+                if (flag != 0) {
+                    options.flags = value.equals("no") ? options.flags & ~flag : options.flags | flag;
+                } else if (key.equals(LEAVE_IAB_REGEX)) {
+                    options.leaveIab = UrlRuleMatcher.compile(value);
+                } else if (key.equals(CACHE_ORIGINS)) {
+                    options.cacheOrigins = UrlRuleMatcher.compile(value);
+                } else if (key.equals(DEFER)) {
+                    options.defer = UrlRuleMatcher.compile(value);
+                } else if (key.equals(DEFER_DELAY)) {
+                    options.deferDelay = parseInt(key, value, options.deferDelay);
+                } else if (key.equals(DEFER_MAX)) {
+                    options.deferMax = parseInt(key, value, options.deferMax);
+                } else if (key.equals(NETWORK_MODE)) {
+                    value = value.trim().toLowerCase(Locale.US);
+                    if (value.equals(NETWORK_MODE_RECORD) || value.equals(NETWORK_MODE_REPLAY)) {
+                        options.networkMode = value;
+                    } else if (!value.equals(NETWORK_MODE_LIVE)) {
+                        Log.d(LOG_TAG, "Invalid value for " + key + ": " + value);
+                    }
+                } else if (key.equals(ARCHIVE)) {
+                    value = value.trim();
+                    options.archive = value.length() == 0 ? DEFAULT_ARCHIVE : value;
+                } else if (key.equals(REPLAY_LATENCY)) {
+                    options.replayLatency = parseInt(key, value, options.replayLatency);
+                } else if (key.equals(REPLAY_BANDWIDTH)) {
+                    options.replayBandwidth = parseInt(key, value, options.replayBandwidth);
+                } else if (key.equals(LOADING_CAPTION)) {
+                    options.loadingCaption = value;
+                } else if (key.equals(REUSE_TIMEOUT)) {
+                    options.reuseTimeout = parseInt(key, value, options.reuseTimeout);
+                } else if (key.equals(BATCH_WINDOW)) {
+                    options.batchWindow = parseInt(key, value, options.batchWindow);
+                } else if (key.equals(PROFILE)) {
+                    value = value.trim();
+                    options.profile = value.length() == 0 ? null : value;
+                }
+            }
+            start = end + 1;
+        }
+        return options;
+    }
+
+    private static int flagFor(String key) {
+        if (key.equals(LOCATION)) {
+            return FLAG_LOCATION;
+        } else if (key.equals(TOOLBAR)) {
+            return FLAG_TOOLBAR;
+        } else if (key.equals(ZOOM)) {
+            return FLAG_ZOOM;
+        } else if (key.equals(HIDDEN)) {
+            return FLAG_HIDDEN;
+        } else if (key.equals(CLEAR_ALL_CACHE)) {
+            return FLAG_CLEAR_ALL_CACHE;
+        } else if (key.equals(CLEAR_SESSION_CACHE)) {
+            return FLAG_CLEAR_SESSION_CACHE;
+        } else if (key.equals(HARDWARE_BACK_BUTTON)) {
+            return FLAG_HARDWARE_BACK_BUTTON;
+        } else if (key.equals(REUSE)) {
+            return FLAG_REUSE;
+        } else if (key.equals(BATCH_EVENTS)) {
+            return FLAG_BATCH_EVENTS;
+        } else if (key.equals(TIMINGS)) {
+            return FLAG_TIMINGS;
+        } else if (key.equals(CONTENT_BLOCK)) {
+            return FLAG_CONTENT_BLOCK;
+        } else if (key.equals(HAR)) {
+            return FLAG_HAR;
+        }
+        return 0;
+    }
+
+    private static int parseInt(String key, String value, int defaultValue) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            Log.d(LOG_TAG, "Invalid value for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    private boolean has(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    /** @return location=yes */
+    public boolean showLocationBar() {
+        return has(FLAG_LOCATION);
+    }
+
+    /** @return toolbar=yes */
+    public boolean showToolbar() {
+        return has(FLAG_TOOLBAR);
+    }
+
+    /** @return zoom=yes */
+    public boolean showZoomControls() {
+        return has(FLAG_ZOOM);
+    }
+
+    /** @return hidden=yes */
+    public boolean isHidden() {
+        return has(FLAG_HIDDEN);
+    }
+
+    /** @return clearcache=yes */
+    public boolean clearAllCache() {
+        return has(FLAG_CLEAR_ALL_CACHE);
+    }
+
+    /** @return clearsessioncache=yes */
+    public boolean clearSessionCache() {
+        return has(FLAG_CLEAR_SESSION_CACHE);
+    }
+
+    /** @return hardwareback=yes */
+    public boolean hardwareBack() {
+        return has(FLAG_HARDWARE_BACK_BUTTON);
+    }
+
+    /** @return reuse=yes */
+    public boolean reuse() {
+        return has(FLAG_REUSE);
+    }
+
+    /** @return batchevents=yes */
+    public boolean batchEvents() {
+        return has(FLAG_BATCH_EVENTS);
+    }
+
+    /** @return timings=yes */
+    public boolean timings() {
+        return has(FLAG_TIMINGS);
+    }
+
+    /** @return contentblock=yes, the default: apply the InAppBrowserFilterLists */
+    public boolean contentBlock() {
+        return has(FLAG_CONTENT_BLOCK);
+    }
+
+    /** @return har=yes: record the browser's requests to a HAR file */
+    public boolean recordHar() {
+        return has(FLAG_HAR);
+    }
+
+    /** @return the loadingcaption text shown while a page loads */
+    public String getLoadingCaption() {
+        return loadingCaption;
+    }
+
+    /** @return the compiled leaveiab rules */
+    public UrlRuleMatcher getLeaveIab() {
+        return leaveIab;
+    }
+
+    /** @return the compiled cacheorigins rules, for subresources the ResourceCache may store */
+    public UrlRuleMatcher getCacheOrigins() {
+        return cacheOrigins;
+    }
+
+    /** @return the compiled defer rules, for requests held until the page is on screen */
+    public UrlRuleMatcher getDefer() {
+        return defer;
+    }
+
+    /** @return deferdelay, the longest requests are held, in milliseconds */
+    public int getDeferDelay() {
+        return deferDelay;
+    }
+
+    /** @return defermax, how many held requests may load at once once released */
+    public int getDeferMax() {
+        return deferMax;
+    }
+
+    /** @return netmode, "record" or "replay", or null to use the network as usual */
+    public String getNetworkMode() {
+        return networkMode;
+    }
+
+    /** @return the name of the archive netmode records to or replays from */
+    public String getArchive() {
+        return archive;
+    }
+
+    /** @return replaylatency in milliseconds, or -1 for the recorded latency */
+    public int getReplayLatency() {
+        return replayLatency;
+    }
+
+    /** @return replaybandwidth in kilobits per second, 0 for unlimited, or -1 for the recorded rate */
+    public int getReplayBandwidth() {
+        return replayBandwidth;
+    }
+
+    /** @return reusetimeout in seconds, or -1 to use the InAppBrowserReuseTimeout preference */
+    public int getReuseTimeout() {
+        return reuseTimeout;
+    }
+
+    /** @return batchwindow in milliseconds, or 0 to batch events per frame */
+    public int getBatchWindow() {
+        return batchWindow;
+    }
+
+    /** @return the options string these options were parsed from, or "" for the defaults */
+    public String getSource() {
+        return source;
+    }
+
+    /** @return the profile name, or null for the default profile */
+    public String getProfile() {
+        return profile;
+    }
+}
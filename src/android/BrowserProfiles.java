@@ -0,0 +1,290 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import android.webkit.CookieManager;
+import android.webkit.WebView;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps the cookies of one browsing profile (the profile=<name> option) away from
+ * those of the others.
+ *
+ * Where the WebView supports profiles (androidx.webkit's MULTI_PROFILE feature,
+ * when the app includes androidx.webkit), each profile gets its own cookies,
+ * storage and cache, and a WebView is simply given its profile before it loads
+ * anything; nothing is copied. Otherwise there is one cookie jar, and switching
+ * profile saves the cookies of the origins the old profile has visited to
+ * SharedPreferences, removes them, and puts back the new profile's saved cookies.
+ * The cost of that depends on how many origins the two profiles have visited,
+ * not on how many cookies the app has. Only name and value survive the trip, and
+ * DOM storage is shared.
+ *
+ * That one cookie jar is also the one the app's own Cordova WebView uses, so a
+ * switch removes the app's cookies for the origins the old profile visited too.
+ */
+public class BrowserProfiles {
+
+    private static final String LOG_TAG = "BrowserProfiles";
+    private static final String PREFERENCES = "InAppBrowserProfiles";
+    private static final String ACTIVE = "active";
+    private static final String ORIGINS = "origins:";
+    private static final String COOKIES = "cookies:";
+    private static final String DEFAULT_PROFILE = "";
+
+    private final Context context;
+    private final CookieJar cookieJar;
+    private final Executor executor;
+    private final Method setProfile;
+    private final Object profileStore;
+    private final Method getOrCreateProfile;
+
+    // Only used without WebView profiles
+    private SharedPreferences preferences;
+    private volatile String active;
+    // The origins the active profile has visited; locked on its own, as the UI thread adds to it
+    private final HashSet<String> origins = new HashSet<String>();
+    private int switches = 0;
+
+    /**
+     * Looks for androidx.webkit profile support, which costs a few reflective lookups.
+     *
+     * @param context    The application context.
+     * @param cookieJar  Removes the cookies of the profile being switched away from.
+     * @param executor   Saves visited origins.
+     */
+    public BrowserProfiles(Context context, CookieJar cookieJar, Executor executor) {
+        this.context = context;
+        this.cookieJar = cookieJar;
+        this.executor = executor;
+        Method setProfile = null;
+        Object profileStore = null;
+        Method getOrCreateProfile = null;
+        try {
+            Class<?> feature = Class.forName("androidx.webkit.WebViewFeature");
+            Boolean supported = (Boolean) feature.getMethod("isFeatureSupported", String.class).invoke(null, "MULTI_PROFILE");
+            if (supported.booleanValue()) {
+                Class<?> store = Class.forName("androidx.webkit.ProfileStore");
+                profileStore = store.getMethod("getInstance").invoke(null);
+                getOrCreateProfile = store.getMethod("getOrCreateProfile", String.class);
+                setProfile = Class.forName("androidx.webkit.WebViewCompat").getMethod("setProfile", WebView.class, String.class);
+            }
+        } catch (Exception e) {
+            // No androidx.webkit, or a version without profiles
+            setProfile = null;
+        }
+        this.setProfile = setProfile;
+        this.profileStore = profileStore;
+        this.getOrCreateProfile = getOrCreateProfile;
+    }
+
+    /**
+     * @return whether the WebView keeps profiles apart itself
+     */
+    public boolean isNative() {
+        return setProfile != null;
+    }
+
+    /**
+     * Give a WebView that has not loaded anything yet its profile. Does nothing
+     * without WebView profiles. Must be called on the UI thread.
+     *
+     * @param webView  The WebView.
+     * @param profile  The profile name, or null for the default profile.
+     * @return false if the WebView could not be given the profile
+     */
+    public boolean apply(WebView webView, String profile) {
+        if (setProfile == null || profile == null) {
+            return true;
+        }
+        try {
+            getOrCreateProfile.invoke(profileStore, profile);
+            setProfile.invoke(null, webView, profile);
+            return true;
+        } catch (Exception e) {
+            Log.d(LOG_TAG, "Cannot give the WebView profile " + profile + ": " + e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Whether switchTo() has work to do for a profile. Cheap, but only exact once
+     * switchTo() has run once.
+     *
+     * @param profile  The profile name, or null for the default profile.
+     */
+    public boolean needsSwitch(String profile) {
+        if (setProfile != null) {
+            return false;
+        }
+        String current = active;
+        return current == null || !current.equals(profile == null ? DEFAULT_PROFILE : profile);
+    }
+
+    /**
+     * Make the cookie jar hold a profile's cookies. Does nothing with WebView
+     * profiles, or if the profile is already the active one. Touches the disk;
+     * must not be called on the UI thread.
+     *
+     * @param profile  The profile name, or null for the default profile.
+     */
+    public synchronized void switchTo(String profile) {
+        if (setProfile != null) {
+            return;
+        }
+        String target = profile == null ? DEFAULT_PROFILE : profile;
+        load();
+        if (active.equals(target)) {
+            return;
+        }
+        long trace = InAppBrowserTrace.begin("switchProfile");
+        try {
+            SharedPreferences prefs = getPreferences();
+            CookieManager manager = CookieManager.getInstance();
+            JSONObject saved = new JSONObject();
+            JSONArray visited = new JSONArray();
+            String[] leaving;
+            synchronized (origins) {
+                leaving = origins.toArray(new String[origins.size()]);
+                origins.clear();
+            }
+            for (String origin : leaving) {
+                String header = manager.getCookie(origin + "/");
+                if (header != null) {
+                    saved.put(origin, header);
+                    cookieJar.clear(origin + "/", null);
+                }
+                visited.put(origin);
+            }
+            SharedPreferences.Editor editor = prefs.edit();
+            editor.putString(COOKIES + active, saved.toString());
+            editor.putString(ORIGINS + active, visited.toString());
+
+            loadOrigins(target);
+            JSONObject restore = new JSONObject(prefs.getString(COOKIES + target, "{}"));
+            Iterator<String> keys = restore.keys();
+            while (keys.hasNext()) {
+                String origin = keys.next();
+                String secure = origin.startsWith("https:") ? "; Secure" : "";
+                for (String[] cookie : CookieJar.parse(restore.getString(origin))) {
+                    manager.setCookie(origin, cookie[0] + "=" + cookie[1] + "; Path=/" + secure);
+                }
+            }
+            active = target;
+            editor.putString(ACTIVE, target);
+            editor.commit();
+            switches++;
+            cookieJar.scheduleFlush();
+        } catch (JSONException e) {
+            Log.d(LOG_TAG, "Should never happen");
+        } finally {
+            InAppBrowserTrace.end("switchProfile", trace);
+        }
+    }
+
+    /**
+     * Note that the active profile has visited a page, so its cookies are saved when
+     * the profile is switched away from. Does nothing with WebView profiles. Cheap
+     * enough for the UI thread; only a new origin is saved, in the background.
+     *
+     * @param url  The page.
+     */
+    public void visited(String url) {
+        if (setProfile != null || !(url.startsWith("http:") || url.startsWith("https:"))) {
+            return;
+        }
+        String origin = NavigationMetrics.originOf(url);
+        synchronized (origins) {
+            if (!origins.add(origin)) {
+                return;
+            }
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                saveOrigins();
+            }
+        });
+    }
+
+    private synchronized void saveOrigins() {
+        load();
+        JSONArray visited = new JSONArray();
+        synchronized (origins) {
+            for (String origin : origins) {
+                visited.put(origin);
+            }
+        }
+        getPreferences().edit().putString(ORIGINS + active, visited.toString()).commit();
+    }
+
+    /**
+     * Read which profile is active, and the origins it visited before, if that has
+     * not been done yet. Touches the disk; must not be called on the UI thread.
+     */
+    public synchronized void load() {
+        if (active == null) {
+            String stored = getPreferences().getString(ACTIVE, DEFAULT_PROFILE);
+            loadOrigins(stored);
+            active = stored;
+        }
+    }
+
+    private void loadOrigins(String profile) {
+        try {
+            JSONArray visited = new JSONArray(getPreferences().getString(ORIGINS + profile, "[]"));
+            synchronized (origins) {
+                for (int i = 0; i < visited.length(); i++) {
+                    origins.add(visited.getString(i));
+                }
+            }
+        } catch (JSONException e) {
+            Log.d(LOG_TAG, "Ignoring unreadable origins of profile " + profile);
+        }
+    }
+
+    private SharedPreferences getPreferences() {
+        if (preferences == null) {
+            preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        }
+        return preferences;
+    }
+
+    /**
+     * @return {native, active, switches}, active being null until the first switch
+     */
+    public synchronized JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("native", setProfile != null);
+        stats.put("active", active);
+        stats.put("switches", switches);
+        return stats;
+    }
+}
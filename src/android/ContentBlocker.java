@@ -0,0 +1,904 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a subresource request is blocked by filter lists written in the
+ * Adblock Plus / EasyList syntax.
+ *
+ * Supported are blocking and @@ exception rules with the |, || and end | anchors,
+ * * and ^, and the options third-party, domain=, match-case and the request types
+ * (script, image, stylesheet, xmlhttprequest, subdocument, font, media, object,
+ * other and their ~ forms). Element hiding, regular expression rules and rules with
+ * other options are left out. Matching is case insensitive.
+ *
+ * The lists are compiled into two structures:
+ *
+ *   - Rules that block or allow a whole domain, ||example.com^, go into a trie of
+ *     domain labels, walked from the top-level domain down. ||example.com without
+ *     the ^ also matches example.com.cdn.net, so it is kept with the other rules.
+ *   - Every other rule is keyed by one GRAM-character substring of its text. The
+ *     keys are in a Bloom filter and a sorted table. A URL is scanned once with a
+ *     rolling hash; only rules whose key passes the Bloom filter are checked in full.
+ *
+ * Both are plain arrays, written to disk by save() and read back by load(), so the
+ * lists only have to be parsed again when they change. The compiled rules never
+ * change, so a blocker can be used from any thread.
+ */
+public class ContentBlocker {
+
+    private static final String LOG_TAG = "ContentBlocker";
+    private static final int MAGIC = 0x49414246;
+    private static final int VERSION = 2;
+    private static final int GRAM = 5;
+    private static final long GRAM_BASE = 31;
+
+    // Request types, as a mask of what a request may be
+    public static final int TYPE_SCRIPT = 1;
+    public static final int TYPE_IMAGE = 1 << 1;
+    public static final int TYPE_STYLESHEET = 1 << 2;
+    public static final int TYPE_XHR = 1 << 3;
+    public static final int TYPE_SUBDOCUMENT = 1 << 4;
+    public static final int TYPE_FONT = 1 << 5;
+    public static final int TYPE_MEDIA = 1 << 6;
+    public static final int TYPE_OTHER = 1 << 7;
+    private static final int ALL_TYPES = 0xff;
+
+    // Rule flags; the low byte is the rule's type mask
+    private static final int EXCEPTION = 1 << 8;
+    private static final int THIRD_PARTY = 1 << 9;
+    private static final int FIRST_PARTY = 1 << 10;
+    private static final int START_ANCHOR = 1 << 11;
+    private static final int END_ANCHOR = 1 << 12;
+    private static final int DOMAIN_ANCHOR = 1 << 13;
+
+    // Domain trie node flags
+    private static final byte BLOCK = 1;
+    private static final byte BLOCK_THIRD_PARTY = 1 << 1;
+    private static final byte BLOCK_FIRST_PARTY = 1 << 2;
+    private static final byte ALLOW = 1 << 3;
+    private static final byte ALLOW_THIRD_PARTY = 1 << 4;
+    private static final byte ALLOW_FIRST_PARTY = 1 << 5;
+
+    private static final String[] TYPE_NAMES = {
+        "script", "image", "stylesheet", "xmlhttprequest", "subdocument", "font", "media", "other"
+    };
+
+    private static final long GRAM_POWER;
+    static {
+        long power = 1;
+        for (int i = 1; i < GRAM; i++) {
+            power *= GRAM_BASE;
+        }
+        GRAM_POWER = power;
+    }
+
+    // The domain trie. Node 0 is the root; the children of node i are the nodes
+    // childStart[i] .. childStart[i] + childCount[i] - 1, sorted by labelHash.
+    private final long[] labelHash;
+    private final int[] childStart;
+    private final int[] childCount;
+    private final byte[] nodeFlags;
+
+    // The other rules
+    private final String[] patterns;
+    private final int[] ruleFlags;
+    private final String[][] ruleDomains;
+    private final long[] bloom;
+    private final long[] gramKeys;
+    private final int[] gramRules;
+    private final int[] generic;
+
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+
+    private ContentBlocker(long[] labelHash, int[] childStart, int[] childCount, byte[] nodeFlags,
+                           String[] patterns, int[] ruleFlags, String[][] ruleDomains,
+                           long[] bloom, long[] gramKeys, int[] gramRules, int[] generic) {
+        this.labelHash = labelHash;
+        this.childStart = childStart;
+        this.childCount = childCount;
+        this.nodeFlags = nodeFlags;
+        this.patterns = patterns;
+        this.ruleFlags = ruleFlags;
+        this.ruleDomains = ruleDomains;
+        this.bloom = bloom;
+        this.gramKeys = gramKeys;
+        this.gramRules = gramRules;
+        this.generic = generic;
+    }
+
+    /**
+     * @return {domainNodes, rules, genericRules, checked, blocked, averageNanos}: the size
+     *         of the compiled lists, and how many requests were checked and blocked
+     */
+    public JSONObject getStats() throws JSONException {
+        long count = checked.get();
+        JSONObject stats = new JSONObject();
+        stats.put("domainNodes", labelHash.length);
+        stats.put("rules", patterns.length);
+        stats.put("genericRules", generic.length);
+        stats.put("checked", count);
+        stats.put("blocked", blocked.get());
+        stats.put("averageNanos", count > 0 ? nanos.get() / count : 0);
+        return stats;
+    }
+
+    /**
+     * Should a request be blocked?
+     *
+     * @param url       The request URL.
+     * @param pageHost  The host of the page making the request, or null.
+     * @param types     What the request may be, a mask of TYPE_ values.
+     * @return true to block it
+     */
+    public boolean shouldBlock(String url, String pageHost, int types) {
+        long start = System.nanoTime();
+        boolean block = evaluate(url, pageHost, types);
+        nanos.addAndGet(System.nanoTime() - start);
+        checked.incrementAndGet();
+        if (block) {
+            blocked.incrementAndGet();
+        }
+        return block;
+    }
+
+    private boolean evaluate(String url, String pageHost, int types) {
+        String lower = url.toLowerCase(Locale.US);
+        int hostStart = UrlRuleMatcher.hostStart(lower);
+        if (hostStart < 0) {
+            return false;
+        }
+        int hostEnd = hostStart;
+        while (hostEnd < lower.length() && "/?#:".indexOf(lower.charAt(hostEnd)) < 0) {
+            hostEnd++;
+        }
+        boolean thirdParty = pageHost != null && isThirdParty(lower.substring(hostStart, hostEnd), pageHost);
+
+        boolean blocked = false;
+        // The domain trie
+        byte flags = domainFlags(lower, hostStart, hostEnd);
+        if ((flags & ALLOW) != 0 || (flags & (thirdParty ? ALLOW_THIRD_PARTY : ALLOW_FIRST_PARTY)) != 0) {
+            return false;
+        }
+        if ((flags & BLOCK) != 0 || (flags & (thirdParty ? BLOCK_THIRD_PARTY : BLOCK_FIRST_PARTY)) != 0) {
+            blocked = true;
+        }
+
+        // Rules without a key
+        for (int rule : generic) {
+            int result = check(rule, lower, hostStart, hostEnd, pageHost, thirdParty, types);
+            if (result < 0) {
+                return false;
+            }
+            blocked |= result > 0;
+        }
+
+        // Keyed rules, for every GRAM-character window of the URL
+        int length = lower.length();
+        if (length >= GRAM) {
+            long hash = 0;
+            for (int i = 0; i < GRAM; i++) {
+                hash = hash * GRAM_BASE + lower.charAt(i);
+            }
+            int mask = bloom.length * 64 - 1;
+            for (int end = GRAM; ; end++) {
+                if (mightContain(hash, mask)) {
+                    int index = Arrays.binarySearch(gramKeys, hash);
+                    if (index >= 0) {
+                        while (index > 0 && gramKeys[index - 1] == hash) {
+                            index--;
+                        }
+                        for (; index < gramKeys.length && gramKeys[index] == hash; index++) {
+                            int result = check(gramRules[index], lower, hostStart, hostEnd, pageHost, thirdParty, types);
+                            if (result < 0) {
+                                return false;
+                            }
+                            blocked |= result > 0;
+                        }
+                    }
+                }
+                if (end == length) {
+                    break;
+                }
+                hash = (hash - lower.charAt(end - GRAM) * GRAM_POWER) * GRAM_BASE + lower.charAt(end);
+            }
+        }
+        return blocked;
+    }
+
+    private boolean mightContain(long hash, int mask) {
+        int first = (int) hash & mask;
+        int second = (int) (hash >>> 32) & mask;
+        return (bloom[first >>> 6] & (1L << first)) != 0 && (bloom[second >>> 6] & (1L << second)) != 0;
+    }
+
+    /**
+     * @return -1 if the rule is an exception that matches, 1 if it blocks, 0 if it does not apply
+     */
+    private int check(int rule, String url, int hostStart, int hostEnd, String pageHost, boolean thirdParty, int types) {
+        int flags = ruleFlags[rule];
+        if ((flags & types & ALL_TYPES) == 0) {
+            return 0;
+        }
+        if ((flags & THIRD_PARTY) != 0 && !thirdParty || (flags & FIRST_PARTY) != 0 && thirdParty) {
+            return 0;
+        }
+        if (ruleDomains[rule] != null && !domainApplies(ruleDomains[rule], pageHost)) {
+            return 0;
+        }
+        if (!matches(patterns[rule], flags, url, hostStart, hostEnd)) {
+            return 0;
+        }
+        return (flags & EXCEPTION) != 0 ? -1 : 1;
+    }
+
+    private byte domainFlags(String url, int hostStart, int hostEnd) {
+        byte flags = 0;
+        int node = 0;
+        int end = hostEnd;
+        while (end > hostStart) {
+            int dot = url.lastIndexOf('.', end - 1);
+            int start = dot < hostStart ? hostStart : dot + 1;
+            long hash = labelHash(url, start, end);
+            int child = findChild(node, hash);
+            if (child < 0) {
+                break;
+            }
+            node = child;
+            flags |= nodeFlags[node];
+            end = start - 1;
+        }
+        return flags;
+    }
+
+    private int findChild(int node, long hash) {
+        int low = childStart[node];
+        int high = low + childCount[node] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (labelHash[mid] < hash) {
+                low = mid + 1;
+            } else if (labelHash[mid] > hash) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean domainApplies(String[] domains, String pageHost) {
+        if (pageHost == null) {
+            return false;
+        }
+        boolean hasIncludes = false;
+        boolean included = false;
+        for (String domain : domains) {
+            boolean exclude = domain.charAt(0) == '~';
+            String name = exclude ? domain.substring(1) : domain;
+            boolean match = pageHost.equals(name) || pageHost.endsWith("." + name);
+            if (exclude && match) {
+                return false;
+            }
+            if (!exclude) {
+                hasIncludes = true;
+                included |= match;
+            }
+        }
+        return !hasIncludes || included;
+    }
+
+    /**
+     * Match a rule's text, with * and ^, against the lower case URL.
+     */
+    static boolean matches(String pattern, int flags, String url, int hostStart, int hostEnd) {
+        if ((flags & DOMAIN_ANCHOR) != 0) {
+            // At the start of the host, or of any of its labels
+            for (int start = hostStart; start < hostEnd; start++) {
+                if ((start == hostStart || url.charAt(start - 1) == '.') && matchFrom(pattern, 0, url, start, flags)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if ((flags & START_ANCHOR) != 0) {
+            return matchFrom(pattern, 0, url, 0, flags);
+        }
+        for (int start = 0; start <= url.length(); start++) {
+            if (matchFrom(pattern, 0, url, start, flags)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchFrom(String pattern, int p, String url, int u, int flags) {
+        int plength = pattern.length();
+        int ulength = url.length();
+        while (p < plength) {
+            char c = pattern.charAt(p);
+            if (c == '*') {
+                for (int next = u; next <= ulength; next++) {
+                    if (matchFrom(pattern, p + 1, url, next, flags)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (c == '^') {
+                if (u == ulength) {
+                    // The end of the URL counts as a separator
+                    p++;
+                    continue;
+                }
+                if (!isSeparator(url.charAt(u))) {
+                    return false;
+                }
+            } else if (u == ulength || url.charAt(u) != c) {
+                return false;
+            }
+            p++;
+            u++;
+        }
+        return (flags & END_ANCHOR) == 0 || u == ulength;
+    }
+
+    private static boolean isSeparator(char c) {
+        return !(Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' || c == '%');
+    }
+
+    /**
+     * Whether a request host belongs to another site than the page. Sites are told
+     * apart by their last two labels, or three for names like example.co.uk.
+     */
+    static boolean isThirdParty(String host, String pageHost) {
+        return !siteOf(host).equals(siteOf(pageHost.toLowerCase(Locale.US)));
+    }
+
+    private static String siteOf(String host) {
+        int last = host.lastIndexOf('.');
+        if (last <= 0) {
+            return host;
+        }
+        int second = host.lastIndexOf('.', last - 1);
+        if (second < 0) {
+            return host;
+        }
+        // example.co.uk, example.com.au
+        if (host.length() - last - 1 == 2 && last - second - 1 <= 3) {
+            int third = host.lastIndexOf('.', second - 1);
+            return third < 0 ? host : host.substring(third + 1);
+        }
+        return host.substring(second + 1);
+    }
+
+    /**
+     * Guess what a request is from its URL and Accept header.
+     *
+     * @param url     The request URL.
+     * @param accept  The Accept header, or null.
+     * @return a mask of TYPE_ values
+     */
+    public static int typeOf(String url, String accept) {
+        int end = url.length();
+        for (int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '?' || c == '#') {
+                end = i;
+                break;
+            }
+        }
+        int dot = url.lastIndexOf('.', end);
+        if (dot > url.lastIndexOf('/', end)) {
+            String extension = url.substring(dot + 1, end).toLowerCase(Locale.US);
+            if (extension.equals("js") || extension.equals("mjs")) {
+                return TYPE_SCRIPT;
+            } else if (extension.equals("css")) {
+                return TYPE_STYLESHEET;
+            } else if (extension.equals("png") || extension.equals("jpg") || extension.equals("jpeg") || extension.equals("gif")
+                    || extension.equals("webp") || extension.equals("svg") || extension.equals("ico") || extension.equals("avif")) {
+                return TYPE_IMAGE;
+            } else if (extension.equals("woff") || extension.equals("woff2") || extension.equals("ttf") || extension.equals("otf")
+                    || extension.equals("eot")) {
+                return TYPE_FONT;
+            } else if (extension.equals("mp4") || extension.equals("webm") || extension.equals("mp3") || extension.equals("m3u8")
+                    || extension.equals("ogg")) {
+                return TYPE_MEDIA;
+            }
+        }
+        if (accept != null) {
+            if (accept.startsWith("image/")) {
+                return TYPE_IMAGE;
+            } else if (accept.startsWith("text/css")) {
+                return TYPE_STYLESHEET;
+            } else if (accept.startsWith("text/html")) {
+                return TYPE_SUBDOCUMENT;
+            }
+        }
+        // Scripts, XHR and fetch all send */*
+        return TYPE_SCRIPT | TYPE_XHR | TYPE_MEDIA | TYPE_OTHER;
+    }
+
+    private static long labelHash(String s, int start, int end) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            hash ^= s.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long gramHash(String s, int start) {
+        long hash = 0;
+        for (int i = start; i < start + GRAM; i++) {
+            hash = hash * GRAM_BASE + s.charAt(i);
+        }
+        return hash;
+    }
+
+    // --- Compiling
+
+    private static class TrieNode {
+        final TreeMap<Long, TrieNode> children = new TreeMap<Long, TrieNode>();
+        byte flags;
+    }
+
+    /**
+     * Compile filter lists.
+     *
+     * @param lists  The text of each list.
+     * @return ContentBlocker
+     */
+    public static ContentBlocker compile(List<String> lists) {
+        TrieNode root = new TrieNode();
+        List<String> patterns = new ArrayList<String>();
+        List<Integer> flags = new ArrayList<Integer>();
+        List<String[]> domains = new ArrayList<String[]>();
+        for (String list : lists) {
+            BufferedReader reader = new BufferedReader(new StringReader(list));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    parseRule(line.trim(), root, patterns, flags, domains);
+                }
+            } catch (IOException e) {
+                // Cannot happen with a StringReader
+            }
+        }
+
+        // Key every rule by its least shared GRAM-character substring
+        int count = patterns.size();
+        HashMap<Long, Integer> keyUse = new HashMap<Long, Integer>();
+        long[] keys = new long[count];
+        boolean[] keyed = new boolean[count];
+        List<Integer> generic = new ArrayList<Integer>();
+        for (int rule = 0; rule < count; rule++) {
+            String pattern = patterns.get(rule);
+            long best = 0;
+            int bestUse = Integer.MAX_VALUE;
+            for (int i = 0; i + GRAM <= pattern.length(); i++) {
+                if (!isLiteral(pattern, i)) {
+                    continue;
+                }
+                long key = gramHash(pattern, i);
+                Integer use = keyUse.get(key);
+                int uses = use == null ? 0 : use;
+                if (uses < bestUse) {
+                    best = key;
+                    bestUse = uses;
+                }
+            }
+            if (bestUse == Integer.MAX_VALUE) {
+                generic.add(rule);
+            } else {
+                keys[rule] = best;
+                keyed[rule] = true;
+                keyUse.put(best, bestUse + 1);
+            }
+        }
+        final long[] ruleKeys = keys;
+        Integer[] order = new Integer[count - generic.size()];
+        int n = 0;
+        for (int rule = 0; rule < count; rule++) {
+            if (keyed[rule]) {
+                order[n++] = rule;
+            }
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                long x = ruleKeys[a];
+                long y = ruleKeys[b];
+                return x < y ? -1 : x > y ? 1 : 0;
+            }
+        });
+        long[] gramKeys = new long[order.length];
+        int[] gramRules = new int[order.length];
+        int bits = 64;
+        while (bits < order.length * 16) {
+            bits <<= 1;
+        }
+        long[] bloom = new long[bits / 64];
+        for (int i = 0; i < order.length; i++) {
+            gramKeys[i] = ruleKeys[order[i]];
+            gramRules[i] = order[i];
+            int first = (int) gramKeys[i] & (bits - 1);
+            int second = (int) (gramKeys[i] >>> 32) & (bits - 1);
+            bloom[first >>> 6] |= 1L << first;
+            bloom[second >>> 6] |= 1L << second;
+        }
+
+        // Flatten the trie breadth first, so each node's children are next to each other
+        List<TrieNode> nodes = new ArrayList<TrieNode>();
+        List<Long> hashes = new ArrayList<Long>();
+        nodes.add(root);
+        hashes.add(0L);
+        int[] starts = null;
+        List<int[]> ranges = new ArrayList<int[]>();
+        for (int i = 0; i < nodes.size(); i++) {
+            TrieNode node = nodes.get(i);
+            ranges.add(new int[] { nodes.size(), node.children.size() });
+            for (Map.Entry<Long, TrieNode> child : node.children.entrySet()) {
+                nodes.add(child.getValue());
+                hashes.add(child.getKey());
+            }
+        }
+        int size = nodes.size();
+        long[] labelHash = new long[size];
+        int[] childStart = new int[size];
+        int[] childCount = new int[size];
+        byte[] nodeFlags = new byte[size];
+        for (int i = 0; i < size; i++) {
+            labelHash[i] = hashes.get(i);
+            childStart[i] = ranges.get(i)[0];
+            childCount[i] = ranges.get(i)[1];
+            nodeFlags[i] = nodes.get(i).flags;
+        }
+
+        int[] ruleFlags = new int[count];
+        for (int rule = 0; rule < count; rule++) {
+            ruleFlags[rule] = flags.get(rule);
+        }
+        int[] genericRules = new int[generic.size()];
+        for (int i = 0; i < genericRules.length; i++) {
+            genericRules[i] = generic.get(i);
+        }
+        return new ContentBlocker(labelHash, childStart, childCount, nodeFlags,
+                patterns.toArray(new String[count]), ruleFlags, domains.toArray(new String[count][]),
+                bloom, gramKeys, gramRules, genericRules);
+    }
+
+    private static boolean isLiteral(String pattern, int start) {
+        for (int i = start; i < start + GRAM; i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '^') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void parseRule(String line, TrieNode root, List<String> patterns, List<Integer> flags, List<String[]> domains) {
+        if (line.length() == 0 || line.charAt(0) == '!' || line.charAt(0) == '['
+                || line.contains("##") || line.contains("#@#") || line.contains("#?#") || line.contains("#$#")) {
+            return;
+        }
+        int ruleFlags = 0;
+        if (line.startsWith("@@")) {
+            ruleFlags |= EXCEPTION;
+            line = line.substring(2);
+        }
+        if (line.length() > 1 && line.startsWith("/") && line.endsWith("/")) {
+            // Regular expressions are too slow to check on every request
+            return;
+        }
+        int types = 0;
+        int notTypes = 0;
+        String[] ruleDomains = null;
+        int dollar = line.lastIndexOf('$');
+        if (dollar >= 0) {
+            for (String option : line.substring(dollar + 1).toLowerCase(Locale.US).split(",")) {
+                boolean not = option.startsWith("~");
+                String name = not ? option.substring(1) : option;
+                int type = typeBit(name);
+                if (type != 0) {
+                    if (not) {
+                        notTypes |= type;
+                    } else {
+                        types |= type;
+                    }
+                } else if (name.equals("third-party")) {
+                    ruleFlags |= not ? FIRST_PARTY : THIRD_PARTY;
+                } else if (name.startsWith("domain=") && !not) {
+                    ruleDomains = name.substring(7).split("\\|");
+                } else if (!name.equals("match-case")) {
+                    // popup, document, csp, redirect, ... are not for requests we see
+                    return;
+                }
+            }
+            line = line.substring(0, dollar);
+        }
+        if (types == 0) {
+            types = ALL_TYPES;
+        }
+        types &= ~notTypes;
+        if (types == 0) {
+            return;
+        }
+        ruleFlags |= types;
+
+        String pattern = line.toLowerCase(Locale.US);
+        if (pattern.startsWith("||")) {
+            ruleFlags |= DOMAIN_ANCHOR;
+            pattern = pattern.substring(2);
+        } else if (pattern.startsWith("|")) {
+            ruleFlags |= START_ANCHOR;
+            pattern = pattern.substring(1);
+        }
+        if (pattern.endsWith("|")) {
+            ruleFlags |= END_ANCHOR;
+            pattern = pattern.substring(0, pattern.length() - 1);
+        }
+        while (pattern.startsWith("*")) {
+            pattern = pattern.substring(1);
+            ruleFlags &= ~(START_ANCHOR | DOMAIN_ANCHOR);
+        }
+        while (pattern.endsWith("*")) {
+            pattern = pattern.substring(0, pattern.length() - 1);
+            ruleFlags &= ~END_ANCHOR;
+        }
+        if (pattern.length() == 0) {
+            // Would match every request
+            return;
+        }
+
+        if ((ruleFlags & DOMAIN_ANCHOR) != 0 && ruleDomains == null && types == ALL_TYPES && (ruleFlags & END_ANCHOR) == 0
+                && pattern.endsWith("^")) {
+            String host = pattern.substring(0, pattern.length() - 1);
+            if (isHostName(host)) {
+                TrieNode node = root;
+                int end = host.length();
+                while (end > 0) {
+                    int dot = host.lastIndexOf('.', end - 1);
+                    long hash = labelHash(host, dot + 1, end);
+                    TrieNode child = node.children.get(hash);
+                    if (child == null) {
+                        child = new TrieNode();
+                        node.children.put(hash, child);
+                    }
+                    node = child;
+                    end = dot;
+                }
+                if ((ruleFlags & EXCEPTION) != 0) {
+                    if ((ruleFlags & THIRD_PARTY) != 0) {
+                        node.flags |= ALLOW_THIRD_PARTY;
+                    } else if ((ruleFlags & FIRST_PARTY) != 0) {
+                        node.flags |= ALLOW_FIRST_PARTY;
+                    } else {
+                        node.flags |= ALLOW;
+                    }
+                } else if ((ruleFlags & THIRD_PARTY) != 0) {
+                    node.flags |= BLOCK_THIRD_PARTY;
+                } else if ((ruleFlags & FIRST_PARTY) != 0) {
+                    node.flags |= BLOCK_FIRST_PARTY;
+                } else {
+                    node.flags |= BLOCK;
+                }
+                return;
+            }
+        }
+        patterns.add(pattern);
+        flags.add(ruleFlags);
+        domains.add(ruleDomains);
+    }
+
+    private static int typeBit(String name) {
+        for (int i = 0; i < TYPE_NAMES.length; i++) {
+            if (TYPE_NAMES[i].equals(name)) {
+                return 1 << i;
+            }
+        }
+        return name.equals("object") ? TYPE_MEDIA : 0;
+    }
+
+    private static boolean isHostName(String host) {
+        if (host.length() == 0 || host.charAt(0) == '.' || host.charAt(host.length() - 1) == '.') {
+            return false;
+        }
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '-' || c == '.')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // --- The compiled form on disk
+
+    /**
+     * Write the compiled blocker to a file.
+     *
+     * @param file     The file.
+     * @param version  Identifies the lists it was compiled from, see load().
+     */
+    public void save(File file, long version) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(version);
+            out.writeInt(labelHash.length);
+            for (int i = 0; i < labelHash.length; i++) {
+                out.writeLong(labelHash[i]);
+                out.writeInt(childStart[i]);
+                out.writeInt(childCount[i]);
+                out.writeByte(nodeFlags[i]);
+            }
+            out.writeInt(patterns.length);
+            for (int i = 0; i < patterns.length; i++) {
+                out.writeUTF(patterns[i]);
+                out.writeInt(ruleFlags[i]);
+                String[] domains = ruleDomains[i];
+                out.writeInt(domains == null ? -1 : domains.length);
+                if (domains != null) {
+                    for (String domain : domains) {
+                        out.writeUTF(domain);
+                    }
+                }
+            }
+            out.writeInt(bloom.length);
+            for (long word : bloom) {
+                out.writeLong(word);
+            }
+            out.writeInt(gramKeys.length);
+            for (int i = 0; i < gramKeys.length; i++) {
+                out.writeLong(gramKeys[i]);
+                out.writeInt(gramRules[i]);
+            }
+            out.writeInt(generic.length);
+            for (int rule : generic) {
+                out.writeInt(rule);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Cannot rename " + tmp);
+        }
+    }
+
+    /**
+     * Read a blocker written by save().
+     *
+     * @param file     The file.
+     * @param version  The version the lists have now.
+     * @return the blocker, or null if there is none for this version of the lists
+     */
+    public static ContentBlocker load(File file, long version) {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != version) {
+                return null;
+            }
+            int nodes = in.readInt();
+            long[] labelHash = new long[nodes];
+            int[] childStart = new int[nodes];
+            int[] childCount = new int[nodes];
+            byte[] nodeFlags = new byte[nodes];
+            for (int i = 0; i < nodes; i++) {
+                labelHash[i] = in.readLong();
+                childStart[i] = in.readInt();
+                childCount[i] = in.readInt();
+                nodeFlags[i] = in.readByte();
+            }
+            int count = in.readInt();
+            String[] patterns = new String[count];
+            int[] ruleFlags = new int[count];
+            String[][] ruleDomains = new String[count][];
+            for (int i = 0; i < count; i++) {
+                patterns[i] = in.readUTF();
+                ruleFlags[i] = in.readInt();
+                int domains = in.readInt();
+                if (domains >= 0) {
+                    ruleDomains[i] = new String[domains];
+                    for (int j = 0; j < domains; j++) {
+                        ruleDomains[i][j] = in.readUTF();
+                    }
+                }
+            }
+            long[] bloom = new long[in.readInt()];
+            for (int i = 0; i < bloom.length; i++) {
+                bloom[i] = in.readLong();
+            }
+            int keys = in.readInt();
+            long[] gramKeys = new long[keys];
+            int[] gramRules = new int[keys];
+            for (int i = 0; i < keys; i++) {
+                gramKeys[i] = in.readLong();
+                gramRules[i] = in.readInt();
+            }
+            int[] generic = new int[in.readInt()];
+            for (int i = 0; i < generic.length; i++) {
+                generic[i] = in.readInt();
+            }
+            return new ContentBlocker(labelHash, childStart, childCount, nodeFlags, patterns, ruleFlags, ruleDomains,
+                    bloom, gramKeys, gramRules, generic);
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Cannot read compiled filters: " + e.toString());
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * A version for filter lists, for load() and save(): a 64-bit FNV-1a of their text.
+     */
+    public static long versionOf(List<String> lists) {
+        long hash = 0xcbf29ce484222325L;
+        for (String list : lists) {
+            for (int i = 0; i < list.length(); i++) {
+                hash ^= list.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            hash ^= 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
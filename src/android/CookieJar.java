@@ -0,0 +1,374 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.annotation.SuppressLint;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.webkit.CookieManager;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads and writes the cookies of the WebViews one URL at a time, so an app can
+ * keep or drop the cookies of one site without wiping all of them.
+ *
+ * The methods that take a URL block on CookieManager and are meant to be called
+ * on a background thread. None of them flush the cookies to disk; that is done
+ * by scheduleFlush(), at most once per FLUSH_DELAY however often it is called.
+ */
+public class CookieJar {
+
+    public static final long FLUSH_DELAY = 2000;
+
+    // Second-level labels under which country domains are registered, e.g. co.uk
+    private static final HashSet<String> REGISTRY_LABELS = new HashSet<String>(Arrays.asList(
+            "ac", "co", "com", "edu", "go", "gob", "gov", "ltd", "mil", "ne", "net", "nic", "or", "org", "plc", "sch"));
+
+    private final Executor executor;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final LatencyHistogram operations = new LatencyHistogram();
+    private final LatencyHistogram flushes = new LatencyHistogram();
+    private long read = 0;
+    private long written = 0;
+    private long removed = 0;
+    private boolean flushPending = false;
+
+    private final Runnable flushNow = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private final Runnable flushLater = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (CookieJar.this) {
+                flushPending = false;
+            }
+            executor.execute(flushNow);
+        }
+    };
+
+    /**
+     * @param executor  Runs the flushes, which write to disk.
+     */
+    public CookieJar(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param url  The page.
+     * @return {url, cookies: [{name, value}, ...], time}, the cookies that page gets
+     */
+    public JSONObject get(String url) throws JSONException {
+        long start = SystemClock.uptimeMillis();
+        JSONArray cookies = new JSONArray();
+        for (String[] cookie : parse(CookieManager.getInstance().getCookie(url))) {
+            JSONObject obj = new JSONObject();
+            obj.put("name", cookie[0]);
+            obj.put("value", cookie[1]);
+            cookies.put(obj);
+        }
+        JSONObject result = new JSONObject();
+        result.put("url", url);
+        result.put("cookies", cookies);
+        result.put("time", finish(start, cookies.length(), 0, 0));
+        return result;
+    }
+
+    /**
+     * Set cookies as if the page had sent them.
+     *
+     * @param cookies  [{url, name, value, domain, path, expires, maxAge, secure, httpOnly,
+     *                 sameSite}, ...], or [{url, cookie}, ...] with a Set-Cookie header value
+     * @return {set, time}
+     */
+    public JSONObject set(JSONArray cookies) throws JSONException {
+        long start = SystemClock.uptimeMillis();
+        CookieManager manager = CookieManager.getInstance();
+        int set = 0;
+        for (int i = 0; i < cookies.length(); i++) {
+            JSONObject cookie = cookies.getJSONObject(i);
+            String url = cookie.getString("url");
+            manager.setCookie(url, cookie.has("cookie") ? cookie.getString("cookie") : toHeader(cookie));
+            set++;
+        }
+        JSONObject result = new JSONObject();
+        result.put("set", set);
+        result.put("time", finish(start, 0, set, 0));
+        scheduleFlush();
+        return result;
+    }
+
+    /**
+     * @param urls  The pages.
+     * @return {cookies: [{url, name, value}, ...], time}, which set() takes back. Only
+     *         names and values can be read back, not when the cookies expire.
+     */
+    public JSONObject export(JSONArray urls) throws JSONException {
+        long start = SystemClock.uptimeMillis();
+        CookieManager manager = CookieManager.getInstance();
+        JSONArray cookies = new JSONArray();
+        for (int i = 0; i < urls.length(); i++) {
+            String url = urls.getString(i);
+            for (String[] cookie : parse(manager.getCookie(url))) {
+                JSONObject obj = new JSONObject();
+                obj.put("url", url);
+                obj.put("name", cookie[0]);
+                obj.put("value", cookie[1]);
+                cookies.put(obj);
+            }
+        }
+        JSONObject result = new JSONObject();
+        result.put("cookies", cookies);
+        result.put("time", finish(start, cookies.length(), 0, 0));
+        return result;
+    }
+
+    /**
+     * Remove the cookies a page gets. CookieManager cannot list a cookie's domain
+     * or path, so each cookie is expired without a Domain attribute, with the page's
+     * host and each of its parent domains as Domain, and for the path given, or every
+     * path above the page's.
+     *
+     * @param url   The page.
+     * @param path  Only remove cookies set for exactly this path, or null.
+     * @return {removed, time}
+     */
+    public JSONObject clear(String url, String path) throws JSONException {
+        long start = SystemClock.uptimeMillis();
+        CookieManager manager = CookieManager.getInstance();
+        List<String[]> before = parse(manager.getCookie(url));
+        List<String> domains = cookieDomains(hostOf(url));
+        List<String> paths = new ArrayList<String>();
+        if (path != null) {
+            paths.add(path);
+        } else {
+            String urlPath = pathOf(url);
+            paths.add("/");
+            for (int slash = urlPath.indexOf('/', 1); slash > 0; slash = urlPath.indexOf('/', slash + 1)) {
+                paths.add(urlPath.substring(0, slash));
+            }
+            if (urlPath.length() > 1 && !urlPath.endsWith("/")) {
+                paths.add(urlPath);
+            }
+        }
+        String secure = url.startsWith("https:") ? "; Secure" : "";
+        for (String[] cookie : before) {
+            for (String p : paths) {
+                String expired = cookie[0] + "=; Max-Age=0; Expires=Thu, 01 Jan 1970 00:00:00 GMT; Path=" + p + secure;
+                manager.setCookie(url, expired);
+                for (String domain : domains) {
+                    manager.setCookie(url, expired + "; Domain=" + domain);
+                }
+            }
+        }
+        int gone = before.size() - parse(manager.getCookie(url)).size();
+        JSONObject result = new JSONObject();
+        result.put("removed", gone);
+        result.put("time", finish(start, 0, 0, gone));
+        scheduleFlush();
+        return result;
+    }
+
+    /**
+     * Write the cookies to disk within FLUSH_DELAY, in one flush however often this
+     * is called in the meantime. May be called on any thread.
+     */
+    public void scheduleFlush() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            // CookieSyncManager syncs on its own timer before API 21
+            return;
+        }
+        synchronized (this) {
+            if (flushPending) {
+                return;
+            }
+            flushPending = true;
+        }
+        handler.postDelayed(flushLater, FLUSH_DELAY);
+    }
+
+    @SuppressLint("NewApi")
+    private void flush() {
+        long start = SystemClock.uptimeMillis();
+        CookieManager.getInstance().flush();
+        synchronized (this) {
+            flushes.record(SystemClock.uptimeMillis() - start);
+        }
+    }
+
+    private synchronized long finish(long start, int read, int written, int removed) {
+        long time = SystemClock.uptimeMillis() - start;
+        operations.record(time);
+        this.read += read;
+        this.written += written;
+        this.removed += removed;
+        return time;
+    }
+
+    /**
+     * @return {read, written, removed, operations: {...}, flushes: {...}}
+     */
+    public synchronized JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("read", read);
+        stats.put("written", written);
+        stats.put("removed", removed);
+        stats.put("operations", operations.toJSON());
+        stats.put("flushes", flushes.toJSON());
+        return stats;
+    }
+
+    /**
+     * Build a Set-Cookie header value from {name, value, domain, path, expires, maxAge,
+     * secure, httpOnly, sameSite}, with expires in milliseconds since the epoch.
+     */
+    static String toHeader(JSONObject cookie) throws JSONException {
+        StringBuilder header = new StringBuilder();
+        header.append(cookie.getString("name")).append('=').append(cookie.optString("value"));
+        if (cookie.has("domain")) {
+            header.append("; Domain=").append(cookie.getString("domain"));
+        }
+        header.append("; Path=").append(cookie.optString("path", "/"));
+        if (cookie.has("maxAge")) {
+            header.append("; Max-Age=").append(cookie.getLong("maxAge"));
+        } else if (cookie.has("expires")) {
+            long seconds = (cookie.getLong("expires") - System.currentTimeMillis()) / 1000;
+            header.append("; Max-Age=").append(Math.max(0, seconds));
+        }
+        if (cookie.optBoolean("secure")) {
+            header.append("; Secure");
+        }
+        if (cookie.optBoolean("httpOnly")) {
+            header.append("; HttpOnly");
+        }
+        if (cookie.has("sameSite")) {
+            header.append("; SameSite=").append(cookie.getString("sameSite"));
+        }
+        return header.toString();
+    }
+
+    /**
+     * Split a Cookie header value, "a=1; b=2", into name and value pairs.
+     */
+    static List<String[]> parse(String header) {
+        List<String[]> cookies = new ArrayList<String[]>();
+        if (header == null) {
+            return cookies;
+        }
+        for (String part : header.split(";")) {
+            part = part.trim();
+            if (part.length() == 0) {
+                continue;
+            }
+            int equals = part.indexOf('=');
+            if (equals < 0) {
+                cookies.add(new String[] { "", part });
+            } else {
+                cookies.add(new String[] { part.substring(0, equals), part.substring(equals + 1) });
+            }
+        }
+        return cookies;
+    }
+
+    private static String hostOf(String url) {
+        int start = UrlRuleMatcher.hostStart(url);
+        if (start < 0) {
+            return null;
+        }
+        int end = start;
+        while (end < url.length() && "/?#:".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+        return url.substring(start, end);
+    }
+
+    /**
+     * The host and the parent domains a page on it can set cookies for, longest
+     * first: www.shop.example.co.uk gives itself, shop.example.co.uk and
+     * example.co.uk. Stops before the top-level domain, and before a second-level
+     * registry label of a two-letter country domain such as co.uk; the cookie store
+     * rejects other public suffixes itself. An IP address has no parents.
+     *
+     * @param host  The host, or null.
+     * @return List of domains, empty for null
+     */
+    static List<String> cookieDomains(String host) {
+        List<String> domains = new ArrayList<String>();
+        if (host == null || host.length() == 0) {
+            return domains;
+        }
+        domains.add(host);
+        if (host.indexOf(':') >= 0 || host.startsWith("[") || isNumeric(host)) {
+            return domains;
+        }
+        String[] labels = host.split("\\.");
+        int suffix = 1;
+        if (labels.length > 2 && labels[labels.length - 1].length() == 2
+                && REGISTRY_LABELS.contains(labels[labels.length - 2].toLowerCase())) {
+            suffix = 2;
+        }
+        int dot = host.indexOf('.');
+        for (int i = 1; i < labels.length - suffix && dot >= 0; i++) {
+            domains.add(host.substring(dot + 1));
+            dot = host.indexOf('.', dot + 1);
+        }
+        return domains;
+    }
+
+    private static boolean isNumeric(String host) {
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c != '.' && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String pathOf(String url) {
+        int start = UrlRuleMatcher.hostStart(url);
+        if (start < 0) {
+            return "/";
+        }
+        int slash = start;
+        while (slash < url.length() && "/?#".indexOf(url.charAt(slash)) < 0) {
+            slash++;
+        }
+        int end = slash;
+        while (end < url.length() && url.charAt(end) != '?' && url.charAt(end) != '#') {
+            end++;
+        }
+        return end > slash ? url.substring(slash, end) : "/";
+    }
+}
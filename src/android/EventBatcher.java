@@ -0,0 +1,196 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.annotation.SuppressLint;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Coalesces the events sent to JavaScript (loadstart, loadstop, ...) into one
+ * bridge message per frame, or per window of a configured number of milliseconds.
+ *
+ * A batch is sent as {type: "batch", events: [...]}. Every event in it gets a
+ * "seq" number, increasing across batches, and a "timestamp" in milliseconds
+ * since the epoch. Batching is off unless the browser was opened with
+ * batchevents=yes; the event and message counters are kept either way.
+ */
+public class EventBatcher {
+
+    private static final String LOG_TAG = "EventBatcher";
+    private static final String BATCH_EVENT = "batch";
+
+    /**
+     * Receives each batch that is ready to go over the bridge.
+     */
+    public interface Sink {
+        void send(JSONObject batch);
+    }
+
+    private final Sink sink;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Held from taking a batch until it has been sent, so batches go out in order
+    private final Object sendLock = new Object();
+    private boolean enabled = false;
+    private int windowMillis = 0;
+    private JSONArray pending;
+    private boolean scheduled = false;
+    private long sequence = 0;
+    private long events = 0;
+    private long messages = 0;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private Choreographer.FrameCallback frameCallback;
+
+    public EventBatcher(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Turn batching on or off for the next browser.
+     *
+     * @param enabled       Whether to batch events at all.
+     * @param windowMillis  How long to collect events for, or 0 to send once per frame.
+     */
+    public void configure(boolean enabled, int windowMillis) {
+        flush();
+        synchronized (this) {
+            this.enabled = enabled;
+            this.windowMillis = Math.max(0, windowMillis);
+        }
+    }
+
+    /**
+     * Queue an event if batching is on.
+     *
+     * @param event  The event payload.
+     * @return true if the event was queued, false if the caller should send it itself
+     */
+    public boolean offer(JSONObject event) {
+        synchronized (this) {
+            if (!enabled) {
+                return false;
+            }
+            try {
+                event.put("seq", ++sequence);
+                event.put("timestamp", System.currentTimeMillis());
+            } catch (JSONException e) {
+                Log.d(LOG_TAG, "Should never happen");
+            }
+            if (pending == null) {
+                pending = new JSONArray();
+            }
+            pending.put(event);
+            events++;
+            if (scheduled) {
+                return true;
+            }
+            scheduled = true;
+        }
+        schedule();
+        return true;
+    }
+
+    /**
+     * Send whatever is queued now. Called before any event that must not overtake
+     * the queued ones, such as exit. If another thread is sending a batch, waits
+     * until it has been sent.
+     */
+    public void flush() {
+        synchronized (sendLock) {
+            JSONArray batch;
+            synchronized (this) {
+                batch = pending;
+                pending = null;
+                scheduled = false;
+                if (batch == null) {
+                    return;
+                }
+                messages++;
+            }
+            handler.removeCallbacks(flushRunnable);
+            try {
+                JSONObject obj = new JSONObject();
+                obj.put("type", BATCH_EVENT);
+                obj.put("events", batch);
+                sink.send(obj);
+            } catch (JSONException e) {
+                Log.d(LOG_TAG, "Should never happen");
+            }
+        }
+    }
+
+    /**
+     * Count an event that was sent on its own, unbatched.
+     */
+    public synchronized void countUnbatched() {
+        events++;
+        messages++;
+    }
+
+    /**
+     * @return the number of events and the bridge messages they needed
+     */
+    public synchronized JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("events", events);
+        stats.put("messages", messages);
+        return stats;
+    }
+
+    @SuppressLint("NewApi")
+    private void schedule() {
+        final int window;
+        synchronized (this) {
+            window = windowMillis;
+        }
+        if (window > 0 || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            handler.postDelayed(flushRunnable, window > 0 ? window : 16);
+            return;
+        }
+        // Choreographer has to be used from the UI thread
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (frameCallback == null) {
+                    frameCallback = new Choreographer.FrameCallback() {
+                        @Override
+                        public void doFrame(long frameTimeNanos) {
+                            flush();
+                        }
+                    };
+                }
+                Choreographer.getInstance().postFrameCallback(frameCallback);
+            }
+        });
+    }
+}
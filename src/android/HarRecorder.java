@@ -0,0 +1,613 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import android.webkit.WebResourceResponse;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Records the requests of one browser (the har=yes option) as an HTTP Archive
+ * (HAR 1.2) file, which Chrome DevTools and most HAR viewers can show as a
+ * waterfall.
+ *
+ * Entries are written to the file as they complete, a batch at a time on a
+ * background thread, so the log is never held in memory. At most BUFFER_SIZE
+ * requests are kept in flight and BUFFER_SIZE finished entries wait to be
+ * written; past that, entries are dropped and counted. The closing brackets are
+ * written after every batch, so the file is valid JSON whenever it is read.
+ *
+ * What is known about a request depends on who loaded it. Responses the plugin
+ * served itself (from the ResourceCache, the defer option, the netmode archive,
+ * or blocked by the content blocker) have their status, size, and time to headers and to the end
+ * of the body. Requests the WebView loaded itself only have a status if they
+ * failed; otherwise their status is 0, and they are written when their page
+ * finishes. HAR 1.2 has no value for an unknown time or size, so those are
+ * written as 0 and named in the entry's _unknown list.
+ *
+ * close() writes what is still pending and closes the file; the browser calls it
+ * when it closes.
+ */
+public class HarRecorder {
+
+    private static final String LOG_TAG = "HarRecorder";
+    public static final int BUFFER_SIZE = 256;
+    private static final int KEEP_FILES = 5;
+    private static final String DIR = "inAppBrowserHar";
+    private static final String SUFFIX = ".har";
+
+    public static final String SOURCE_NETWORK = "network";
+    public static final String SOURCE_CACHE = "cache";
+    public static final String SOURCE_BLOCKED = "blocked";
+    public static final String SOURCE_REPLAY = "replay";
+    public static final String SOURCE_WEBVIEW = "webview";
+
+    /**
+     * A request being recorded.
+     */
+    public static class Entry {
+        final String url;
+        final String method;
+        String pageref;
+        final long startedAt = System.currentTimeMillis();
+        final long start = SystemClock.uptimeMillis();
+        int status = 0;
+        String statusText = "";
+        String mimeType = "";
+        String source = SOURCE_WEBVIEW;
+        String error;
+        long wait = -1;
+        long time = -1;
+        long size = -1;
+        boolean done = false;
+
+        Entry(String url, String method, String pageref) {
+            this.url = url;
+            this.method = method;
+            this.pageref = pageref;
+        }
+    }
+
+    private final Context context;
+    private final String name;
+    private final Executor executor;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+
+    // Guarded by this
+    private final LinkedHashMap<String, Entry> pending = new LinkedHashMap<String, Entry>();
+    private final List<JSONObject> pages = new ArrayList<JSONObject>();
+    private String pageref;
+    private long dropped = 0;
+    private boolean drainScheduled = false;
+    private boolean closed = false;
+
+    private final ArrayBlockingQueue<JSONObject> finished = new ArrayBlockingQueue<JSONObject>(BUFFER_SIZE);
+
+    // Guarded by fileLock
+    private final Object fileLock = new Object();
+    private File file;
+    private RandomAccessFile out;
+    private long footerAt = -1;
+    private long written = 0;
+    private boolean fileClosed = false;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (HarRecorder.this) {
+                drainScheduled = false;
+            }
+            write();
+        }
+    };
+
+    /**
+     * Does not touch the disk; the file is created in the app's files directory,
+     * where only the newest few are kept, when the first entries are written.
+     *
+     * @param context   The application context.
+     * @param executor  Writes the file.
+     */
+    public HarRecorder(Context context, Executor executor) {
+        SimpleDateFormat stamp = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS", Locale.US);
+        this.context = context;
+        this.name = "inappbrowser-" + stamp.format(new Date()) + SUFFIX;
+        this.executor = executor;
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * A page of the browser started loading; the requests from now on belong to it.
+     *
+     * @param url  The page.
+     */
+    public synchronized void pageStarted(String url) {
+        pageref = "page_" + (pages.size() + 1);
+        // The document itself was requested before its page started
+        Entry document = pending.get(url);
+        if (document != null) {
+            document.pageref = pageref;
+        }
+        try {
+            JSONObject page = new JSONObject();
+            page.put("startedDateTime", format(System.currentTimeMillis()));
+            page.put("id", pageref);
+            page.put("title", url);
+            JSONObject timings = new JSONObject();
+            timings.put("onContentLoad", -1);
+            timings.put("onLoad", -1);
+            page.put("pageTimings", timings);
+            page.put("_start", SystemClock.uptimeMillis());
+            pages.add(page);
+        } catch (JSONException e) {
+            Log.d(LOG_TAG, "Should never happen");
+        }
+    }
+
+    /**
+     * The page finished loading. Writes the requests of the page the WebView loaded
+     * itself, which are not heard of again.
+     *
+     * @param url  The page.
+     */
+    public void pageFinished(String url) {
+        List<Entry> done = new ArrayList<Entry>();
+        synchronized (this) {
+            if (pages.isEmpty()) {
+                return;
+            }
+            try {
+                JSONObject page = pages.get(pages.size() - 1);
+                page.getJSONObject("pageTimings").put("onLoad", SystemClock.uptimeMillis() - page.getLong("_start"));
+            } catch (JSONException e) {
+                Log.d(LOG_TAG, "Should never happen");
+            }
+            Iterator<Entry> entries = pending.values().iterator();
+            while (entries.hasNext()) {
+                Entry entry = entries.next();
+                if (SOURCE_WEBVIEW.equals(entry.source)) {
+                    entries.remove();
+                    entry.done = true;
+                    done.add(entry);
+                }
+            }
+        }
+        for (Entry entry : done) {
+            complete(entry);
+        }
+        schedule();
+    }
+
+    /**
+     * Start recording a request, as shouldInterceptRequest sees it.
+     *
+     * @param url     The request URL.
+     * @param method  The request method.
+     * @return the entry, to pass to served() if the plugin answers the request
+     */
+    public Entry begin(String url, String method) {
+        Entry evicted = null;
+        Entry replaced;
+        Entry entry;
+        synchronized (this) {
+            entry = new Entry(url, method, pageref);
+            if (closed) {
+                entry.done = true;
+                dropped++;
+                return entry;
+            }
+            replaced = pending.put(url, entry);
+            if (replaced != null) {
+                replaced.done = true;
+            }
+            if (pending.size() > BUFFER_SIZE) {
+                Iterator<Entry> oldest = pending.values().iterator();
+                evicted = oldest.next();
+                oldest.remove();
+                evicted.done = true;
+            }
+        }
+        if (replaced != null) {
+            complete(replaced);
+        }
+        if (evicted != null) {
+            complete(evicted);
+        }
+        return entry;
+    }
+
+    /**
+     * The plugin answers a request itself. Wraps the response body so the entry is
+     * finished when the WebView has read it.
+     *
+     * @param entry     What begin() returned.
+     * @param response  The response handed to the WebView.
+     * @param source    SOURCE_NETWORK, SOURCE_CACHE, SOURCE_BLOCKED or SOURCE_REPLAY.
+     */
+    @SuppressLint("NewApi")
+    public void served(Entry entry, WebResourceResponse response, String source) {
+        synchronized (this) {
+            entry.source = source;
+            entry.status = response.getStatusCode();
+            entry.statusText = response.getReasonPhrase() == null ? "" : response.getReasonPhrase();
+            entry.mimeType = response.getMimeType() == null ? "" : response.getMimeType();
+            entry.wait = SystemClock.uptimeMillis() - entry.start;
+        }
+        response.setData(new RecordingInputStream(response.getData(), entry));
+    }
+
+    /**
+     * A request failed, from onReceivedHttpError or onReceivedError.
+     *
+     * @param url         The request URL.
+     * @param status      The HTTP status, or 0 if no response came.
+     * @param statusText  The reason phrase or error description.
+     */
+    public void failed(String url, int status, String statusText) {
+        Entry entry;
+        synchronized (this) {
+            entry = pending.get(url);
+            if (entry == null || !SOURCE_WEBVIEW.equals(entry.source)) {
+                return;
+            }
+            pending.remove(url);
+            entry.done = true;
+            entry.status = status;
+            entry.statusText = statusText == null ? "" : statusText;
+            if (status == 0) {
+                entry.error = entry.statusText;
+            }
+            entry.time = SystemClock.uptimeMillis() - entry.start;
+        }
+        complete(entry);
+        schedule();
+    }
+
+    private void finish(Entry entry, long size) {
+        synchronized (this) {
+            if (entry.done) {
+                return;
+            }
+            entry.done = true;
+            if (pending.get(entry.url) == entry) {
+                pending.remove(entry.url);
+            }
+            entry.size = size;
+            entry.time = SystemClock.uptimeMillis() - entry.start;
+        }
+        complete(entry);
+        schedule();
+    }
+
+    private void complete(Entry entry) {
+        synchronized (this) {
+            if (closed) {
+                dropped++;
+                return;
+            }
+        }
+        try {
+            JSONObject json = toJSON(entry);
+            if (!finished.offer(json)) {
+                synchronized (this) {
+                    dropped++;
+                }
+            }
+        } catch (JSONException e) {
+            Log.d(LOG_TAG, "Should never happen");
+        }
+    }
+
+    private void schedule() {
+        synchronized (this) {
+            if (drainScheduled) {
+                return;
+            }
+            drainScheduled = true;
+        }
+        executor.execute(drain);
+    }
+
+    /**
+     * Write what has finished so far. Called on the executor, and by getStats().
+     */
+    private void write() {
+        List<JSONObject> batch = new ArrayList<JSONObject>();
+        finished.drainTo(batch);
+        synchronized (fileLock) {
+            if (fileClosed) {
+                return;
+            }
+            long trace = InAppBrowserTrace.begin("writeHar");
+            try {
+                if (out == null) {
+                    open();
+                }
+                StringBuilder text = new StringBuilder();
+                for (JSONObject entry : batch) {
+                    if (written > 0) {
+                        text.append(',');
+                    }
+                    text.append('\n').append(entry.toString());
+                    written++;
+                }
+                byte[] entries = text.toString().getBytes("UTF-8");
+                byte[] footer = ("\n],\n\"pages\": " + pagesJSON() + "\n}}\n").getBytes("UTF-8");
+                out.seek(footerAt);
+                out.write(entries);
+                out.write(footer);
+                out.setLength(footerAt + entries.length + footer.length);
+                footerAt += entries.length;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Cannot write " + name + ": " + e.toString());
+            } finally {
+                InAppBrowserTrace.end("writeHar", trace);
+            }
+        }
+    }
+
+    /**
+     * Finish the requests still pending with what is known of them, write them and
+     * close the file. Later requests are dropped. Touches the disk; must not be
+     * called on the UI thread.
+     */
+    public void close() {
+        List<Entry> rest;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            rest = new ArrayList<Entry>(pending.values());
+            pending.clear();
+            long now = SystemClock.uptimeMillis();
+            for (Entry entry : rest) {
+                entry.done = true;
+                if (!SOURCE_WEBVIEW.equals(entry.source)) {
+                    // Served, but the WebView had not read the whole body
+                    entry.time = now - entry.start;
+                }
+            }
+        }
+        for (Entry entry : rest) {
+            complete(entry);
+        }
+        synchronized (this) {
+            closed = true;
+        }
+        write();
+        synchronized (fileLock) {
+            fileClosed = true;
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Cannot close " + name + ": " + e.toString());
+                }
+                out = null;
+            }
+        }
+    }
+
+    /**
+     * close() on the executor, for the UI thread.
+     */
+    public void closeInBackground() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                close();
+            }
+        });
+    }
+
+    private void open() throws IOException {
+        File dir = new File(context.getFilesDir(), DIR);
+        file = new File(dir, name);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File[] old = dir.listFiles();
+        if (old != null && old.length >= KEEP_FILES) {
+            Arrays.sort(old);
+            for (int i = 0; i <= old.length - KEEP_FILES; i++) {
+                if (old[i].getName().endsWith(SUFFIX)) {
+                    old[i].delete();
+                }
+            }
+        }
+        out = new RandomAccessFile(file, "rw");
+        JSONObject creator = new JSONObject();
+        try {
+            creator.put("name", "cordova-plugin-inappbrowser");
+            creator.put("version", "0.1.0");
+        } catch (JSONException e) {
+            Log.d(LOG_TAG, "Should never happen");
+        }
+        byte[] header = ("{\"log\": {\n\"version\": \"1.2\",\n\"creator\": " + creator.toString() + ",\n\"entries\": [")
+                .getBytes("UTF-8");
+        out.write(header);
+        footerAt = header.length;
+    }
+
+    private synchronized String pagesJSON() {
+        JSONArray array = new JSONArray();
+        for (JSONObject page : pages) {
+            array.put(page);
+        }
+        return array.toString();
+    }
+
+    private synchronized String format(long millis) {
+        return dateFormat.format(new Date(millis));
+    }
+
+    private JSONObject toJSON(Entry entry) throws JSONException {
+        JSONArray unknown = new JSONArray();
+        long time = known(entry.time, "time", unknown);
+        long size = known(entry.size, "size", unknown);
+        long wait = known(entry.wait, "wait", unknown);
+        long receive = known(entry.wait >= 0 && entry.time >= 0 ? entry.time - entry.wait : -1, "receive", unknown);
+
+        JSONObject request = new JSONObject();
+        request.put("method", entry.method);
+        request.put("url", entry.url);
+        request.put("httpVersion", "");
+        request.put("cookies", new JSONArray());
+        request.put("headers", new JSONArray());
+        request.put("queryString", new JSONArray());
+        request.put("headersSize", -1);
+        request.put("bodySize", -1);
+
+        JSONObject content = new JSONObject();
+        content.put("size", size);
+        content.put("mimeType", entry.mimeType);
+        JSONObject response = new JSONObject();
+        response.put("status", entry.status);
+        response.put("statusText", entry.statusText);
+        response.put("httpVersion", "");
+        response.put("cookies", new JSONArray());
+        response.put("headers", new JSONArray());
+        response.put("content", content);
+        response.put("redirectURL", "");
+        response.put("headersSize", -1);
+        response.put("bodySize", entry.size);
+        if (entry.error != null) {
+            response.put("_error", entry.error);
+        }
+
+        JSONObject timings = new JSONObject();
+        timings.put("send", 0);
+        timings.put("wait", wait);
+        timings.put("receive", receive);
+
+        JSONObject obj = new JSONObject();
+        if (entry.pageref != null) {
+            obj.put("pageref", entry.pageref);
+        }
+        obj.put("startedDateTime", format(entry.startedAt));
+        obj.put("time", time);
+        obj.put("request", request);
+        obj.put("response", response);
+        obj.put("cache", new JSONObject());
+        obj.put("timings", timings);
+        obj.put("_source", entry.source);
+        if (unknown.length() > 0) {
+            obj.put("_unknown", unknown);
+        }
+        return obj;
+    }
+
+    /**
+     * @return the value, or 0 if it is not known, when its name is added to unknown
+     */
+    private static long known(long value, String name, JSONArray unknown) {
+        if (value >= 0) {
+            return value;
+        }
+        unknown.put(name);
+        return 0;
+    }
+
+    /**
+     * Write what has finished so far, and describe the file. Touches the disk; must
+     * not be called on the UI thread.
+     *
+     * @return {path, entries, pending, dropped}
+     */
+    public JSONObject getStats() throws JSONException {
+        write();
+        JSONObject obj = new JSONObject();
+        synchronized (fileLock) {
+            obj.put("path", file == null ? null : file.getAbsolutePath());
+            obj.put("entries", written);
+        }
+        synchronized (this) {
+            obj.put("pending", pending.size());
+            obj.put("dropped", dropped);
+        }
+        return obj;
+    }
+
+    /**
+     * Counts the body as the WebView reads it, and finishes the entry at its end.
+     */
+    private class RecordingInputStream extends FilterInputStream {
+        private final Entry entry;
+        private long size = 0;
+
+        RecordingInputStream(InputStream in, Entry entry) {
+            super(in);
+            this.entry = entry;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                finish(entry, size);
+            } else {
+                size++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read < 0) {
+                finish(entry, size);
+            } else {
+                size += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                finish(entry, size);
+            }
+        }
+    }
+}
@@ -31,6 +31,7 @@ import android.graphics.drawable.shapes.RectShape;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.text.InputType;
 import android.text.TextUtils;
 import android.util.Log;
@@ -44,6 +45,10 @@ import android.view.WindowManager.LayoutParams;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputMethodManager;
 import android.webkit.CookieManager;
+import android.webkit.ValueCallback;
+import android.webkit.WebResourceError;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebSettings;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
@@ -55,22 +60,24 @@ import android.widget.LinearLayout;
 import android.widget.RelativeLayout;
 
 import org.apache.cordova.CallbackContext;
-import org.apache.cordova.Config;
 import org.apache.cordova.CordovaArgs;
 import org.apache.cordova.CordovaPlugin;
 import org.apache.cordova.CordovaWebView;
 import org.apache.cordova.LOG;
-import org.apache.cordova.PluginManager;
 import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.HashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.StringTokenizer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 
 @SuppressLint("SetJavaScriptEnabled")
 public class InAppBrowser extends CordovaPlugin {
@@ -79,21 +86,45 @@ public class InAppBrowser extends CordovaPlugin {
     protected static final String LOG_TAG = "InAppBrowser";
     private static final String SELF = "_self";
     private static final String SYSTEM = "_system";
-    private static final String LEAVE_IAB_REGEX = "leaveiab";
-    private static final String LOADING_CAPTION = "loadingcaption";
     // private static final String BLANK = "_blank";
     private static final String EXIT_EVENT = "exit";
-    private static final String LOCATION = "location";
-    private static final String TOOLBAR = "toolbar";
-    private static final String ZOOM = "zoom";
-    private static final String HIDDEN = "hidden";
     private static final String LOAD_START_EVENT = "loadstart";
     private static final String LOAD_STOP_EVENT = "loadstop";
     private static final String LOAD_ERROR_EVENT = "loaderror";
-    private static final String CLEAR_ALL_CACHE = "clearcache";
-    private static final String CLEAR_SESSION_CACHE = "clearsessioncache";
-    private static final String HARDWARE_BACK_BUTTON = "hardwareback";
-
+    private static final String POOL_SIZE_PREFERENCE = "InAppBrowserPoolSize";
+    private static final String REUSE_TIMEOUT_PREFERENCE = "InAppBrowserReuseTimeout";
+    private static final int DEFAULT_REUSE_TIMEOUT = 60;
+    private static final String CACHE_SIZE_PREFERENCE = "InAppBrowserCacheSize";
+    private static final int DEFAULT_CACHE_SIZE = 20;
+    private static final String TRACING_PREFERENCE = "InAppBrowserTracing";
+    private static final String STORAGE_PREFERENCE = "InAppBrowserStorageEnabled";
+    private static final String DATABASE_DIR = "inAppBrowserDB";
+    private static final String FILTER_LISTS_PREFERENCE = "InAppBrowserFilterLists";
+    private static final String COMPILED_FILTERS = "inAppBrowserFilters.bin";
+    private static final long CLOSE_TIMEOUT = 1000;
+
+    private final SchemeHandlerRegistry schemeHandlers = SchemeHandlerRegistry.createDefault();
+    private final NavigationMetrics metrics = new NavigationMetrics();
+    private final OpenStats openStats = new OpenStats();
+    private final RequestDeferrer.Stats deferralStats = new RequestDeferrer.Stats();
+    private InAppBrowserPool pool;
+    private NavigationWhitelist whitelist;
+    private ScriptResultBridge resultBridge;
+    private ResourceCache resourceCache;
+    private boolean resourceCacheOpened = false;
+    // Created on a background thread by pluginInitialize()
+    private volatile String databasePath;
+    // Compiled from the InAppBrowserFilterLists, also by pluginInitialize(); null until then
+    private volatile ContentBlocker contentBlocker;
+    // The recorder of the last browser opened with har=yes
+    private volatile HarRecorder harRecorder;
+    // The archive of the last browser opened with netmode
+    private volatile NetworkArchive networkArchive;
+    private Prefetcher prefetcher;
+    private Prerenderer prerenderer;
+    private CookieJar cookieJar;
+    private BrowserProfiles profiles;
+    private InAppBrowserPool.Entry pooled;
     private InAppBrowserDialog dialog;
     private WebView inAppWebView;
     private TextView pageTitle;
@@ -101,15 +132,50 @@ public class InAppBrowser extends CordovaPlugin {
     public ImageButton back;
     public ImageButton forward;
     private CallbackContext callbackContext;
-    private boolean showToolbar = true;
-    private boolean showLocationBar = true;
-    private boolean showZoomControls = true;
-    private boolean openWindowHidden = false;
-    private boolean clearAllCache= false;
-    private boolean clearSessionCache=false;
-    private boolean hadwareBackButton=true;
-    public String leaveIabRegex = "";
-    public String loadingCaption = "Laddar...";
+    private final EventBatcher eventBatcher = new EventBatcher(new EventBatcher.Sink() {
+        @Override
+        public void send(JSONObject batch) {
+            sendResult(batch, true, PluginResult.Status.OK);
+        }
+    });
+    private BrowserOptions options = BrowserOptions.DEFAULT;
+    private boolean clearHistoryOnLoad = false;
+    private boolean pageLoaded = false;
+    // The open on its way to showWebPage
+    private OpenStats.Open opening;
+
+    /**
+     * Called after the plugin is constructed. Turns on tracing if the InAppBrowserTracing
+     * preference asks for it, works out which whitelist API Cordova has, and starts
+     * filling the WebView pool if the InAppBrowserPoolSize preference asks for one.
+     * The WebView database directory is created, the active browsing profile read
+     * and the InAppBrowserFilterLists compiled in the background, so opening the
+     * browser does not have to touch the disk on the UI thread.
+     */
+    @Override
+    protected void pluginInitialize() {
+        Bundle appSettings = cordova.getActivity().getIntent().getExtras();
+        if (appSettings != null && appSettings.getBoolean(TRACING_PREFERENCE, false)) {
+            InAppBrowserTrace.setEnabled(true, InAppBrowserTrace.DEFAULT_CAPACITY);
+        }
+        final boolean enableDatabase = appSettings == null || appSettings.getBoolean(STORAGE_PREFERENCE, true);
+        final String filterLists = getStringPreference(FILTER_LISTS_PREFERENCE);
+        final Context context = cordova.getActivity().getApplicationContext();
+        cordova.getThreadPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (enableDatabase) {
+                    databasePath = context.getDir(DATABASE_DIR, Context.MODE_PRIVATE).getPath();
+                }
+                getProfiles().load();
+                if (filterLists != null) {
+                    contentBlocker = loadContentBlocker(context, filterLists);
+                }
+            }
+        });
+        getWhitelist();
+        getPool().warm();
+    }
 
     /**
      * Executes the request and returns PluginResult.
@@ -120,41 +186,33 @@ public class InAppBrowser extends CordovaPlugin {
      * @return              A PluginResult object with a status and message.
      */
     public boolean execute(String action, CordovaArgs args, final CallbackContext callbackContext) throws JSONException {
+        long trace = InAppBrowserTrace.begin("execute", action);
+        try {
+            return executeAction(action, args, callbackContext);
+        } finally {
+            InAppBrowserTrace.end("execute", action, trace);
+        }
+    }
+
+    private boolean executeAction(String action, CordovaArgs args, final CallbackContext callbackContext) throws JSONException {
         if (action.equals("open")) {
-            this.callbackContext = callbackContext;
             final String url = args.getString(0);
+            this.opening = openStats.begin(url, args.optLong(3));
+            this.callbackContext = callbackContext;
             String t = args.optString(1);
             if (t == null || t.equals("") || t.equals(NULL)) {
                 t = SELF;
             }
             final String target = t;
-            final HashMap<String, Boolean> features = parseFeature(args.optString(2));
-            
-            // Get leave regex from options
-            StringTokenizer featureStrs = new StringTokenizer(args.optString(2), ",");
-            StringTokenizer option;
-            while (featureStrs.hasMoreElements()) {
-                option = new StringTokenizer(featureStrs.nextToken(), "=");
-                if (option.hasMoreElements()) {
-                    String key = option.nextToken();
-                    if (key.equals(LEAVE_IAB_REGEX)) {
-                        this.leaveIabRegex = option.nextToken();
-                    }
-                    else if (key.equals(LOADING_CAPTION)) {
-                        this.loadingCaption = option.nextToken();
-                    }
-                }
-            }
+            final BrowserOptions features = BrowserOptions.parse(args.optString(2));
 
-            Log.d(LOG_TAG, "leave regex = " + this.leaveIabRegex);
-            Log.d(LOG_TAG, "target = " + target);
-            Log.d(LOG_TAG, "url = " + url);
+            InAppBrowserTrace.debug(LOG_TAG, "leave rules = ", features.getLeaveIab().getSource());
+            InAppBrowserTrace.debug(LOG_TAG, "target = ", target);
+            InAppBrowserTrace.debug(LOG_TAG, "url = ", url);
 
-            final Pattern urlPattern     = Pattern.compile(this.leaveIabRegex);
-            final Matcher urlMatcher     = urlPattern.matcher(url);
-            final Boolean shouldLeaveIab = urlMatcher.find();
+            final boolean shouldLeaveIab = features.getLeaveIab().matches(url);
 
-            Log.d(LOG_TAG, "leave iab = " + shouldLeaveIab);
+            InAppBrowserTrace.debug(LOG_TAG, "leave iab = ", shouldLeaveIab);
             
             this.cordova.getActivity().runOnUiThread(new Runnable() {
                 @Override
@@ -162,67 +220,37 @@ public class InAppBrowser extends CordovaPlugin {
                     String result = "";
                     // SELF
                     if (SELF.equals(target)) {
-                        Log.d(LOG_TAG, "in self");
-                        /* This code exists for compatibility between 3.x and 4.x versions of Cordova.
-                         * Previously the Config class had a static method, isUrlWhitelisted(). That
-                         * responsibility has been moved to the plugins, with an aggregating method in
-                         * PluginManager.
-                         */
+                        InAppBrowserTrace.debug(LOG_TAG, "in self");
                         Boolean shouldAllowNavigation = null;
                         if (url.startsWith("javascript:")) {
                             shouldAllowNavigation = true;
                         }
                         if (shouldAllowNavigation == null) {
-                            try {
-                                Method iuw = Config.class.getMethod("isUrlWhiteListed", String.class);
-                                shouldAllowNavigation = (Boolean)iuw.invoke(null, url);
-                            } catch (NoSuchMethodException e) {
-                            } catch (IllegalAccessException e) {
-                            } catch (InvocationTargetException e) {
-                            }
-                        }
-                        if (shouldAllowNavigation == null) {
-                            try {
-                                Method gpm = webView.getClass().getMethod("getPluginManager");
-                                PluginManager pm = (PluginManager)gpm.invoke(webView);
-                                Method san = pm.getClass().getMethod("shouldAllowNavigation", String.class);
-                                shouldAllowNavigation = (Boolean)san.invoke(pm, url);
-                            } catch (NoSuchMethodException e) {
-                            } catch (IllegalAccessException e) {
-                            } catch (InvocationTargetException e) {
-                            }
+                            shouldAllowNavigation = getWhitelist().shouldAllowNavigation(url);
                         }
                         // load in webview
                         if (Boolean.TRUE.equals(shouldAllowNavigation)) {
-                            Log.d(LOG_TAG, "loading in webview");
+                            InAppBrowserTrace.debug(LOG_TAG, "loading in webview");
                             webView.loadUrl(url);
                         }
-                        //Load the dialer
-                        else if (url.startsWith(WebView.SCHEME_TEL))
-                        {
-                            try {
-                                Log.d(LOG_TAG, "loading in dialer");
-                                Intent intent = new Intent(Intent.ACTION_DIAL);
-                                intent.setData(Uri.parse(url));
-                                cordova.getActivity().startActivity(intent);
-                            } catch (android.content.ActivityNotFoundException e) {
-                                LOG.e(LOG_TAG, "Error dialing " + url + ": " + e.toString());
-                            }
+                        // Load the dialer, messaging app, ...
+                        else if (schemeHandlers.dispatch(cordova.getActivity(), null, url)) {
+                            InAppBrowserTrace.debug(LOG_TAG, "loaded by scheme handler");
                         }
                         // load in InAppBrowser
                         else {
-                            Log.d(LOG_TAG, "loading in InAppBrowser");
+                            InAppBrowserTrace.debug(LOG_TAG, "loading in InAppBrowser");
                             result = showWebPage(url, features);
                         }
                     }
                     // SYSTEM
                     else if (SYSTEM.equals(target) || shouldLeaveIab) {
-                        Log.d(LOG_TAG, "in system");
+                        InAppBrowserTrace.debug(LOG_TAG, "in system");
                         result = openExternal(url);
                     }
                     // BLANK - or anything else
                     else {
-                        Log.d(LOG_TAG, "in blank");
+                        InAppBrowserTrace.debug(LOG_TAG, "in blank");
                         result = showWebPage(url, features);
                     }
     
@@ -238,14 +266,14 @@ public class InAppBrowser extends CordovaPlugin {
         else if (action.equals("injectScriptCode")) {
             String jsWrapper = null;
             if (args.getBoolean(1)) {
-                jsWrapper = String.format("prompt(JSON.stringify([eval(%%s)]), 'gap-iab://%s')", callbackContext.getCallbackId());
+                jsWrapper = resultStatement(callbackContext.getCallbackId(), "JSON.stringify([eval(%s)])");
             }
             injectDeferredObject(args.getString(0), jsWrapper);
         }
         else if (action.equals("injectScriptFile")) {
             String jsWrapper;
             if (args.getBoolean(1)) {
-                jsWrapper = String.format("(function(d) { var c = d.createElement('script'); c.src = %%s; c.onload = function() { prompt('', 'gap-iab://%s'); }; d.body.appendChild(c); })(document)", callbackContext.getCallbackId());
+                jsWrapper = String.format("(function(d) { var c = d.createElement('script'); c.src = %%s; c.onload = function() { %s; }; d.body.appendChild(c); })(document)", resultStatement(callbackContext.getCallbackId(), "''"));
             } else {
                 jsWrapper = "(function(d) { var c = d.createElement('script'); c.src = %s; d.body.appendChild(c); })(document)";
             }
@@ -254,7 +282,7 @@ public class InAppBrowser extends CordovaPlugin {
         else if (action.equals("injectStyleCode")) {
             String jsWrapper;
             if (args.getBoolean(1)) {
-                jsWrapper = String.format("(function(d) { var c = d.createElement('style'); c.innerHTML = %%s; d.body.appendChild(c); prompt('', 'gap-iab://%s');})(document)", callbackContext.getCallbackId());
+                jsWrapper = String.format("(function(d) { var c = d.createElement('style'); c.innerHTML = %%s; d.body.appendChild(c); %s;})(document)", resultStatement(callbackContext.getCallbackId(), "''"));
             } else {
                 jsWrapper = "(function(d) { var c = d.createElement('style'); c.innerHTML = %s; d.body.appendChild(c); })(document)";
             }
@@ -263,17 +291,124 @@ public class InAppBrowser extends CordovaPlugin {
         else if (action.equals("injectStyleFile")) {
             String jsWrapper;
             if (args.getBoolean(1)) {
-                jsWrapper = String.format("(function(d) { var c = d.createElement('link'); c.rel='stylesheet'; c.type='text/css'; c.href = %%s; d.head.appendChild(c); prompt('', 'gap-iab://%s');})(document)", callbackContext.getCallbackId());
+                jsWrapper = String.format("(function(d) { var c = d.createElement('link'); c.rel='stylesheet'; c.type='text/css'; c.href = %%s; d.head.appendChild(c); %s;})(document)", resultStatement(callbackContext.getCallbackId(), "''"));
             } else {
                 jsWrapper = "(function(d) { var c = d.createElement('link'); c.rel='stylesheet'; c.type='text/css'; c.href = %s; d.head.appendChild(c); })(document)";
             }
             injectDeferredObject(args.getString(0), jsWrapper);
         }
+        else if (action.equals("getPoolStats")) {
+            callbackContext.success(getPool().getStats());
+        }
+        else if (action.equals("getMetrics")) {
+            JSONObject result = new JSONObject();
+            result.put("navigation", metrics.getStats());
+            result.put("open", openStats.getStats());
+            result.put("deferral", deferralStats.toJSON());
+            result.put("pool", getPool().getStats());
+            result.put("events", eventBatcher.getStats());
+            ResourceCache cache = getResourceCache(false);
+            if (cache != null) {
+                result.put("cache", cache.getStats());
+            }
+            Prerenderer renderer = prerenderer;
+            if (renderer != null) {
+                result.put("prerender", renderer.getStats());
+            }
+            CookieJar jar = cookieJar;
+            if (jar != null) {
+                result.put("cookies", jar.getStats());
+            }
+            BrowserProfiles browserProfiles = profiles;
+            if (browserProfiles != null) {
+                result.put("profiles", browserProfiles.getStats());
+            }
+            ContentBlocker blocker = contentBlocker;
+            if (blocker != null) {
+                result.put("contentBlocker", blocker.getStats());
+            }
+            NetworkArchive archive = networkArchive;
+            if (archive != null) {
+                result.put("archive", archive.getStats());
+            }
+            callbackContext.success(result);
+        }
+        else if (action.equals("prefetch")) {
+            prefetch(args.getJSONArray(0), args.optJSONObject(1), callbackContext);
+        }
+        else if (action.equals("cancelPrefetch")) {
+            synchronized (this) {
+                if (prefetcher != null) {
+                    prefetcher.cancelAll();
+                }
+            }
+            callbackContext.success();
+        }
+        else if (action.equals("prerender")) {
+            final String url = args.getString(0);
+            final BrowserOptions features = BrowserOptions.parse(args.optString(1));
+            final int ttl = args.isNull(2) ? Prerenderer.DEFAULT_TTL : args.optInt(2);
+            if (features.clearAllCache() || features.clearSessionCache()) {
+                callbackContext.error("A prerender cannot clear cookies");
+                return true;
+            }
+            cordova.getThreadPool().execute(new Runnable() {
+                @Override
+                public void run() {
+                    // Which profile is active is read from disk the first time
+                    final BrowserProfiles browserProfiles = getProfiles();
+                    browserProfiles.load();
+                    cordova.getActivity().runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (browserProfiles.needsSwitch(features.getProfile())) {
+                                callbackContext.error("Cannot prerender in a profile other than the active one");
+                            } else if (prerender(url, features, ttl)) {
+                                callbackContext.success();
+                            } else {
+                                callbackContext.error("Cannot give the prerender its profile");
+                            }
+                        }
+                    });
+                }
+            });
+        }
+        else if (action.equals("setTracing")) {
+            int capacity = args.isNull(1) ? InAppBrowserTrace.DEFAULT_CAPACITY : args.optInt(1);
+            InAppBrowserTrace.setEnabled(args.getBoolean(0), capacity);
+            callbackContext.success();
+        }
+        else if (action.equals("getTrace")) {
+            callbackContext.success(InAppBrowserTrace.toJSON());
+        }
+        else if (action.equals("getHar")) {
+            final HarRecorder recorder = harRecorder;
+            if (recorder == null) {
+                callbackContext.error("No browser was opened with har=yes");
+                return true;
+            }
+            cordova.getThreadPool().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        callbackContext.success(recorder.getStats());
+                    } catch (JSONException e) {
+                        callbackContext.error(e.getMessage());
+                    }
+                }
+            });
+        }
+        else if (action.equals("getCookies") || action.equals("setCookies") || action.equals("exportCookies")
+                || action.equals("clearCookies")) {
+            cookieAction(action, args, callbackContext);
+        }
         else if (action.equals("show")) {
             this.cordova.getActivity().runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
-                    dialog.show();
+                    if (dialog != null) {
+                        dialog.show();
+                    }
                 }
             });
             PluginResult pluginResult = new PluginResult(PluginResult.Status.OK);
@@ -286,6 +421,16 @@ public class InAppBrowser extends CordovaPlugin {
         return true;
     }
 
+    /**
+     * The handlers for URL schemes that are passed to other apps instead of being
+     * loaded, such as tel: and sms:. Apps can register their own, e.g. for intent: URLs.
+     *
+     * @return SchemeHandlerRegistry
+     */
+    public SchemeHandlerRegistry getSchemeHandlers() {
+        return schemeHandlers;
+    }
+
     /**
      * Called when the view navigates.
      */
@@ -299,7 +444,424 @@ public class InAppBrowser extends CordovaPlugin {
      * Stop listener.
      */
     public void onDestroy() {
-        closeDialog();
+        closeBrowser(true);
+        HarRecorder recorder = harRecorder;
+        if (recorder != null) {
+            recorder.closeInBackground();
+        }
+        if (prerenderer != null) {
+            final Prerenderer oldPrerenderer = prerenderer;
+            prerenderer = null;
+            cordova.getActivity().getApplicationContext().unregisterComponentCallbacks(oldPrerenderer);
+            this.cordova.getActivity().runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    oldPrerenderer.drop();
+                }
+            });
+        }
+        synchronized (this) {
+            if (prefetcher != null) {
+                prefetcher.shutdown();
+                prefetcher = null;
+            }
+        }
+        if (pool != null) {
+            final InAppBrowserPool oldPool = pool;
+            pool = null;
+            this.cordova.getActivity().runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    oldPool.clear();
+                }
+            });
+        }
+    }
+
+    /**
+     * The whitelist check for _self opens, resolved once for this version of Cordova.
+     *
+     * @return NavigationWhitelist
+     */
+    private synchronized NavigationWhitelist getWhitelist() {
+        if (whitelist == null) {
+            whitelist = NavigationWhitelist.resolve(webView);
+        }
+        return whitelist;
+    }
+
+    /**
+     * The JavascriptInterface that script results come back through, on API 17 and up.
+     *
+     * @return ScriptResultBridge
+     */
+    private synchronized ScriptResultBridge getResultBridge() {
+        if (resultBridge == null) {
+            resultBridge = new ScriptResultBridge(webView, cordova.getThreadPool());
+        }
+        return resultBridge;
+    }
+
+    /**
+     * JavaScript which sends the value of an expression to a callback. The value must
+     * be a JSON-encoded array, or '' for no result. Where the ScriptResultBridge can be
+     * used the value is posted to it, otherwise it goes through prompt() to
+     * InAppChromeClient.
+     *
+     * @param callbackId       The callback to send the value to.
+     * @param valueExpression  JavaScript expression for the value.
+     * @return String
+     */
+    private String resultStatement(String callbackId, String valueExpression) {
+        if (ScriptResultBridge.isSupported()) {
+            return getResultBridge().register(callbackId, valueExpression);
+        }
+        return "prompt(" + valueExpression + ", 'gap-iab://" + callbackId + "')";
+    }
+
+    /**
+     * The on-disk subresource cache, sized by the InAppBrowserCacheSize preference in
+     * megabytes. Opening it touches the disk, so it is only opened from
+     * shouldInterceptRequest, which does not run on the UI thread.
+     *
+     * @param open  Whether to open the cache if that has not happened yet.
+     * @return ResourceCache, or null if the cache is turned off or cannot be used
+     */
+    private synchronized ResourceCache getResourceCache(boolean open) {
+        if (!resourceCacheOpened && open) {
+            resourceCacheOpened = true;
+            int megabytes = getIntPreference(CACHE_SIZE_PREFERENCE, DEFAULT_CACHE_SIZE);
+            if (megabytes > 0) {
+                File dir = new File(cordova.getActivity().getCacheDir(), "inAppBrowserCache");
+                resourceCache = ResourceCache.open(dir, megabytes * 1024L * 1024L, cordova.getThreadPool());
+            }
+        }
+        return resourceCache;
+    }
+
+    /**
+     * Fetch documents and their subresources into the ResourceCache, so that a later
+     * open with matching cacheorigins is served from disk. The callback gets the
+     * result once everything has been fetched, or the job was cancelled.
+     *
+     * @param urls             The http(s) URLs of the documents.
+     * @param options          {concurrency, maxBytes}, or null for the defaults.
+     * @param callbackContext  The callback for the result.
+     */
+    private void prefetch(JSONArray urls, JSONObject options, final CallbackContext callbackContext) throws JSONException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            callbackContext.error("prefetch needs Android 5.0 or later");
+            return;
+        }
+        final ArrayList<String> list = new ArrayList<String>();
+        for (int i = 0; i < urls.length(); i++) {
+            String url = urls.getString(i);
+            if (url.startsWith("http:") || url.startsWith("https:")) {
+                list.add(url);
+            }
+        }
+        final int concurrency = options == null ? Prefetcher.DEFAULT_CONCURRENCY : options.optInt("concurrency", Prefetcher.DEFAULT_CONCURRENCY);
+        final long maxBytes = options == null ? Prefetcher.DEFAULT_MAX_BYTES : options.optLong("maxBytes", Prefetcher.DEFAULT_MAX_BYTES);
+        final String profile = options == null || options.isNull("profile") ? null : options.optString("profile", null);
+        // Opening the cache touches the disk
+        cordova.getThreadPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                Prefetcher prefetcher = getPrefetcher();
+                if (prefetcher == null) {
+                    callbackContext.error("The InAppBrowser cache is turned off");
+                    return;
+                }
+                prefetcher.prefetch(list, profile, concurrency, maxBytes, new Prefetcher.Listener() {
+                    @Override
+                    public void done(JSONObject result) {
+                        callbackContext.success(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Run a cookie action on the thread pool, as CookieManager can block.
+     *
+     * @param action        getCookies, setCookies, exportCookies or clearCookies.
+     * @param args          The arguments of the action.
+     * @param callbackContext Told the result.
+     */
+    private void cookieAction(final String action, final CordovaArgs args, final CallbackContext callbackContext) {
+        final CookieJar jar = getCookieJar();
+        cordova.getThreadPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    JSONObject result;
+                    if (action.equals("getCookies")) {
+                        result = jar.get(args.getString(0));
+                    } else if (action.equals("setCookies")) {
+                        result = jar.set(args.getJSONArray(0));
+                    } else if (action.equals("exportCookies")) {
+                        result = jar.export(args.getJSONArray(0));
+                    } else {
+                        result = jar.clear(args.getString(0), args.isNull(1) ? null : args.getString(1));
+                    }
+                    callbackContext.success(result);
+                } catch (JSONException e) {
+                    callbackContext.error(e.getMessage());
+                }
+            }
+        });
+    }
+
+    private synchronized CookieJar getCookieJar() {
+        if (cookieJar == null) {
+            cookieJar = new CookieJar(cordova.getThreadPool());
+        }
+        return cookieJar;
+    }
+
+    private synchronized BrowserProfiles getProfiles() {
+        if (profiles == null) {
+            profiles = new BrowserProfiles(cordova.getActivity().getApplicationContext(), getCookieJar(), cordova.getThreadPool());
+        }
+        return profiles;
+    }
+
+    /**
+     * Load a page in a WebView that is not shown, so a later open of the same URL with
+     * the same options can show it right away. The page gets the client, settings and
+     * profile that open would give it, in a WebView of its own rather than a browser
+     * kept by reuse=yes. Must be called on the UI thread.
+     *
+     * @param url         The page to load.
+     * @param features    The options the page will be opened with.
+     * @param ttlSeconds  How long to keep it if it is not opened.
+     * @return false if the WebView could not be given the profile
+     */
+    private boolean prerender(String url, BrowserOptions features, int ttlSeconds) {
+        if (prerenderer == null) {
+            prerenderer = new Prerenderer();
+            cordova.getActivity().getApplicationContext().registerComponentCallbacks(prerenderer);
+        }
+        InAppBrowserPool.Entry entry = getPool().acquireNew();
+        String profile = features.getProfile();
+        if (profile != null && !getProfiles().apply(entry.webView, profile)) {
+            InAppBrowserPool.destroy(entry);
+            return false;
+        }
+        entry.profile = profile;
+        applySettings(entry.webView, features);
+        InAppBrowserClient client = new InAppBrowserClient(this, features);
+        Prerenderer.Prerender prerender = new Prerenderer.Prerender(url, features.getSource(), entry, client);
+        client.prerender = prerender;
+        prerender.har = client.har;
+        prerenderer.start(prerender, ttlSeconds);
+        return true;
+    }
+
+    /**
+     * The WebView settings every InAppBrowser page is loaded with. Applied before the
+     * first page loads, so the ScriptResultBridge is there from the start.
+     *
+     * @param view      The WebView.
+     * @param features  The options of the open, for zoom.
+     */
+    private void applySettings(WebView view, BrowserOptions features) {
+        if (ScriptResultBridge.isSupported()) {
+            getResultBridge().attach(view);
+        }
+        WebSettings settings = view.getSettings();
+        settings.setJavaScriptEnabled(true);
+        settings.setJavaScriptCanOpenWindowsAutomatically(true);
+        settings.setBuiltInZoomControls(features.showZoomControls());
+        settings.setPluginState(android.webkit.WebSettings.PluginState.ON);
+
+        //Toggle whether this is enabled or not!
+        Bundle appSettings = cordova.getActivity().getIntent().getExtras();
+        boolean enableDatabase = appSettings == null ? true : appSettings.getBoolean(STORAGE_PREFERENCE, true);
+        if (enableDatabase) {
+            settings.setDatabasePath(getDatabasePath());
+            settings.setDatabaseEnabled(true);
+        }
+        settings.setDomStorageEnabled(true);
+        settings.setLoadWithOverviewMode(true);
+        settings.setUseWideViewPort(true);
+    }
+
+    /**
+     * The directory Context.getDir() gives the WebView databases. Until the background
+     * task in pluginInitialize() has created it, the path is worked out without going
+     * to the disk; only WebViews before Android 4.4 use it, and create it if needed.
+     *
+     * @return the path
+     */
+    private String getDatabasePath() {
+        String path = databasePath;
+        if (path == null) {
+            path = new File(cordova.getActivity().getApplicationInfo().dataDir, "app_" + DATABASE_DIR).getPath();
+        }
+        return path;
+    }
+
+    /**
+     * Remove all cookies, or only the session cookies, then run a task on this
+     * thread. From API 21 the cookies are removed in the background.
+     *
+     * @param all           Remove persistent cookies too.
+     * @param then          Run once the cookies are gone.
+     */
+    @SuppressLint("NewApi")
+    private void clearCookies(boolean all, final Runnable then) {
+        CookieManager cookies = CookieManager.getInstance();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            if (all) {
+                cookies.removeAllCookie();
+            } else {
+                cookies.removeSessionCookie();
+            }
+            then.run();
+            return;
+        }
+        ValueCallback<Boolean> done = new ValueCallback<Boolean>() {
+            @Override
+            public void onReceiveValue(Boolean removed) {
+                then.run();
+            }
+        };
+        if (all) {
+            cookies.removeAllCookies(done);
+        } else {
+            cookies.removeSessionCookies(done);
+        }
+    }
+
+    /**
+     * @return the Prefetcher, or null if there is no ResourceCache to fill
+     */
+    @SuppressLint("NewApi")
+    private synchronized Prefetcher getPrefetcher() {
+        if (prefetcher == null) {
+            ResourceCache cache = getResourceCache(true);
+            if (cache != null) {
+                prefetcher = new Prefetcher(cache, WebSettings.getDefaultUserAgent(cordova.getActivity()));
+            }
+        }
+        return prefetcher;
+    }
+
+    /**
+     * The pool of pre-built WebViews and dialogs, sized by the InAppBrowserPoolSize preference.
+     *
+     * @return InAppBrowserPool
+     */
+    private synchronized InAppBrowserPool getPool() {
+        if (pool == null) {
+            pool = new InAppBrowserPool(cordova.getActivity(), getIntPreference(POOL_SIZE_PREFERENCE, 0));
+        }
+        return pool;
+    }
+
+    /**
+     * Compile the filter lists in the app's assets, or read them back from the
+     * cache directory if they were compiled before and have not changed since.
+     * Touches the disk; must not be called on the UI thread.
+     *
+     * @param context  The application context.
+     * @param paths    Comma separated asset paths, e.g. "www/easylist.txt".
+     * @return ContentBlocker, or null if no list could be read
+     */
+    private static ContentBlocker loadContentBlocker(Context context, String paths) {
+        long trace = InAppBrowserTrace.begin("loadContentBlocker");
+        try {
+            List<String> lists = new ArrayList<String>();
+            for (String path : paths.split(",")) {
+                path = path.trim();
+                if (path.length() == 0) {
+                    continue;
+                }
+                try {
+                    InputStream in = context.getAssets().open(path);
+                    try {
+                        ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        byte[] buffer = new byte[8192];
+                        int count;
+                        while ((count = in.read(buffer)) > 0) {
+                            out.write(buffer, 0, count);
+                        }
+                        lists.add(out.toString("UTF-8"));
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Cannot read filter list " + path + ": " + e.toString());
+                }
+            }
+            if (lists.isEmpty()) {
+                return null;
+            }
+            long version = ContentBlocker.versionOf(lists);
+            File compiled = new File(context.getCacheDir(), COMPILED_FILTERS);
+            ContentBlocker blocker = ContentBlocker.load(compiled, version);
+            if (blocker == null) {
+                blocker = ContentBlocker.compile(lists);
+                try {
+                    blocker.save(compiled, version);
+                } catch (IOException e) {
+                    Log.d(LOG_TAG, "Cannot save compiled filters: " + e.toString());
+                }
+            }
+            return blocker;
+        } finally {
+            InAppBrowserTrace.end("loadContentBlocker", trace);
+        }
+    }
+
+    /**
+     * Read a string preference from config.xml, see getIntPreference().
+     *
+     * @param name  The preference name.
+     * @return String, or null when the preference is missing
+     */
+    private String getStringPreference(String name) {
+        Bundle appSettings = cordova.getActivity().getIntent().getExtras();
+        if (appSettings == null) {
+            return null;
+        }
+        Object value = appSettings.get(name);
+        if (value == null) {
+            value = appSettings.get(name.toLowerCase());
+        }
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Read an integer preference from config.xml. Like InAppBrowserStorageEnabled,
+     * preferences are handed to us as extras on the activity's intent.
+     *
+     * @param name          The preference name.
+     * @param defaultValue  Value to use when the preference is missing or invalid.
+     * @return int
+     */
+    private int getIntPreference(String name, int defaultValue) {
+        Bundle appSettings = cordova.getActivity().getIntent().getExtras();
+        if (appSettings == null) {
+            return defaultValue;
+        }
+        Object value = appSettings.get(name);
+        if (value == null) {
+            value = appSettings.get(name.toLowerCase());
+        }
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Integer.parseInt((String) value);
+            } catch (NumberFormatException e) {
+                Log.d(LOG_TAG, "Invalid value for " + name + ": " + value);
+            }
+        }
+        return defaultValue;
     }
     
     /**
@@ -319,53 +881,32 @@ public class InAppBrowser extends CordovaPlugin {
      *                    which should be executed directly.
      */
     private void injectDeferredObject(String source, String jsWrapper) {
-        String scriptToInject;
-        if (jsWrapper != null) {
-            org.json.JSONArray jsonEsc = new org.json.JSONArray();
-            jsonEsc.put(source);
-            String jsonRepr = jsonEsc.toString();
-            String jsonSourceString = jsonRepr.substring(1, jsonRepr.length()-1);
-            scriptToInject = String.format(jsWrapper, jsonSourceString);
-        } else {
-            scriptToInject = source;
-        }
-        final String finalScriptToInject = scriptToInject;
-        this.cordova.getActivity().runOnUiThread(new Runnable() {
-            @SuppressLint("NewApi")
-            @Override
-            public void run() {
-                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
-                    // This action will have the side-effect of blurring the currently focused element
-                    inAppWebView.loadUrl("javascript:" + finalScriptToInject);
-                } else {
-                    inAppWebView.evaluateJavascript(finalScriptToInject, null);
-                }
+        long trace = InAppBrowserTrace.begin("injectDeferredObject");
+        try {
+            String scriptToInject;
+            if (jsWrapper != null) {
+                scriptToInject = ScriptQuoting.wrap(jsWrapper, source);
+            } else {
+                scriptToInject = source;
             }
-        });
-    }
-
-    /**
-     * Put the list of features into a hash map
-     * 
-     * @param optString
-     * @return
-     */
-    private HashMap<String, Boolean> parseFeature(String optString) {
-        if (optString.equals(NULL)) {
-            return null;
-        } else {
-            HashMap<String, Boolean> map = new HashMap<String, Boolean>();
-            StringTokenizer features = new StringTokenizer(optString, ",");
-            StringTokenizer option;
-            while(features.hasMoreElements()) {
-                option = new StringTokenizer(features.nextToken(), "=");
-                if (option.hasMoreElements()) {
-                    String key = option.nextToken();
-                    Boolean value = option.nextToken().equals("no") ? Boolean.FALSE : Boolean.TRUE;
-                    map.put(key, value);
+            final String finalScriptToInject = scriptToInject;
+            this.cordova.getActivity().runOnUiThread(new Runnable() {
+                @SuppressLint("NewApi")
+                @Override
+                public void run() {
+                    if (inAppWebView == null) {
+                        return;
+                    }
+                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+                        // This action will have the side-effect of blurring the currently focused element
+                        inAppWebView.loadUrl("javascript:" + finalScriptToInject);
+                    } else {
+                        inAppWebView.evaluateJavascript(finalScriptToInject, null);
+                    }
                 }
-            }
-            return map;
+            });
+        } finally {
+            InAppBrowserTrace.end("injectDeferredObject", trace);
         }
     }
 
@@ -401,27 +942,91 @@ public class InAppBrowser extends CordovaPlugin {
      * Closes the dialog
      */
     public void closeDialog() {
-        final WebView childView = this.inAppWebView;
+        closeBrowser(false);
+    }
+
+    /**
+     * Closes the dialog and releases the browser. Unless the browser is kept for
+     * reuse, the WebView is destroyed once it has unloaded the page, or right
+     * away if the plugin itself is being destroyed.
+     *
+     * @param destroying  true when called from onDestroy()
+     */
+    private void closeBrowser(final boolean destroying) {
+        final InAppBrowserPool.Entry closing = this.pooled;
         // The JS protects against multiple calls, so this should happen only when
         // closeDialog() is called by other native code.
-        if (childView == null) {
+        if (closing == null) {
             return;
         }
+        final BrowserOptions closingOptions = this.options;
+        final boolean keepAlive = closingOptions.reuse() && !destroying;
+        // Drop every reference to the closing browser so nothing can use it
+        // (and nothing keeps it alive) after this point.
+        this.pooled = null;
+        this.dialog = null;
+        this.inAppWebView = null;
+        this.pageTitle = null;
+        this.urlLabel = null;
+        this.back = null;
+        this.forward = null;
+        // Results still on their way from the closed page have nowhere to go
+        if (resultBridge != null) {
+            resultBridge.clear();
+        }
+        // getHar can still read the file, but nothing more is recorded in it
+        HarRecorder recorder = harRecorder;
+        if (recorder != null) {
+            recorder.closeInBackground();
+        }
+
         this.cordova.getActivity().runOnUiThread(new Runnable() {
             @Override
             public void run() {
+                final WebView childView = closing.webView;
+                if (destroying) {
+                    InAppBrowserPool.destroy(closing);
+                    return;
+                }
+                if (keepAlive) {
+                    closing.dialog.hide();
+                    childView.stopLoading();
+                    childView.setWebViewClient(new WebViewClient());
+                    childView.loadUrl("about:blank");
+                    int seconds = closingOptions.getReuseTimeout();
+                    if (seconds < 0) {
+                        seconds = getIntPreference(REUSE_TIMEOUT_PREFERENCE, DEFAULT_REUSE_TIMEOUT);
+                    }
+                    long timeout = seconds * 1000L;
+                    getPool().park(closing, timeout);
+                    return;
+                }
+                final Handler handler = new Handler();
+                final Runnable teardown = new Runnable() {
+                    private boolean done = false;
+
+                    @Override
+                    public void run() {
+                        if (!done) {
+                            done = true;
+                            handler.removeCallbacks(this);
+                            InAppBrowserPool.destroy(closing);
+                        }
+                    }
+                };
                 childView.setWebViewClient(new WebViewClient() {
                     // NB: wait for about:blank before dismissing
                     public void onPageFinished(WebView view, String url) {
-                        if (dialog != null) {
-                            dialog.dismiss();
-                        }
+                        // Don't destroy the WebView from inside its own callback
+                        handler.post(teardown);
                     }
                 });
                 // NB: From SDK 19: "If you call methods on WebView from any thread 
                 // other than your app's UI thread, it can cause unexpected results."
                 // http://developer.android.com/guide/webapps/migrating.html#Threads
                 childView.loadUrl("about:blank");
+                // Release the browser even if about:blank never finishes loading
+                handler.postDelayed(teardown, CLOSE_TIMEOUT);
             }
         });
 
@@ -438,7 +1043,7 @@ public class InAppBrowser extends CordovaPlugin {
      * Checks to see if it is possible to go back one page in history, then does so.
      */
     public void goBack() {
-        if (this.inAppWebView.canGoBack()) {
+        if (canGoBack()) {
             this.inAppWebView.goBack();
         }
     }
@@ -448,7 +1053,8 @@ public class InAppBrowser extends CordovaPlugin {
      * @return boolean
      */
     public boolean canGoBack() {
-        return this.inAppWebView.canGoBack();
+        WebView webView = this.inAppWebView;
+        return webView != null && webView.canGoBack();
     }
 
     /**
@@ -456,14 +1062,14 @@ public class InAppBrowser extends CordovaPlugin {
      * @return boolean
      */
     public boolean hardwareBack() {
-        return hadwareBackButton;
+        return this.options.hardwareBack();
     }
 
     /**
      * Checks to see if it is possible to go forward one page in history, then does so.
      */
     private void goForward() {
-        if (this.inAppWebView.canGoForward()) {
+        if (canGoForward()) {
             this.inAppWebView.goForward();
         }
     }
@@ -473,7 +1079,36 @@ public class InAppBrowser extends CordovaPlugin {
      * @return boolean
      */
     public boolean canGoForward() {
-        return this.inAppWebView.canGoForward();
+        WebView webView = this.inAppWebView;
+        return webView != null && webView.canGoForward();
+    }
+
+    /**
+     * Show a page's title and URL in the toolbar, if it has been built yet.
+     *
+     * @param title         The title, or null to leave it as it is.
+     * @param url           The URL, or null to leave it as it is.
+     */
+    void showPageInfo(String title, String url) {
+        if (title != null && this.pageTitle != null) {
+            this.pageTitle.setText(title);
+        }
+        if (url != null && this.urlLabel != null && !url.equals(this.urlLabel.getText().toString())) {
+            this.urlLabel.setText(url);
+        }
+    }
+
+    /**
+     * Dim the back and forward buttons, if the toolbar has been built yet, when
+     * there is nowhere to go.
+     */
+    void updateNavigationButtons() {
+        if (this.back != null) {
+            this.back.setAlpha((float) (canGoBack() ? 1.0 : 0.25));
+        }
+        if (this.forward != null) {
+            this.forward.setAlpha((float) (canGoForward() ? 1.0 : 0.25));
+        }
     }
 
     /**
@@ -483,9 +1118,9 @@ public class InAppBrowser extends CordovaPlugin {
      */
     private void navigate(String url) {
         InputMethodManager imm = (InputMethodManager)this.cordova.getActivity().getSystemService(Context.INPUT_METHOD_SERVICE);
-        imm.hideSoftInputFromWindow(urlLabel.getWindowToken(), 0);
+        imm.hideSoftInputFromWindow(inAppWebView.getWindowToken(), 0);
 
-        Log.d(LOG_TAG, "navigate = " + url);
+        InAppBrowserTrace.debug(LOG_TAG, "navigate = ", url);
 
         if (!url.startsWith("http") && !url.startsWith("file:")) {
             this.inAppWebView.loadUrl("http://" + url);
@@ -502,7 +1137,7 @@ public class InAppBrowser extends CordovaPlugin {
      * @return boolean
      */
     private boolean getShowLocationBar() {
-        return this.showLocationBar;
+        return this.options.showLocationBar();
     }
 
     /**
@@ -511,16 +1146,7 @@ public class InAppBrowser extends CordovaPlugin {
      * @return boolean
      */
     private boolean getShowToolbar() {
-        return this.showToolbar;
-    }
-
-    /**
-     * Should we show the zoom controls?
-     *
-     * @return boolean
-     */
-    private boolean getShowZoomControls() {
-        return this.showZoomControls;
+        return this.options.showToolbar();
     }
 
     private InAppBrowser getInAppBrowser(){
@@ -531,46 +1157,12 @@ public class InAppBrowser extends CordovaPlugin {
      * Display a new browser with the specified URL.
      *
      * @param url           The url to load.
-     * @param jsonObject
-     */
-    public String showWebPage(final String url, HashMap<String, Boolean> features) {
-        // Determine if we should hide the location bar.
-        showLocationBar = true;
-        showToolbar = true;
-        showZoomControls = true;
-        openWindowHidden = false;
-        if (features != null) {
-            Boolean showLocationBarOpt = features.get(LOCATION);
-            if (showLocationBarOpt != null) {
-                showLocationBar = showLocationBarOpt.booleanValue();
-            }
-            Boolean showToolbarOpt = features.get(TOOLBAR);
-            if (showToolbarOpt != null) {
-                showToolbar = showToolbarOpt.booleanValue();
-            }
-            Boolean zoom = features.get(ZOOM);
-            if (zoom != null) {
-                showZoomControls = zoom.booleanValue();
-            }            
-            Boolean hidden = features.get(HIDDEN);
-            if (hidden != null) {
-                openWindowHidden = hidden.booleanValue();
-            }
-            Boolean hardwareBack = features.get(HARDWARE_BACK_BUTTON);
-            if (hardwareBack != null) {
-                hadwareBackButton = hardwareBack.booleanValue();
-            }
-            Boolean cache = features.get(CLEAR_ALL_CACHE);
-            if (cache != null) {
-                clearAllCache = cache.booleanValue();
-            } else {
-                cache = features.get(CLEAR_SESSION_CACHE);
-                if (cache != null) {
-                    clearSessionCache = cache.booleanValue();
-                }
-            }
-        }
-        
+     * @param features      The options this browser was opened with.
+     */
+    public String showWebPage(final String url, final BrowserOptions features) {
+        // The options of this open apply to this browser only
+        this.options = features;
+        eventBatcher.configure(features.batchEvents(), features.getBatchWindow());
 
         final CordovaWebView thatWebView = this.webView;
         final InAppBrowser self = this;
@@ -591,19 +1183,12 @@ public class InAppBrowser extends CordovaPlugin {
                 return value;
             }
 
-            @SuppressLint("NewApi")
-            public void run() {
-                // Let's create the main dialog
-                dialog = new InAppBrowserDialog(cordova.getActivity(), android.R.style.Theme_NoTitleBar);
-                dialog.getWindow().getAttributes().windowAnimations = android.R.style.Animation_Dialog;
-                dialog.requestWindowFeature(Window.FEATURE_NO_TITLE);
-                dialog.setCancelable(true);
-                dialog.setInAppBroswer(getInAppBrowser());
-
-                // Main container layout
-                LinearLayout main = new LinearLayout(cordova.getActivity());
-                main.setOrientation(LinearLayout.VERTICAL);
-
+            /**
+             * Build the toolbar, showing the state the page is in by now.
+             *
+             * @return the toolbar
+             */
+            private View buildToolbar() {
                 // Toolbar layout
                 LinearLayout toolbar = new LinearLayout(cordova.getActivity());
                 toolbar.setOrientation(LinearLayout.HORIZONTAL);
@@ -629,7 +1214,7 @@ public class InAppBrowser extends CordovaPlugin {
                 pageTitle.setLayoutParams(pageTitleLayoutParams);
                 pageTitle.setId(11);
                 pageTitle.setSingleLine(true);
-                pageTitle.setText(self.loadingCaption);
+                pageTitle.setText(pageLoaded ? inAppWebView.getTitle() : features.getLoadingCaption());
                 pageTitle.setEllipsize(TextUtils.TruncateAt.END);
                 pageTitle.setTextColor(android.graphics.Color.argb(255, 68, 68, 68));
                 pageTitle.setTextSize(TypedValue.COMPLEX_UNIT_DIP, 13);
@@ -642,7 +1227,7 @@ public class InAppBrowser extends CordovaPlugin {
                 urlLabel.setLayoutParams(urlLayoutParams);
                 urlLabel.setId(4);
                 urlLabel.setSingleLine(true);
-                urlLabel.setText(url);
+                urlLabel.setText(inAppWebView.getUrl() != null ? inAppWebView.getUrl() : url);
                 urlLabel.setEllipsize(TextUtils.TruncateAt.END);
                 urlLabel.setTextColor(android.graphics.Color.argb(255, 180, 180, 180));
                 urlLabel.setTextSize(TypedValue.COMPLEX_UNIT_DIP, 10);
@@ -749,41 +1334,6 @@ public class InAppBrowser extends CordovaPlugin {
                 closeLayout.addView(close);
                 // closeLayout.addView(closeBorder);
 
-                // WebView
-                inAppWebView = new WebView(cordova.getActivity());
-                inAppWebView.setLayoutParams(new LinearLayout.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
-                inAppWebView.setWebChromeClient(new InAppChromeClient(thatWebView));
-                WebViewClient client = new InAppBrowserClient(self);
-                inAppWebView.setWebViewClient(client);
-                WebSettings settings = inAppWebView.getSettings();
-                settings.setJavaScriptEnabled(true);
-                settings.setJavaScriptCanOpenWindowsAutomatically(true);
-                settings.setBuiltInZoomControls(getShowZoomControls());
-                settings.setPluginState(android.webkit.WebSettings.PluginState.ON);
-
-                //Toggle whether this is enabled or not!
-                Bundle appSettings = cordova.getActivity().getIntent().getExtras();
-                boolean enableDatabase = appSettings == null ? true : appSettings.getBoolean("InAppBrowserStorageEnabled", true);
-                if (enableDatabase) {
-                    String databasePath = cordova.getActivity().getApplicationContext().getDir("inAppBrowserDB", Context.MODE_PRIVATE).getPath();
-                    settings.setDatabasePath(databasePath);
-                    settings.setDatabaseEnabled(true);
-                }
-                settings.setDomStorageEnabled(true);
-
-                if (clearAllCache) {
-                    CookieManager.getInstance().removeAllCookie();
-                } else if (clearSessionCache) {
-                    CookieManager.getInstance().removeSessionCookie();
-                }
-
-                inAppWebView.loadUrl(url);
-                inAppWebView.setId(6);
-                inAppWebView.getSettings().setLoadWithOverviewMode(true);
-                inAppWebView.getSettings().setUseWideViewPort(true);
-                inAppWebView.requestFocus();
-                inAppWebView.requestFocusFromTouch();
-
                 // Add the back and forward buttons to our action button container layout
                 // actionButtonContainer.addView(backBorder);
                 actionButtonContainer.addView(back);
@@ -795,13 +1345,103 @@ public class InAppBrowser extends CordovaPlugin {
                 toolbar.addView(pageInfoContainer);
                 toolbar.addView(actionButtonContainer);
 
-                // Don't add the toolbar if its been disabled
-                if (getShowToolbar()) {
-                    // Add our toolbar to our main view/layout
-                    main.addView(toolbar);
+                updateNavigationButtons();
+                return toolbar;
+            }
+
+            @SuppressLint("NewApi")
+            public void run() {
+                long trace = InAppBrowserTrace.begin("showWebPage");
+                final OpenStats.Open open = opening;
+                opening = null;
+                if (open != null) {
+                    open.mark(OpenStats.UI_THREAD);
+                }
+                // Take the prerendered page if there is one for this URL and these options,
+                // unless this open wants cookies cleared, which the prerender has already
+                // used, or its profile is no longer the active one
+                final String profile = features.getProfile();
+                final BrowserProfiles browserProfiles = getProfiles();
+                Prerenderer.Prerender prerendered = null;
+                if (prerenderer != null && !features.clearAllCache() && !features.clearSessionCache()
+                        && !browserProfiles.needsSwitch(profile)) {
+                    prerendered = prerenderer.take(url, features.getSource());
+                }
+                // Let's take the main dialog and its WebView from the pool
+                pooled = prerendered != null ? prerendered.entry : getPool().acquire(profile);
+                if (prerendered == null && !pooled.reused && profile != null
+                        && !browserProfiles.apply(pooled.webView, profile)) {
+                    Log.e(LOG_TAG, "The page is loaded in the default profile instead of " + profile);
+                }
+                pooled.profile = profile;
+                // A reused WebView still has about:blank in its history
+                clearHistoryOnLoad = pooled.reused;
+                if (open != null) {
+                    open.reused = pooled.reused;
+                    open.prerendered = prerendered != null;
+                }
+                pageLoaded = false;
+                dialog = pooled.dialog;
+                dialog.setInAppBroswer(getInAppBrowser());
+
+                // WebView
+                inAppWebView = pooled.webView;
+                inAppWebView.setWebChromeClient(new InAppChromeClient(thatWebView));
+                // A prerendered page keeps the client it was loaded with
+                InAppBrowserClient client;
+                if (prerendered != null) {
+                    client = (InAppBrowserClient) prerendered.client;
+                } else {
+                    client = new InAppBrowserClient(self, features);
+                    client.open = open;
+                    client.attach();
+                    inAppWebView.setWebViewClient(client);
+                    applySettings(inAppWebView, features);
+                }
+
+                if (open != null) {
+                    open.mark(OpenStats.BUILT);
+                }
+                if (prerendered == null) {
+                    final InAppBrowserClient loader = client;
+                    final WebView loading = inAppWebView;
+                    final Runnable load = new Runnable() {
+                        @Override
+                        public void run() {
+                            // Closed while the cookies were being swapped or removed
+                            if (inAppWebView != loading) {
+                                return;
+                            }
+                            loader.willLoad();
+                            loading.loadUrl(url);
+                            if (open != null) {
+                                open.mark(OpenStats.LOAD_URL);
+                            }
+                        }
+                    };
+                    // The page must not see the cookies it was opened to do without
+                    final Runnable clearAndLoad = !(features.clearAllCache() || features.clearSessionCache()) ? load : new Runnable() {
+                        @Override
+                        public void run() {
+                            clearCookies(features.clearAllCache(), load);
+                        }
+                    };
+                    if (browserProfiles.needsSwitch(profile)) {
+                        cordova.getThreadPool().execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                browserProfiles.switchTo(profile);
+                                cordova.getActivity().runOnUiThread(clearAndLoad);
+                            }
+                        });
+                    } else {
+                        clearAndLoad.run();
+                    }
                 }
 
-                // Add our webview to our main view/layout
+                // Main container layout, with only the WebView for now
+                final LinearLayout main = new LinearLayout(cordova.getActivity());
+                main.setOrientation(LinearLayout.VERTICAL);
                 main.addView(inAppWebView);
 
                 WindowManager.LayoutParams lp = new WindowManager.LayoutParams();
@@ -812,11 +1452,44 @@ public class InAppBrowser extends CordovaPlugin {
                 dialog.setContentView(main);
                 dialog.show();
                 dialog.getWindow().setAttributes(lp);
+                if (open != null) {
+                    open.mark(OpenStats.SHOWN);
+                    getPool().recordOpen(pooled, open.elapsed());
+                }
                 // the goal of openhidden is to load the url and not display it
                 // Show() needs to be called to cause the URL to be loaded
-                if(openWindowHidden) {
+                if(features.isHidden()) {
                     dialog.hide();
                 }
+                inAppWebView.requestFocus();
+                inAppWebView.requestFocusFromTouch();
+
+                // Don't add the toolbar if its been disabled
+                if (getShowToolbar()) {
+                    final InAppBrowserPool.Entry shown = pooled;
+                    final OpenStats.Open toolbarOpen = open;
+                    // This runs behind the traversal dialog.show() has scheduled, so the
+                    // toolbar is built in the frame after the one that shows the WebView
+                    new Handler().post(new Runnable() {
+                        @Override
+                        public void run() {
+                            // Closed, or opened again, in the meantime
+                            if (pooled != shown || main.getParent() == null) {
+                                return;
+                            }
+                            long trace = InAppBrowserTrace.begin("buildToolbar");
+                            main.addView(buildToolbar(), 0);
+                            if (toolbarOpen != null) {
+                                toolbarOpen.mark(OpenStats.TOOLBAR);
+                            }
+                            InAppBrowserTrace.end("buildToolbar", trace);
+                        }
+                    });
+                }
+                if (prerendered != null) {
+                    client.adopt(inAppWebView, open);
+                }
+                InAppBrowserTrace.end("showWebPage", trace);
             }
         };
         this.cordova.getActivity().runOnUiThread(runnable);
@@ -839,6 +1512,25 @@ public class InAppBrowser extends CordovaPlugin {
      * @param status the status code to return to the JavaScript environment
      */    
     private void sendUpdate(JSONObject obj, boolean keepCallback, PluginResult.Status status) {
+        if (callbackContext != null) {
+            // With batchevents=yes, events are collected and sent together
+            if (keepCallback && eventBatcher.offer(obj)) {
+                return;
+            }
+            // Queued events must arrive before this one
+            eventBatcher.flush();
+            eventBatcher.countUnbatched();
+            sendResult(obj, keepCallback, status);
+        }
+    }
+
+    /**
+     * Send a plugin result to the browser's JavaScript callback right away.
+     *
+     * @param obj a JSONObject contain event payload information
+     * @param status the status code to return to the JavaScript environment
+     */
+    private synchronized void sendResult(JSONObject obj, boolean keepCallback, PluginResult.Status status) {
         if (callbackContext != null) {
             PluginResult result = new PluginResult(status, obj);
             result.setKeepCallback(keepCallback);
@@ -854,15 +1546,221 @@ public class InAppBrowser extends CordovaPlugin {
      */
     public class InAppBrowserClient extends WebViewClient {
         InAppBrowser delegate;
+        BrowserOptions options;
+        // Started before the page commits, e.g. by a link; may pick up redirects
+        private NavigationMetrics.Navigation pending;
+        // Between onPageStarted and onPageFinished
+        private NavigationMetrics.Navigation navigation;
+        // The open that showed this client, until its first page finishes
+        OpenStats.Open open;
+        // For the content blocker, which runs on other threads
+        private volatile String pageHost;
+        private final AtomicInteger blocked = new AtomicInteger();
+        // Holds the requests matching the defer option; null without one
+        private final RequestDeferrer deferrer;
+        // With har=yes
+        private final HarRecorder har;
+        // With netmode=record or replay
+        private final NetworkArchive archive;
+        // While the page is loaded by the Prerenderer; its events are held until it is shown
+        Prerenderer.Prerender prerender;
+        private ArrayList<JSONObject> heldEvents;
+        private ArrayList<PluginResult.Status> heldStatuses;
 
         /**
          * Constructor.
          *
-         * @param mContext
-         * @param urlLabel
+         * @param delegate      The browser this client reports to.
+         * @param options       The options the browser was opened with.
          */
-        public InAppBrowserClient(InAppBrowser delegate) {
+        public InAppBrowserClient(InAppBrowser delegate, BrowserOptions options) {
             this.delegate = delegate;
+            this.options = options;
+            this.deferrer = options.getDefer().isEmpty() ? null
+                    : new RequestDeferrer(options.getDefer(), options.getDeferDelay(), options.getDeferMax(), deferralStats);
+            this.har = options.recordHar()
+                    ? new HarRecorder(cordova.getActivity().getApplicationContext(), cordova.getThreadPool()) : null;
+            String mode = options.getNetworkMode();
+            this.archive = mode == null ? null : new NetworkArchive(cordova.getActivity().getApplicationContext(),
+                    options.getArchive(), mode.equals(NetworkArchive.MODE_REPLAY), options.getReplayLatency(),
+                    options.getReplayBandwidth());
+        }
+
+        /**
+         * Make this the client of the browser being shown, for getHar and getMetrics.
+         */
+        void attach() {
+            if (this.har != null) {
+                this.delegate.harRecorder = this.har;
+            }
+            if (this.archive != null) {
+                this.delegate.networkArchive = this.archive;
+            }
+        }
+
+        /**
+         * Send an event to the browser's callback, or hold it while the page is a
+         * prerender, which no browser shows yet.
+         */
+        private void send(JSONObject obj, PluginResult.Status status) {
+            if (this.prerender != null) {
+                if (this.heldEvents == null) {
+                    this.heldEvents = new ArrayList<JSONObject>();
+                    this.heldStatuses = new ArrayList<PluginResult.Status>();
+                }
+                this.heldEvents.add(obj);
+                this.heldStatuses.add(status);
+                return;
+            }
+            sendUpdate(obj, true, status);
+        }
+
+        /**
+         * Is this view still the one shown by the browser? Callbacks can still
+         * arrive for a view that has just been closed.
+         *
+         * @param view          The webview initiating the callback.
+         * @return boolean
+         */
+        private boolean isShowing(WebView view) {
+            return view == this.delegate.inAppWebView;
+        }
+
+        /**
+         * Take over a page loaded by the Prerenderer: send the events held for it, such
+         * as loadstart, and loadstop if it has already finished loading, and report
+         * from now on to the browser that shows it.
+         *
+         * @param view          The WebView, now shown.
+         * @param open          The open that showed it, or null.
+         */
+        void adopt(WebView view, OpenStats.Open open) {
+            Prerenderer.Prerender adopted = this.prerender;
+            this.prerender = null;
+            attach();
+            if (open != null) {
+                open.mark(OpenStats.PAGE_STARTED);
+            }
+            if (this.heldEvents != null) {
+                for (int i = 0; i < this.heldEvents.size(); i++) {
+                    sendUpdate(this.heldEvents.get(i), true, this.heldStatuses.get(i));
+                }
+                this.heldEvents = null;
+                this.heldStatuses = null;
+            }
+            if (adopted.isFinished()) {
+                this.delegate.pageLoaded = true;
+                this.delegate.showPageInfo(view.getTitle(), adopted.getFinalUrl());
+                this.delegate.updateNavigationButtons();
+                if (open != null) {
+                    open.mark(OpenStats.PAGE_FINISHED);
+                    try {
+                        JSONObject stats = openStats.finish(open);
+                        if (this.options.timings()) {
+                            sendUpdate(stats, true);
+                        }
+                    } catch (JSONException ex) {
+                        Log.d(LOG_TAG, "Should never happen");
+                    }
+                }
+            } else {
+                this.open = open;
+                this.delegate.showPageInfo(this.options.getLoadingCaption(), adopted.url);
+            }
+        }
+
+        /**
+         * Give the host application a chance to take over a URL before any request for it
+         * is made. Used before API 24, and for redirects on WebViews that do not report them
+         * through the WebResourceRequest variant.
+         *
+         * @param view          The webview initiating the callback.
+         * @param url           The url to be loaded.
+         * @return true to stop the WebView from loading the url
+         */
+        @Override
+        public boolean shouldOverrideUrlLoading(WebView view, String url) {
+            return shouldOverrideUrlLoading(view, url, false);
+        }
+
+        /**
+         * Give the host application a chance to take over a URL before any request for it
+         * is made. Called from API 24, including for server redirects. Navigations of
+         * frames are left to the WebView, so a frame cannot open another app or close
+         * the browser.
+         *
+         * @param view          The webview initiating the callback.
+         * @param request       The navigation request.
+         * @return true to stop the WebView from loading the url
+         */
+        @SuppressLint("NewApi")
+        @Override
+        public boolean shouldOverrideUrlLoading(WebView view, WebResourceRequest request) {
+            if (!request.isForMainFrame()) {
+                return false;
+            }
+            return shouldOverrideUrlLoading(view, request.getUrl().toString(), request.isRedirect());
+        }
+
+        /**
+         * Start timing a page load which the WebView has not reported yet, such as
+         * the first page of the browser.
+         */
+        void willLoad() {
+            this.pending = metrics.begin();
+        }
+
+        private boolean shouldOverrideUrlLoading(WebView view, String url, boolean isRedirect) {
+            long trace = InAppBrowserTrace.begin("shouldOverrideUrlLoading");
+            try {
+                if (this.prerender != null) {
+                    // Nobody is looking at this page, so it must not start other apps
+                    return leavesPrerender(url);
+                }
+                boolean handled;
+                if (this.options.getLeaveIab().matches(url)) {
+                    InAppBrowserTrace.debug(LOG_TAG, "leave iab for ", url);
+                    this.delegate.openExternal(url);
+                    handled = true;
+                } else {
+                    handled = schemeHandlers.dispatch(cordova.getActivity(), view, url);
+                }
+                // If the very first page redirected away from the browser, nothing will ever
+                // be shown in it, so close it rather than leave an empty window behind.
+                if (handled && isRedirect && isShowing(view) && !this.delegate.pageLoaded) {
+                    InAppBrowserTrace.debug(LOG_TAG, "first page redirected out of the browser, closing");
+                    // Not from inside the callback: closing loads about:blank into this
+                    // WebView while it is still deciding on this navigation
+                    final WebView redirected = view;
+                    new Handler().post(new Runnable() {
+                        @Override
+                        public void run() {
+                            // Closed, or opened again, in the meantime
+                            if (isShowing(redirected)) {
+                                delegate.closeDialog();
+                            }
+                        }
+                    });
+                }
+                if (!handled && isShowing(view)) {
+                    if (!isRedirect || this.pending == null) {
+                        this.pending = metrics.begin();
+                    }
+                    if (isRedirect) {
+                        this.pending.redirected();
+                    }
+                }
+                return handled;
+            } finally {
+                InAppBrowserTrace.end("shouldOverrideUrlLoading", trace);
+            }
+        }
+
+        /**
+         * Would this URL be handed to another app if the page were shown?
+         */
+        private boolean leavesPrerender(String url) {
+            return !(url.startsWith("http:") || url.startsWith("https:")) || this.options.getLeaveIab().matches(url);
         }
 
         /**
@@ -873,131 +1771,297 @@ public class InAppBrowser extends CordovaPlugin {
          */
         @Override
         public void onPageStarted(WebView view, String url,  Bitmap favicon) {
-            super.onPageStarted(view, url, favicon);
-            String newloc = "";
+            long trace = InAppBrowserTrace.begin("onPageStarted");
+            try {
+                super.onPageStarted(view, url, favicon);
+                String newloc = "";
 
-            Pattern leaveRegexPattern = Pattern.compile(this.delegate.leaveIabRegex);
-            Boolean shouldLeaveIab    = leaveRegexPattern.matcher(url).find();
+                if (this.prerender != null && leavesPrerender(url)) {
+                    view.stopLoading();
+                    return;
+                }
 
-            Log.d(LOG_TAG, "start loading url = " + url);
-            Log.d(LOG_TAG, "compare against regex = " + this.delegate.leaveIabRegex);
-            Log.d(LOG_TAG, "should leave iab = " + shouldLeaveIab);
+                boolean shouldLeaveIab = this.options.getLeaveIab().matches(url);
 
-            if (shouldLeaveIab) {
-                Log.d(LOG_TAG, "leave and stop");
-                view.stopLoading();
-                this.delegate.openExternal(url);
-                return;
-            }
-            else if (url.startsWith("http:") || url.startsWith("https:") || url.startsWith("file:")) {
-                newloc = url;
+                InAppBrowserTrace.debug(LOG_TAG, "start loading url = ", url);
+                InAppBrowserTrace.debug(LOG_TAG, "should leave iab = ", shouldLeaveIab);
 
-                this.delegate.pageTitle.setText(this.delegate.loadingCaption);
-                this.delegate.urlLabel.setText(url);
-            } 
-            // If dialing phone (tel:5551212)
-            else if (url.startsWith(WebView.SCHEME_TEL)) {
-                try {
-                    Intent intent = new Intent(Intent.ACTION_DIAL);
-                    intent.setData(Uri.parse(url));
-                    cordova.getActivity().startActivity(intent);
-                } catch (android.content.ActivityNotFoundException e) {
-                    LOG.e(LOG_TAG, "Error dialing " + url + ": " + e.toString());
+                if (shouldLeaveIab) {
+                    InAppBrowserTrace.debug(LOG_TAG, "leave and stop");
+                    view.stopLoading();
+                    this.delegate.openExternal(url);
+                    return;
+                }
+                else if (url.startsWith("http:") || url.startsWith("https:") || url.startsWith("file:")) {
+                    newloc = url;
+
+                    if (isShowing(view)) {
+                        this.delegate.showPageInfo(this.options.getLoadingCaption(), url);
+                    }
+                } 
+                // Other schemes are normally taken over in shouldOverrideUrlLoading already
+                else if (schemeHandlers.dispatch(cordova.getActivity(), view, url)) {
+                    view.stopLoading();
+                    return;
+                }
+                else {
+                    newloc = "http://" + url;
+                }
+
+                if (isShowing(view)) {
+                    this.delegate.showPageInfo(null, newloc);
+                }
+
+                if (this.navigation != null && Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+                    // Older WebViews start the page again for every redirect
+                    this.navigation.redirected();
+                } else if (this.pending != null) {
+                    this.navigation = this.pending;
+                } else {
+                    this.navigation = metrics.begin();
+                }
+                this.pending = null;
+                if (this.open != null) {
+                    this.open.mark(OpenStats.PAGE_STARTED);
+                }
+                this.pageHost = Uri.parse(newloc).getHost();
+                this.blocked.set(0);
+                if (this.deferrer != null) {
+                    this.deferrer.pageStarted();
+                }
+                if (this.har != null) {
+                    this.har.pageStarted(newloc);
                 }
-            }
 
-            else if (url.startsWith("geo:") || url.startsWith(WebView.SCHEME_MAILTO) || url.startsWith("market:")) {
                 try {
-                    Intent intent = new Intent(Intent.ACTION_VIEW);
-                    intent.setData(Uri.parse(url));
-                    cordova.getActivity().startActivity(intent);
-                } catch (android.content.ActivityNotFoundException e) {
-                    LOG.e(LOG_TAG, "Error with " + url + ": " + e.toString());
+                    JSONObject obj = new JSONObject();
+                    obj.put("type", LOAD_START_EVENT);
+                    obj.put("url", newloc);
+    
+                    send(obj, PluginResult.Status.OK);
+                } catch (JSONException ex) {
+                    Log.d(LOG_TAG, "Should never happen");
                 }
+            } finally {
+                InAppBrowserTrace.end("onPageStarted", trace);
             }
-            // If sms:5551212?body=This is the message
-            else if (url.startsWith("sms:")) {
-                try {
-                    Intent intent = new Intent(Intent.ACTION_VIEW);
-
-                    // Get address
-                    String address = null;
-                    int parmIndex = url.indexOf('?');
-                    if (parmIndex == -1) {
-                        address = url.substring(4);
-                    }
-                    else {
-                        address = url.substring(4, parmIndex);
-
-                        // If body, then set sms body
-                        Uri uri = Uri.parse(url);
-                        String query = uri.getQuery();
-                        if (query != null) {
-                            if (query.startsWith("body=")) {
-                                intent.putExtra("sms_body", query.substring(5));
-                            }
+        }
+        
+        /**
+         * Block subresources the InAppBrowserFilterLists match, unless the browser was
+         * opened with contentblock=no, hold those matching the defer option until the
+         * page is on screen, record or replay requests with netmode, and serve requests
+         * for the origins in the cacheorigins option through the ResourceCache. Called
+         * from API 21 on a background thread.
+         *
+         * @param view          The webview initiating the callback.
+         * @param request       The request.
+         * @return the response, or null to let the WebView load the request itself
+         */
+        @SuppressLint("NewApi")
+        @Override
+        public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+            long trace = InAppBrowserTrace.begin("shouldInterceptRequest");
+            try {
+                String url = request.getUrl().toString();
+                if (!(url.startsWith("http:") || url.startsWith("https:"))) {
+                    return null;
+                }
+                HarRecorder.Entry entry = this.har != null ? this.har.begin(url, request.getMethod()) : null;
+                ContentBlocker blocker = contentBlocker;
+                if (blocker != null && this.options.contentBlock()) {
+                    if (request.isForMainFrame()) {
+                        this.pageHost = request.getUrl().getHost();
+                    } else {
+                        String accept = request.getRequestHeaders().get("Accept");
+                        if (blocker.shouldBlock(url, this.pageHost, ContentBlocker.typeOf(url, accept))) {
+                            this.blocked.incrementAndGet();
+                            return recorded(entry, new WebResourceResponse("text/plain", "UTF-8", 403, "Blocked",
+                                    null, new ByteArrayInputStream(new byte[0])), HarRecorder.SOURCE_BLOCKED);
                         }
                     }
-                    intent.setData(Uri.parse("sms:" + address));
-                    intent.putExtra("address", address);
-                    intent.setType("vnd.android-dir/mms-sms");
-                    cordova.getActivity().startActivity(intent);
-                } catch (android.content.ActivityNotFoundException e) {
-                    LOG.e(LOG_TAG, "Error sending sms " + url + ":" + e.toString());
                 }
+                UrlRuleMatcher cacheOrigins = this.options.getCacheOrigins();
+                // The cache would make recording and replaying depend on what it holds
+                boolean cached = this.archive == null && !cacheOrigins.isEmpty() && "GET".equals(request.getMethod())
+                        && cacheOrigins.matches(url);
+                if (this.deferrer != null && !request.isForMainFrame()) {
+                    // Released requests from cacheorigins or the archive go there instead
+                    WebResourceResponse released = this.deferrer.intercept(url, request.getMethod(),
+                            request.getRequestHeaders(), !cached && this.archive == null);
+                    if (released != null) {
+                        return recorded(entry, released, HarRecorder.SOURCE_NETWORK);
+                    }
+                }
+                if (this.archive != null) {
+                    WebResourceResponse archived = this.archive.intercept(url, request.getMethod(),
+                            request.getRequestHeaders(), request.isForMainFrame());
+                    return recorded(entry, archived,
+                            this.archive.isReplay() ? HarRecorder.SOURCE_REPLAY : HarRecorder.SOURCE_NETWORK);
+                }
+                if (!cached) {
+                    return null;
+                }
+                ResourceCache cache = getResourceCache(true);
+                if (cache == null) {
+                    return null;
+                }
+                String profile = this.options.getProfile();
+                String source = entry != null && cache.contains(profile, url) ? HarRecorder.SOURCE_CACHE : HarRecorder.SOURCE_NETWORK;
+                // Pages are only served if they were prefetched and are still fresh; the
+                // WebView loads them itself otherwise
+                if (request.isForMainFrame()) {
+                    return recorded(entry, cache.lookup(profile, url, request.getRequestHeaders()), source);
+                }
+                return recorded(entry, cache.load(profile, url, request.getRequestHeaders()), source);
+            } finally {
+                InAppBrowserTrace.end("shouldInterceptRequest", trace);
             }
-            else {
-                newloc = "http://" + url;
+        }
+
+        private WebResourceResponse recorded(HarRecorder.Entry entry, WebResourceResponse response, String source) {
+            if (entry != null && response != null) {
+                this.har.served(entry, response, source);
             }
+            return response;
+        }
 
-            if (!newloc.equals(this.delegate.urlLabel.getText().toString())) {
-                this.delegate.urlLabel.setText(newloc);
+        /**
+         * Record the status of a request that got an HTTP error, with har=yes. Called
+         * from API 23.
+         */
+        @SuppressLint("NewApi")
+        @Override
+        public void onReceivedHttpError(WebView view, WebResourceRequest request, WebResourceResponse errorResponse) {
+            super.onReceivedHttpError(view, request, errorResponse);
+            if (this.har != null) {
+                this.har.failed(request.getUrl().toString(), errorResponse.getStatusCode(), errorResponse.getReasonPhrase());
             }
+        }
 
-            try {
-                JSONObject obj = new JSONObject();
-                obj.put("type", LOAD_START_EVENT);
-                obj.put("url", newloc);
-    
-                sendUpdate(obj, true);
-            } catch (JSONException ex) {
-                Log.d(LOG_TAG, "Should never happen");
+        /**
+         * Record a request that failed without a response, with har=yes. Called from
+         * API 23, also for subresources. The default implementation reports main frame
+         * errors to onReceivedError(WebView, int, String, String).
+         */
+        @SuppressLint("NewApi")
+        @Override
+        public void onReceivedError(WebView view, WebResourceRequest request, WebResourceError error) {
+            super.onReceivedError(view, request, error);
+            if (this.har != null) {
+                this.har.failed(request.getUrl().toString(), 0, String.valueOf(error.getDescription()));
             }
         }
-        
-        public void onPageFinished(WebView view, String url) {
-            super.onPageFinished(view, url);
-            
-            this.delegate.pageTitle.setText(view.getTitle());
-            this.delegate.urlLabel.setText(url);
 
-            this.delegate.back.setAlpha(   (float) (this.delegate.canGoBack()    ? 1.0 : 0.25));
-            this.delegate.forward.setAlpha((float) (this.delegate.canGoForward() ? 1.0 : 0.25));
+        /**
+         * Notify the host application that the new page is about to become visible.
+         * Called from API 23.
+         *
+         * @param view          The webview initiating the callback.
+         * @param url           The url of the page.
+         */
+        @Override
+        public void onPageCommitVisible(WebView view, String url) {
+            if (this.navigation != null) {
+                this.navigation.committed();
+            }
+            if (this.open != null) {
+                this.open.mark(OpenStats.COMMIT_VISIBLE);
+            }
+            if (this.deferrer != null) {
+                this.deferrer.pageVisible();
+            }
+        }
 
+        public void onPageFinished(WebView view, String url) {
+            long trace = InAppBrowserTrace.begin("onPageFinished");
             try {
-                JSONObject obj = new JSONObject();
-                obj.put("type", LOAD_STOP_EVENT);
-                obj.put("url", url);
+                super.onPageFinished(view, url);
+
+                if (isShowing(view)) {
+                    this.delegate.pageLoaded = true;
+                }
+                // The page may have set cookies
+                getCookieJar().scheduleFlush();
+                getProfiles().visited(url);
+
+                if (this.prerender != null) {
+                    this.prerender.finished(url);
+                } else if (this.delegate.clearHistoryOnLoad) {
+                    this.delegate.clearHistoryOnLoad = false;
+                    view.clearHistory();
+                }
+            
+                if (isShowing(view)) {
+                    this.delegate.showPageInfo(view.getTitle(), url);
+                    this.delegate.updateNavigationButtons();
+                }
+
+                try {
+                    JSONObject obj = new JSONObject();
+                    obj.put("type", LOAD_STOP_EVENT);
+                    obj.put("url", url);
+                    if (this.navigation != null) {
+                        JSONObject timing = metrics.finish(this.navigation, url);
+                        this.navigation = null;
+                        if (this.options.timings()) {
+                            obj.put("timing", timing);
+                        }
+                    }
+                    if (contentBlocker != null && this.options.contentBlock()) {
+                        obj.put("blocked", this.blocked.get());
+                    }
+                    if (this.har != null) {
+                        this.har.pageFinished(url);
+                    }
+                    if (this.deferrer != null) {
+                        JSONObject deferred = this.deferrer.pageFinished();
+                        if (deferred != null) {
+                            obj.put("deferred", deferred);
+                        }
+                    }
     
-                sendUpdate(obj, true);
-            } catch (JSONException ex) {
-                Log.d(LOG_TAG, "Should never happen");
+                    send(obj, PluginResult.Status.OK);
+
+                    if (this.open != null) {
+                        this.open.mark(OpenStats.PAGE_FINISHED);
+                        JSONObject stats = openStats.finish(this.open);
+                        this.open = null;
+                        if (this.options.timings()) {
+                            sendUpdate(stats, true);
+                        }
+                    }
+                } catch (JSONException ex) {
+                    Log.d(LOG_TAG, "Should never happen");
+                }
+            } finally {
+                InAppBrowserTrace.end("onPageFinished", trace);
             }
         }
         
         public void onReceivedError(WebView view, int errorCode, String description, String failingUrl) {
-            super.onReceivedError(view, errorCode, description, failingUrl);
-            
+            long trace = InAppBrowserTrace.begin("onReceivedError");
             try {
-                JSONObject obj = new JSONObject();
-                obj.put("type", LOAD_ERROR_EVENT);
-                obj.put("url", failingUrl);
-                obj.put("code", errorCode);
-                obj.put("message", description);
+                super.onReceivedError(view, errorCode, description, failingUrl);
+
+                NavigationMetrics.Navigation failed = this.navigation != null ? this.navigation : this.pending;
+                if (failed != null) {
+                    failed.failed();
+                }
+            
+                try {
+                    JSONObject obj = new JSONObject();
+                    obj.put("type", LOAD_ERROR_EVENT);
+                    obj.put("url", failingUrl);
+                    obj.put("code", errorCode);
+                    obj.put("message", description);
     
-                sendUpdate(obj, true, PluginResult.Status.ERROR);
-            } catch (JSONException ex) {
-                Log.d(LOG_TAG, "Should never happen");
+                    send(obj, PluginResult.Status.ERROR);
+                } catch (JSONException ex) {
+                    Log.d(LOG_TAG, "Should never happen");
+                }
+            } finally {
+                InAppBrowserTrace.end("onReceivedError", trace);
             }
         }
     }
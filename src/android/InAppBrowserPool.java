@@ -0,0 +1,351 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.util.Log;
+import android.view.ViewGroup;
+import android.view.Window;
+import android.view.WindowManager.LayoutParams;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+import android.widget.LinearLayout;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+
+/**
+ * Keeps a number of ready-made WebView/dialog pairs around so that opening the
+ * InAppBrowser does not have to pay for creating a WebView on the UI thread.
+ *
+ * The pool is filled from an idle handler, one pair per idle pass, so warming up
+ * never blocks a frame the user is waiting on. All methods that touch views must
+ * be called on the UI thread.
+ *
+ * A browser closed with reuse=yes is parked here instead of being torn down, and
+ * is handed out again by the next acquire() until it has been idle for too long.
+ */
+public class InAppBrowserPool implements MessageQueue.IdleHandler {
+
+    private static final String LOG_TAG = "InAppBrowserPool";
+
+    /**
+     * A dialog and WebView which have been constructed but not yet shown.
+     */
+    public static class Entry {
+        public final InAppBrowserDialog dialog;
+        public final WebView webView;
+        /** True if this pair was shown before and parked by a reuse=yes close. */
+        public boolean reused = false;
+        /** The browsing profile the WebView was given, or null for the default one. */
+        public String profile = null;
+
+        Entry(InAppBrowserDialog dialog, WebView webView) {
+            this.dialog = dialog;
+            this.webView = webView;
+        }
+    }
+
+    private final Activity activity;
+    private final int size;
+    private final ArrayDeque<Entry> idle = new ArrayDeque<Entry>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private boolean warming = false;
+    private Entry parked;
+
+    private int hits = 0;
+    private int misses = 0;
+    private int created = 0;
+    private int reuses = 0;
+    private int expired = 0;
+    private final Latency openLatency = new Latency();
+    private final Latency reuseOpenLatency = new Latency();
+
+    private final Runnable releaseParked = new Runnable() {
+        @Override
+        public void run() {
+            Entry entry = unpark();
+            if (entry != null) {
+                Log.d(LOG_TAG, "releasing idle reused browser");
+                synchronized (InAppBrowserPool.this) {
+                    expired++;
+                }
+                destroy(entry);
+            }
+        }
+    };
+
+    public InAppBrowserPool(Activity activity, int size) {
+        this.activity = activity;
+        this.size = Math.max(0, size);
+    }
+
+    /**
+     * Take a dialog and WebView from the pool, or build them now if the pool is empty.
+     * The pool is topped up again the next time the UI thread is idle.
+     *
+     * @return a dialog/WebView pair ready to be configured and shown
+     */
+    public Entry acquire() {
+        return acquire(null);
+    }
+
+    /**
+     * Take a dialog and WebView for a browsing profile. A parked browser of another
+     * profile is released instead of reused, as it still holds that profile's pages.
+     *
+     * @param profile  The profile name, or null for the default profile.
+     * @return a dialog/WebView pair ready to be configured and shown
+     */
+    public Entry acquire(String profile) {
+        Entry entry = unpark();
+        if (entry != null && !(profile == null ? entry.profile == null : profile.equals(entry.profile))) {
+            destroy(entry);
+            entry = null;
+        }
+        if (entry != null) {
+            synchronized (this) {
+                reuses++;
+            }
+            detach(entry.webView);
+            entry.webView.onResume();
+            return entry;
+        }
+        return acquireNew();
+    }
+
+    /**
+     * Take a dialog and WebView that have never been shown, leaving a browser parked
+     * by reuse=yes where it is, e.g. for a prerender.
+     *
+     * @return a dialog/WebView pair ready to be configured
+     */
+    public Entry acquireNew() {
+        Entry entry;
+        synchronized (this) {
+            entry = idle.poll();
+            if (entry != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+        if (entry == null) {
+            entry = createEntry();
+        }
+        warm();
+        return entry;
+    }
+
+    /**
+     * Keep a closed browser around for the next acquire(), replacing any browser
+     * that was parked before. The caller should already have hidden the dialog.
+     *
+     * @param entry        The dialog and WebView to keep.
+     * @param idleTimeout  Milliseconds after which the browser is really released.
+     */
+    public void park(Entry entry, long idleTimeout) {
+        Entry previous = unpark();
+        if (previous != null) {
+            destroy(previous);
+        }
+        entry.reused = true;
+        entry.dialog.setInAppBroswer(null);
+        entry.webView.onPause();
+        synchronized (this) {
+            parked = entry;
+        }
+        handler.postDelayed(releaseParked, idleTimeout);
+    }
+
+    /**
+     * Record how long an open took from the exec call until its dialog was shown.
+     *
+     * @param entry   The pair that was shown.
+     * @param millis  Elapsed time in milliseconds.
+     */
+    public synchronized void recordOpen(Entry entry, long millis) {
+        if (entry.reused) {
+            reuseOpenLatency.add(millis);
+        } else {
+            openLatency.add(millis);
+        }
+    }
+
+    /**
+     * Schedule the pool to be filled up to its configured size during idle time.
+     */
+    public void warm() {
+        if (size == 0) {
+            return;
+        }
+        activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (!warming && idleCount() < size) {
+                    warming = true;
+                    Looper.myQueue().addIdleHandler(InAppBrowserPool.this);
+                }
+            }
+        });
+    }
+
+    /**
+     * Called by the UI thread's message queue when it runs out of messages.
+     *
+     * @return true while the pool still needs more entries
+     */
+    @Override
+    public boolean queueIdle() {
+        if (idleCount() < size) {
+            Entry entry = createEntry();
+            synchronized (this) {
+                idle.add(entry);
+            }
+        }
+        warming = idleCount() < size;
+        return warming;
+    }
+
+    /**
+     * Destroy every pooled WebView. Must be called on the UI thread.
+     */
+    public void clear() {
+        Entry reusable = unpark();
+        if (reusable != null) {
+            destroy(reusable);
+        }
+        if (warming) {
+            Looper.myQueue().removeIdleHandler(this);
+            warming = false;
+        }
+        Entry entry;
+        while ((entry = poll()) != null) {
+            destroy(entry);
+        }
+    }
+
+    /**
+     * Hit and miss counters, used to size the pool.
+     *
+     * @return a JSONObject describing the pool
+     */
+    public synchronized JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("size", size);
+        stats.put("idle", idle.size());
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("created", created);
+        stats.put("parked", parked != null);
+        stats.put("reuses", reuses);
+        stats.put("expired", expired);
+        stats.put("openLatency", openLatency.toJSON());
+        stats.put("reuseOpenLatency", reuseOpenLatency.toJSON());
+        return stats;
+    }
+
+    private synchronized int idleCount() {
+        return idle.size();
+    }
+
+    private synchronized Entry poll() {
+        return idle.poll();
+    }
+
+    private Entry unpark() {
+        handler.removeCallbacks(releaseParked);
+        synchronized (this) {
+            Entry entry = parked;
+            parked = null;
+            return entry;
+        }
+    }
+
+    private static void detach(WebView webView) {
+        if (webView.getParent() instanceof ViewGroup) {
+            ((ViewGroup) webView.getParent()).removeView(webView);
+        }
+    }
+
+    /**
+     * Dismiss the dialog and free its WebView, clients and view tree. Must be called
+     * on the UI thread; neither object may be used afterwards.
+     *
+     * @param entry  The dialog and WebView to release.
+     */
+    static void destroy(Entry entry) {
+        entry.dialog.setInAppBroswer(null);
+        entry.dialog.dismiss();
+        WebView webView = entry.webView;
+        webView.stopLoading();
+        webView.setWebChromeClient(null);
+        webView.setWebViewClient(new WebViewClient());
+        detach(webView);
+        webView.removeAllViews();
+        webView.destroy();
+    }
+
+    private Entry createEntry() {
+        long trace = InAppBrowserTrace.begin("createEntry");
+        InAppBrowserDialog dialog = new InAppBrowserDialog(activity, android.R.style.Theme_NoTitleBar);
+        dialog.getWindow().getAttributes().windowAnimations = android.R.style.Animation_Dialog;
+        dialog.requestWindowFeature(Window.FEATURE_NO_TITLE);
+        dialog.setCancelable(true);
+
+        WebView webView = new WebView(activity);
+        webView.setLayoutParams(new LinearLayout.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
+        webView.setId(6);
+
+        synchronized (this) {
+            created++;
+        }
+        InAppBrowserTrace.debug(LOG_TAG, "created WebView, pool size = ", size);
+        InAppBrowserTrace.end("createEntry", trace);
+        return new Entry(dialog, webView);
+    }
+
+    /**
+     * Running count, total and last value of a latency in milliseconds.
+     */
+    private static class Latency {
+        private int count = 0;
+        private long total = 0;
+        private long last = 0;
+
+        void add(long millis) {
+            count++;
+            total += millis;
+            last = millis;
+        }
+
+        JSONObject toJSON() throws JSONException {
+            JSONObject obj = new JSONObject();
+            obj.put("count", count);
+            obj.put("last", last);
+            obj.put("average", count == 0 ? 0 : total / count);
+            return obj;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.annotation.SuppressLint;
+import android.os.Build;
+import android.os.Trace;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Tracing and debug logging for the InAppBrowser.
+ *
+ * While tracing is off, begin() and end() only read a volatile flag, and debug()
+ * neither logs nor builds its message. While it is on, spans are sent to
+ * android.os.Trace (API 18 and up), so they show up in systrace and Perfetto, and
+ * are kept in a ring buffer of the most recent spans and debug messages, which
+ * toJSON() exports in the Chrome trace event format (chrome://tracing, Perfetto UI).
+ *
+ * Usage:
+ *
+ *   long trace = InAppBrowserTrace.begin("onPageStarted");
+ *   try {
+ *       ...
+ *   } finally {
+ *       InAppBrowserTrace.end("onPageStarted", trace);
+ *   }
+ */
+public final class InAppBrowserTrace {
+
+    private static final String CATEGORY = "InAppBrowser";
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static volatile boolean enabled = false;
+
+    // The ring buffer; an instant event (a debug message) has a duration of -1
+    private static String[] names = new String[0];
+    private static long[] starts = new long[0];
+    private static long[] durations = new long[0];
+    private static long[] threads = new long[0];
+    private static int next = 0;
+    private static int count = 0;
+
+    private InAppBrowserTrace() {
+    }
+
+    /**
+     * Turn tracing on or off. Turning it on clears the ring buffer.
+     *
+     * @param on        Whether to trace.
+     * @param capacity  How many events the ring buffer keeps.
+     */
+    public static synchronized void setEnabled(boolean on, int capacity) {
+        if (on) {
+            capacity = Math.max(1, capacity);
+            names = new String[capacity];
+            starts = new long[capacity];
+            durations = new long[capacity];
+            threads = new long[capacity];
+            next = 0;
+            count = 0;
+        }
+        enabled = on;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start a span on the current thread.
+     *
+     * @param name  The span name.
+     * @return a token for end(), 0 if tracing is off
+     */
+    @SuppressLint("NewApi")
+    public static long begin(String name) {
+        if (!enabled) {
+            return 0;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Start a span named "name:detail". The name is only built while tracing is on.
+     */
+    public static long begin(String name, String detail) {
+        if (!enabled) {
+            return 0;
+        }
+        return begin(name + ":" + detail);
+    }
+
+    /**
+     * End the span begin() started on this thread.
+     *
+     * @param name   The name given to begin().
+     * @param token  What begin() returned.
+     */
+    @SuppressLint("NewApi")
+    public static void end(String name, long token) {
+        if (token == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+        record(name, token, now - token);
+    }
+
+    /**
+     * End a span started with begin(name, detail).
+     */
+    public static void end(String name, String detail, long token) {
+        if (token == 0) {
+            return;
+        }
+        end(name + ":" + detail, token);
+    }
+
+    /**
+     * Log a debug message, and keep it in the trace, while tracing is on.
+     *
+     * @param tag      The log tag.
+     * @param message  The message.
+     */
+    public static void debug(String tag, String message) {
+        if (enabled) {
+            Log.d(tag, message);
+            record(tag + ": " + message, System.nanoTime(), -1);
+        }
+    }
+
+    /**
+     * Log message + value while tracing is on, without concatenating them otherwise.
+     */
+    public static void debug(String tag, String message, Object value) {
+        if (enabled) {
+            debug(tag, message + value);
+        }
+    }
+
+    private static synchronized void record(String name, long start, long duration) {
+        if (names.length == 0) {
+            return;
+        }
+        names[next] = name;
+        starts[next] = start;
+        durations[next] = duration;
+        threads[next] = Thread.currentThread().getId();
+        next = (next + 1) % names.length;
+        if (count < names.length) {
+            count++;
+        }
+    }
+
+    /**
+     * @return the ring buffer as {traceEvents: [...]}, oldest event first
+     */
+    public static synchronized JSONObject toJSON() throws JSONException {
+        JSONArray events = new JSONArray();
+        int pid = android.os.Process.myPid();
+        int first = (next - count + names.length) % Math.max(1, names.length);
+        for (int i = 0; i < count; i++) {
+            int slot = (first + i) % names.length;
+            JSONObject event = new JSONObject();
+            event.put("name", names[slot]);
+            event.put("cat", CATEGORY);
+            event.put("pid", pid);
+            event.put("tid", threads[slot]);
+            event.put("ts", starts[slot] / 1000);
+            if (durations[slot] < 0) {
+                event.put("ph", "i");
+                event.put("s", "t");
+            } else {
+                event.put("ph", "X");
+                event.put("dur", durations[slot] / 1000);
+            }
+            events.put(event);
+        }
+        JSONObject trace = new JSONObject();
+        trace.put("traceEvents", events);
+        trace.put("displayTimeUnit", "ms");
+        return trace;
+    }
+}
@@ -91,6 +91,9 @@ public class InAppChromeClient extends WebChromeClient {
      * If present, the prompt message is expected to be a JSON-encoded value to
      * pass to the callback. A JSON_EXCEPTION is returned if the JSON is invalid.
      *
+     * On API 17 and up results are sent through ScriptResultBridge instead, so
+     * this is only used on older versions.
+     *
      * @param view
      * @param url
      * @param message
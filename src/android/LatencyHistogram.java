@@ -0,0 +1,116 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Counts durations in power-of-two millisecond buckets: bucket 0 holds 0ms,
+ * bucket i holds [2^(i-1), 2^i). Recording is a few arithmetic operations and
+ * an array increment, with no allocation. Percentiles are reported as the upper
+ * bound of the bucket they fall in, so they are accurate to within a factor of two.
+ *
+ * Not thread safe; callers synchronize.
+ */
+public class LatencyHistogram {
+
+    // The last bucket also takes everything above 2^30 ms
+    private static final int BUCKETS = 32;
+
+    private final long[] buckets = new long[BUCKETS];
+    private long count = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    /**
+     * @param millis  The duration to count. Negative values count as 0.
+     */
+    public void record(long millis) {
+        if (millis < 0) {
+            millis = 0;
+        }
+        int bucket = 64 - Long.numberOfLeadingZeros(millis);
+        buckets[bucket < BUCKETS ? bucket : BUCKETS - 1]++;
+        count++;
+        sum += millis;
+        if (millis < min) {
+            min = millis;
+        }
+        if (millis > max) {
+            max = millis;
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @param fraction  Between 0 and 1, e.g. 0.9 for the 90th percentile.
+     * @return the upper bound of the bucket holding the percentile, capped at the largest
+     *         recorded value, or 0 if nothing was recorded
+     */
+    public long percentile(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * count);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                long upper = i == 0 ? 0 : (1L << i) - 1;
+                return Math.min(upper, max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return {count, min, max, mean, p50, p90, p99, buckets}, where buckets lists
+     *         [upper bound, count] for every non-empty bucket
+     */
+    public JSONObject toJSON() throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("count", count);
+        obj.put("min", count == 0 ? 0 : min);
+        obj.put("max", max);
+        obj.put("mean", count == 0 ? 0 : sum / count);
+        obj.put("p50", percentile(0.5));
+        obj.put("p90", percentile(0.9));
+        obj.put("p99", percentile(0.99));
+        JSONArray nonEmpty = new JSONArray();
+        for (int i = 0; i < BUCKETS; i++) {
+            if (buckets[i] != 0) {
+                JSONArray bucket = new JSONArray();
+                bucket.put(i == 0 ? 0 : (1L << i) - 1);
+                bucket.put(buckets[i]);
+                nonEmpty.put(bucket);
+            }
+        }
+        obj.put("buckets", nonEmpty);
+        return obj;
+    }
+}
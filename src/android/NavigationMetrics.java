@@ -0,0 +1,180 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Page load timings for the InAppBrowser, kept for as long as the plugin lives
+ * and broken down by origin (scheme, host and port).
+ *
+ * InAppBrowserClient starts a Navigation when a page starts loading and hands it
+ * back here when the page finishes. Times are taken from SystemClock.uptimeMillis().
+ * Only the most recently used origins are kept, so a browser that wanders over
+ * many sites cannot grow the table without bound.
+ */
+public class NavigationMetrics {
+
+    private static final int MAX_ORIGINS = 32;
+
+    /**
+     * One page load, from the first sign of it until onPageFinished. Only touched
+     * on the UI thread.
+     */
+    public static class Navigation {
+        final long start;
+        long commit = -1;
+        int redirects = 0;
+        int errors = 0;
+
+        Navigation(long start) {
+            this.start = start;
+        }
+
+        /** The page became visible (onPageCommitVisible, API 23 and up). */
+        public void committed() {
+            if (commit < 0) {
+                commit = SystemClock.uptimeMillis();
+            }
+        }
+
+        public void redirected() {
+            redirects++;
+        }
+
+        public void failed() {
+            errors++;
+        }
+    }
+
+    private static class Stats {
+        final LatencyHistogram duration = new LatencyHistogram();
+        final LatencyHistogram commit = new LatencyHistogram();
+        long redirects = 0;
+        long errors = 0;
+
+        void add(long duration, long commit, int redirects, int errors) {
+            this.duration.record(duration);
+            if (commit >= 0) {
+                this.commit.record(commit);
+            }
+            this.redirects += redirects;
+            this.errors += errors;
+        }
+
+        JSONObject toJSON() throws JSONException {
+            JSONObject obj = new JSONObject();
+            obj.put("pages", duration.getCount());
+            obj.put("redirects", redirects);
+            obj.put("errors", errors);
+            obj.put("duration", duration.toJSON());
+            obj.put("commit", commit.toJSON());
+            return obj;
+        }
+    }
+
+    private final Stats session = new Stats();
+    private final Map<String, Stats> origins = new LinkedHashMap<String, Stats>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Stats> eldest) {
+            return size() > MAX_ORIGINS;
+        }
+    };
+
+    /**
+     * Start timing a page load, e.g. when the WebView is asked to load a URL.
+     *
+     * @return Navigation
+     */
+    public Navigation begin() {
+        return new Navigation(SystemClock.uptimeMillis());
+    }
+
+    /**
+     * Count a finished page load.
+     *
+     * @param navigation  The navigation returned by begin().
+     * @param url         The page that was loaded, after any redirects.
+     * @return the timings of this load: {duration, commit, redirects, errors}, with
+     *         commit -1 if the WebView did not report it
+     */
+    public JSONObject finish(Navigation navigation, String url) throws JSONException {
+        long duration = SystemClock.uptimeMillis() - navigation.start;
+        long commit = navigation.commit < 0 ? -1 : navigation.commit - navigation.start;
+        String origin = originOf(url);
+        synchronized (this) {
+            session.add(duration, commit, navigation.redirects, navigation.errors);
+            Stats stats = origins.get(origin);
+            if (stats == null) {
+                stats = new Stats();
+                origins.put(origin, stats);
+            }
+            stats.add(duration, commit, navigation.redirects, navigation.errors);
+        }
+        JSONObject timing = new JSONObject();
+        timing.put("duration", duration);
+        timing.put("commit", commit);
+        timing.put("redirects", navigation.redirects);
+        timing.put("errors", navigation.errors);
+        return timing;
+    }
+
+    /**
+     * @return {session: {...}, origins: {"https://example.com": {...}, ...}}
+     */
+    public synchronized JSONObject getStats() throws JSONException {
+        JSONObject byOrigin = new JSONObject();
+        for (Map.Entry<String, Stats> entry : origins.entrySet()) {
+            byOrigin.put(entry.getKey(), entry.getValue().toJSON());
+        }
+        JSONObject obj = new JSONObject();
+        obj.put("session", session.toJSON());
+        obj.put("origins", byOrigin);
+        return obj;
+    }
+
+    /**
+     * The scheme, host and port of a URL, e.g. "https://example.com:8443". URLs
+     * without an authority are grouped by scheme.
+     */
+    static String originOf(String url) {
+        int start = UrlRuleMatcher.hostStart(url);
+        if (start < 0) {
+            int colon = url.indexOf(':');
+            return colon > 0 ? url.substring(0, colon + 1).toLowerCase(Locale.US) : "";
+        }
+        int end = url.length();
+        for (int i = start; i < end; i++) {
+            char c = url.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                end = i;
+                break;
+            }
+        }
+        // Leave out any user info between "://" and the host
+        return (url.substring(0, url.indexOf("://") + 3) + url.substring(start, end)).toLowerCase(Locale.US);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.util.Log;
+
+import org.apache.cordova.Config;
+import org.apache.cordova.CordovaWebView;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Asks Cordova whether its own WebView may navigate to a URL, for _self opens.
+ *
+ * This code exists for compatibility between 3.x and 4.x versions of Cordova.
+ * Previously the Config class had a static method, isUrlWhitelisted(). That
+ * responsibility has been moved to the plugins, with an aggregating method in
+ * PluginManager. Which of the two is available is looked up by reflection once,
+ * when the plugin starts, rather than on every open.
+ *
+ * Answers are cached per scheme, host, port and path. The query and fragment
+ * are left out of the key because Cordova's whitelist never looks at them.
+ */
+public class NavigationWhitelist {
+
+    private static final String LOG_TAG = "NavigationWhitelist";
+    private static final int CACHE_SIZE = 64;
+
+    private final Method configIsUrlWhiteListed;
+    private final Object pluginManager;
+    private final Method pluginManagerShouldAllowNavigation;
+
+    private final Map<String, Boolean> cache = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private NavigationWhitelist(Method configIsUrlWhiteListed, Object pluginManager, Method pluginManagerShouldAllowNavigation) {
+        this.configIsUrlWhiteListed = configIsUrlWhiteListed;
+        this.pluginManager = pluginManager;
+        this.pluginManagerShouldAllowNavigation = pluginManagerShouldAllowNavigation;
+    }
+
+    /**
+     * Find out which whitelist API this version of Cordova has.
+     *
+     * @param webView  The Cordova WebView.
+     * @return NavigationWhitelist
+     */
+    public static NavigationWhitelist resolve(CordovaWebView webView) {
+        try {
+            Method iuw = Config.class.getMethod("isUrlWhiteListed", String.class);
+            Log.d(LOG_TAG, "using Config.isUrlWhiteListed");
+            return new NavigationWhitelist(iuw, null, null);
+        } catch (NoSuchMethodException e) {
+        }
+        try {
+            Method gpm = webView.getClass().getMethod("getPluginManager");
+            Object pm = gpm.invoke(webView);
+            Method san = pm.getClass().getMethod("shouldAllowNavigation", String.class);
+            Log.d(LOG_TAG, "using PluginManager.shouldAllowNavigation");
+            return new NavigationWhitelist(null, pm, san);
+        } catch (NoSuchMethodException e) {
+        } catch (IllegalAccessException e) {
+        } catch (InvocationTargetException e) {
+        } catch (NullPointerException e) {
+        }
+        Log.d(LOG_TAG, "no whitelist API found");
+        return new NavigationWhitelist(null, null, null);
+    }
+
+    /**
+     * May the Cordova WebView load the URL?
+     *
+     * @param url  The URL to check.
+     * @return true or false, or null if Cordova could not tell
+     */
+    public Boolean shouldAllowNavigation(String url) {
+        String key = cacheKey(url);
+        if (key != null) {
+            synchronized (cache) {
+                if (cache.containsKey(key)) {
+                    return cache.get(key);
+                }
+            }
+        }
+        Boolean allowed = ask(url);
+        if (key != null) {
+            synchronized (cache) {
+                cache.put(key, allowed);
+            }
+        }
+        return allowed;
+    }
+
+    private Boolean ask(String url) {
+        try {
+            if (configIsUrlWhiteListed != null) {
+                return (Boolean) configIsUrlWhiteListed.invoke(null, url);
+            }
+            if (pluginManagerShouldAllowNavigation != null) {
+                return (Boolean) pluginManagerShouldAllowNavigation.invoke(pluginManager, url);
+            }
+        } catch (IllegalAccessException e) {
+        } catch (InvocationTargetException e) {
+        }
+        return null;
+    }
+
+    /**
+     * The URL up to the end of its path, or null for URLs without an authority.
+     */
+    static String cacheKey(String url) {
+        if (UrlRuleMatcher.hostStart(url) < 0) {
+            return null;
+        }
+        int end = url.length();
+        int query = url.indexOf('?');
+        if (query >= 0) {
+            end = query;
+        }
+        int fragment = url.indexOf('#');
+        if (fragment >= 0 && fragment < end) {
+            end = fragment;
+        }
+        return url.substring(0, end);
+    }
+}
@@ -0,0 +1,421 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import android.webkit.WebResourceResponse;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.util.Map;
+
+/**
+ * Records the responses a browser loads to a named archive (netmode=record), and
+ * serves them from it again without the network (netmode=replay), so the same
+ * pages can be loaded over and over for benchmarks.
+ *
+ * In record mode, every GET request is loaded by the plugin, following
+ * redirects, and its response is written to a file of its own in
+ * files/inAppBrowserArchive/<name> while the WebView reads it. A file holds how
+ * long the response took to its headers and to the end of its body, its size,
+ * and the response in the ResourceCache's entry format. Recording the same URL
+ * again replaces it. A page is not followed through a redirect: its final
+ * response would be shown under the URL first asked for, and relative links in
+ * it would resolve against that. A page that redirects is handed back to the
+ * WebView, which follows the redirect itself, and is not recorded.
+ *
+ * In replay mode, a response is served after the recorded or the given latency,
+ * and its body no faster than the recorded or the given bandwidth. Requests that
+ * are not in the archive, and requests other than GET, get a 404, so a replay
+ * never goes to the network.
+ */
+public class NetworkArchive {
+
+    private static final String LOG_TAG = "NetworkArchive";
+    private static final String DIR = "inAppBrowserArchive";
+    private static final String SUFFIX = ".response";
+    private static final String TEMP_SUFFIX = ".tmp";
+    // latency, receive time and body size come before the entry
+    private static final int TIMES_SIZE = 24;
+
+    public static final String MODE_RECORD = "record";
+    public static final String MODE_REPLAY = "replay";
+
+    private final Context context;
+    private final String name;
+    private final boolean replay;
+    private final long latency;
+    private final long bandwidth;
+    private File dir;
+
+    private long recorded = 0;
+    private long replayed = 0;
+    private long misses = 0;
+    private long bytes = 0;
+
+    /**
+     * Does not touch the disk.
+     *
+     * @param context    The application context.
+     * @param name       The archive name.
+     * @param replay     Whether to replay the archive, rather than record it.
+     * @param latency    Milliseconds before a replayed response, or -1 for the recorded time.
+     * @param bandwidth  Kilobits per second to replay bodies at, 0 for as fast as they can
+     *                   be read, or -1 for the recorded rate.
+     */
+    public NetworkArchive(Context context, String name, boolean replay, long latency, long bandwidth) {
+        this.context = context;
+        this.name = name;
+        this.replay = replay;
+        this.latency = latency;
+        this.bandwidth = bandwidth;
+    }
+
+    public boolean isReplay() {
+        return replay;
+    }
+
+    private synchronized File getDir() {
+        if (dir == null) {
+            dir = new File(new File(context.getFilesDir(), DIR), name.replaceAll("[^A-Za-z0-9._-]", "_"));
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                Log.e(LOG_TAG, "Cannot create " + dir);
+            }
+        }
+        return dir;
+    }
+
+    /**
+     * Record or replay a request. Called on the WebView's network threads, from
+     * shouldInterceptRequest.
+     *
+     * @param url             The http(s) URL requested.
+     * @param method          The request method.
+     * @param requestHeaders  The headers the WebView would have sent.
+     * @param mainFrame       Whether the request is for the page itself.
+     * @return the response, or null to let the WebView load the request itself, which
+     *         only happens while recording
+     */
+    public WebResourceResponse intercept(String url, String method, Map<String, String> requestHeaders,
+                                         boolean mainFrame) {
+        long trace = InAppBrowserTrace.begin(replay ? "replay" : "record");
+        try {
+            if (replay) {
+                return replay(url, method);
+            }
+            if (!"GET".equals(method)) {
+                return null;
+            }
+            return record(url, requestHeaders, mainFrame);
+        } finally {
+            InAppBrowserTrace.end(replay ? "replay" : "record", trace);
+        }
+    }
+
+    private File fileFor(String url) {
+        return new File(getDir(), Long.toHexString(ResourceCache.hash(url)) + SUFFIX);
+    }
+
+    @SuppressLint("NewApi")
+    private WebResourceResponse record(String url, Map<String, String> requestHeaders, boolean mainFrame) {
+        long start = SystemClock.uptimeMillis();
+        HttpURLConnection connection = null;
+        try {
+            connection = ResourceCache.connect(url, requestHeaders, null);
+            connection.setInstanceFollowRedirects(!mainFrame);
+            int status = connection.getResponseCode();
+            ResourceCache.storeCookies(url, connection);
+            if (status < 200 || (status >= 300 && status < 400)) {
+                // A redirect of the page, or to another scheme; WebResourceResponse cannot describe it
+                connection.disconnect();
+                return null;
+            }
+            long headers = SystemClock.uptimeMillis() - start;
+            ResourceCache.Entry response = new ResourceCache.Entry(url, connection);
+            InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            if (body == null) {
+                body = new ByteArrayInputStream(new byte[0]);
+            }
+            File file = fileFor(url);
+            File temp = new File(file.getPath() + TEMP_SUFFIX);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.write(new byte[TIMES_SIZE]);
+            response.writeHeader(out);
+            response.body = new RecordingInputStream(body, out, temp, file, headers);
+            return response.toResponse();
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Cannot record " + url + ": " + e.toString());
+            if (connection != null) {
+                connection.disconnect();
+            }
+            return null;
+        }
+    }
+
+    @SuppressLint("NewApi")
+    private WebResourceResponse replay(String url, String method) {
+        File file = fileFor(url);
+        DataInputStream in = null;
+        try {
+            if ("GET".equals(method) && file.exists()) {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                long recordedLatency = in.readLong();
+                long receive = in.readLong();
+                long size = in.readLong();
+                ResourceCache.Entry entry = ResourceCache.Entry.read(in, url);
+                if (entry != null) {
+                    sleep(latency >= 0 ? latency : recordedLatency);
+                    // Bytes per millisecond is kilobits per second / 8
+                    double rate = bandwidth > 0 ? bandwidth / 8.0
+                            : bandwidth < 0 && receive > 0 ? (double) size / receive : 0;
+                    entry.body = rate > 0 ? new ThrottledInputStream(in, rate) : in;
+                    synchronized (this) {
+                        replayed++;
+                        bytes += size;
+                    }
+                    return entry.toResponse();
+                }
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Cannot replay " + url + ": " + e.toString());
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        synchronized (this) {
+            misses++;
+        }
+        return new WebResourceResponse("text/plain", "UTF-8", 404, "Not in archive", null,
+                new ByteArrayInputStream(new byte[0]));
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void recorded(long size) {
+        recorded++;
+        bytes += size;
+    }
+
+    /**
+     * @return {name, mode, recorded, replayed, misses, bytes}
+     */
+    public synchronized JSONObject getStats() throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("name", name);
+        obj.put("mode", replay ? MODE_REPLAY : MODE_RECORD);
+        obj.put("recorded", recorded);
+        obj.put("replayed", replayed);
+        obj.put("misses", misses);
+        obj.put("bytes", bytes);
+        return obj;
+    }
+
+    /**
+     * Passes a body to the WebView while writing it to a temp file, which replaces
+     * the URL's file once the body has been read to the end.
+     */
+    private class RecordingInputStream extends FilterInputStream {
+        private final DataOutputStream out;
+        private final File temp;
+        private final File file;
+        private final long headers;
+        private final long start = SystemClock.uptimeMillis();
+        private long size = 0;
+        private boolean closed = false;
+
+        RecordingInputStream(InputStream in, DataOutputStream out, File temp, File file, long headers) {
+            super(in);
+            this.out = out;
+            this.temp = temp;
+            this.file = file;
+            this.headers = headers;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                commit();
+            } else {
+                write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read < 0) {
+                commit();
+            } else if (!closed) {
+                try {
+                    out.write(buffer, offset, read);
+                    size += read;
+                } catch (IOException e) {
+                    abandon();
+                }
+            }
+            return read;
+        }
+
+        private void write(int b) {
+            if (closed) {
+                return;
+            }
+            try {
+                out.write(b);
+                size++;
+            } catch (IOException e) {
+                abandon();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                abandon();
+            }
+        }
+
+        private void commit() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            long receive = SystemClock.uptimeMillis() - start;
+            RandomAccessFile times = null;
+            try {
+                out.close();
+                times = new RandomAccessFile(temp, "rw");
+                times.writeLong(headers);
+                times.writeLong(receive);
+                times.writeLong(size);
+                times.close();
+                times = null;
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Cannot rename " + temp);
+                }
+                recorded(size);
+            } catch (IOException e) {
+                Log.d(LOG_TAG, "Cannot record " + file + ": " + e.toString());
+                temp.delete();
+            } finally {
+                if (times != null) {
+                    try {
+                        times.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+
+        private void abandon() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            temp.delete();
+        }
+    }
+
+    /**
+     * Hands out a body no faster than a number of bytes per millisecond.
+     */
+    private static class ThrottledInputStream extends FilterInputStream {
+        private final double rate;
+        private final long start = SystemClock.uptimeMillis();
+        private long read = 0;
+
+        ThrottledInputStream(InputStream in, double rate) {
+            super(in);
+            this.rate = rate;
+        }
+
+        @Override
+        public int read() throws IOException {
+            throttle();
+            int b = super.read();
+            if (b >= 0) {
+                read++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            throttle();
+            // Small reads, so the rate holds within a response
+            int n = super.read(buffer, offset, Math.min(count, Math.max(1, (int) (rate * 16))));
+            if (n > 0) {
+                read += n;
+            }
+            return n;
+        }
+
+        private void throttle() throws IOException {
+            long due = start + (long) (read / rate);
+            long wait = due - SystemClock.uptimeMillis();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+/**
+ * Where the time goes between window.open() and the first page of the browser
+ * finishing loading.
+ *
+ * Every open gets an Open, numbered from 1, when it reaches execute(). Each stage
+ * it passes through is stamped with the milliseconds since then, taken from
+ * SystemClock.uptimeMillis(); the time the call spent crossing the bridge is
+ * measured separately, from the wall clock time the JavaScript side sent along.
+ * When the first page finishes, the stages are added to a histogram each.
+ */
+public class OpenStats {
+
+    private static final String OPEN_STATS_EVENT = "openstats";
+
+    public static final int UI_THREAD = 0;      // showWebPage started on the UI thread
+    public static final int BUILT = 1;          // dialog and WebView set up
+    public static final int LOAD_URL = 2;       // loadUrl() returned
+    public static final int SHOWN = 3;          // dialog shown
+    public static final int TOOLBAR = 4;        // toolbar built, a frame later
+    public static final int PAGE_STARTED = 5;
+    public static final int COMMIT_VISIBLE = 6; // API 23 and up
+    public static final int PAGE_FINISHED = 7;
+
+    private static final String[] STAGES = {
+        "uiThread", "built", "loadUrl", "shown", "toolbar", "pageStarted", "commitVisible", "pageFinished"
+    };
+
+    /**
+     * The stages of one open. Stamped on the UI thread only.
+     */
+    public static class Open {
+        public final int id;
+        final String url;
+        final long start;
+        final long bridge;
+        final long[] stages = new long[STAGES.length];
+        boolean prerendered = false;
+        boolean reused = false;
+
+        Open(int id, String url, long start, long bridge) {
+            this.id = id;
+            this.url = url;
+            this.start = start;
+            this.bridge = bridge;
+            Arrays.fill(stages, -1);
+        }
+
+        /**
+         * Stamp a stage, unless it already is; only the first page counts.
+         */
+        public void mark(int stage) {
+            if (stages[stage] < 0) {
+                stages[stage] = elapsed();
+            }
+        }
+
+        /** @return the milliseconds since the open reached execute() */
+        public long elapsed() {
+            return SystemClock.uptimeMillis() - start;
+        }
+    }
+
+    private int nextId = 1;
+    private long prerendered = 0;
+    private final LatencyHistogram bridge = new LatencyHistogram();
+    private final LatencyHistogram[] stages = new LatencyHistogram[STAGES.length];
+
+    public OpenStats() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Start timing an open, as execute() receives it.
+     *
+     * @param url       The URL being opened.
+     * @param sentTime  When JavaScript made the call, from Date.now(), or 0 if unknown.
+     * @return Open
+     */
+    public Open begin(String url, long sentTime) {
+        long bridge = sentTime > 0 ? Math.max(0, System.currentTimeMillis() - sentTime) : -1;
+        int id;
+        synchronized (this) {
+            id = nextId++;
+        }
+        return new Open(id, url, SystemClock.uptimeMillis(), bridge);
+    }
+
+    /**
+     * Count an open whose first page has finished.
+     *
+     * @param open  The open returned by begin().
+     * @return {type: "openstats", id, url, bridge, prerendered, reused, stages: {uiThread, ...}},
+     *         with -1 for what was not measured
+     */
+    public JSONObject finish(Open open) throws JSONException {
+        JSONObject times = new JSONObject();
+        synchronized (this) {
+            if (open.bridge >= 0) {
+                bridge.record(open.bridge);
+            }
+            if (open.prerendered) {
+                prerendered++;
+            }
+            for (int i = 0; i < STAGES.length; i++) {
+                if (open.stages[i] >= 0) {
+                    stages[i].record(open.stages[i]);
+                }
+                times.put(STAGES[i], open.stages[i]);
+            }
+        }
+        JSONObject obj = new JSONObject();
+        obj.put("type", OPEN_STATS_EVENT);
+        obj.put("id", open.id);
+        obj.put("url", open.url);
+        obj.put("bridge", open.bridge);
+        obj.put("prerendered", open.prerendered);
+        obj.put("reused", open.reused);
+        obj.put("stages", times);
+        return obj;
+    }
+
+    /**
+     * @return {opens, prerendered, bridge: {...}, stages: {uiThread: {...}, ...}}, each
+     *         histogram counting milliseconds since the open reached execute()
+     */
+    public synchronized JSONObject getStats() throws JSONException {
+        JSONObject byStage = new JSONObject();
+        for (int i = 0; i < STAGES.length; i++) {
+            byStage.put(STAGES[i], stages[i].toJSON());
+        }
+        JSONObject obj = new JSONObject();
+        obj.put("opens", stages[PAGE_FINISHED].getCount());
+        obj.put("prerendered", prerendered);
+        obj.put("bridge", bridge.toJSON());
+        obj.put("stages", byStage);
+        return obj;
+    }
+}
@@ -0,0 +1,372 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.annotation.SuppressLint;
+import android.util.Log;
+import android.webkit.WebResourceResponse;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads pages the app expects to open next, and the scripts, style sheets and
+ * images they declare, into the ResourceCache ahead of time.
+ *
+ * Every prefetch() is a job with its own concurrency and byte limits, run on a
+ * small shared pool of background threads. A job stops taking new URLs once it
+ * has read its byte limit or has been cancelled, and then reports what it did to
+ * its listener as {type: "prefetch", cancelled, bytes, resources: [{url, status,
+ * bytes, cached}, ...]}.
+ */
+public class Prefetcher {
+
+    private static final String LOG_TAG = "Prefetcher";
+    private static final String PREFETCH_EVENT = "prefetch";
+
+    private static final int MAX_THREADS = 4;
+    public static final int DEFAULT_CONCURRENCY = 2;
+    public static final long DEFAULT_MAX_BYTES = 5 * 1024 * 1024;
+    // Subresources are only looked for in the start of a document
+    private static final int MAX_DOCUMENT_SCAN = 512 * 1024;
+
+    private static final Pattern TAG = Pattern.compile("<(script|img|link)\\b([^>]*)>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTRIBUTE = Pattern.compile(
+            "(?:^|\\s)(src|href|rel)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s>]+))", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Receives the result of a job once it has finished or was cancelled.
+     */
+    public interface Listener {
+        void done(JSONObject result);
+    }
+
+    private final ResourceCache cache;
+    private final String userAgent;
+    private final ThreadPoolExecutor executor;
+    private final HashSet<Job> jobs = new HashSet<Job>();
+
+    /**
+     * @param cache      The cache to fill.
+     * @param userAgent  The User-Agent of the InAppBrowser WebView, or null.
+     */
+    public Prefetcher(ResourceCache cache, String userAgent) {
+        this.cache = cache;
+        this.userAgent = userAgent;
+        this.executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "InAppBrowserPrefetch");
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Start prefetching documents.
+     *
+     * @param urls         The http(s) URLs of the documents.
+     * @param profile      The browsing profile to store the responses for, or null.
+     * @param concurrency  How many requests of this job may run at once.
+     * @param maxBytes     How many bytes the job may read in total.
+     * @param listener     Told the result.
+     */
+    public void prefetch(List<String> urls, String profile, int concurrency, long maxBytes, Listener listener) {
+        Job job = new Job(profile, Math.max(1, Math.min(concurrency, MAX_THREADS)), maxBytes, listener);
+        for (String url : urls) {
+            job.add(url, true);
+        }
+        synchronized (jobs) {
+            jobs.add(job);
+        }
+        job.spread();
+    }
+
+    /**
+     * Stop every job as soon as its running requests are done. Each job still
+     * reports its result, with cancelled set.
+     */
+    public void cancelAll() {
+        synchronized (jobs) {
+            for (Job job : jobs) {
+                job.cancelled = true;
+            }
+        }
+    }
+
+    /**
+     * Cancel everything and let the threads end.
+     */
+    public void shutdown() {
+        cancelAll();
+        executor.shutdown();
+    }
+
+    private Map<String, String> requestHeaders(boolean document) {
+        HashMap<String, String> headers = new HashMap<String, String>();
+        if (userAgent != null) {
+            headers.put("User-Agent", userAgent);
+        }
+        headers.put("Accept", document ? "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8" : "*/*");
+        return headers;
+    }
+
+    /**
+     * The URLs of the scripts, images, style sheets and preloads a document declares.
+     */
+    static List<String> findSubresources(String html, String baseUrl) {
+        List<String> found = new ArrayList<String>();
+        URL base;
+        try {
+            base = new URL(baseUrl);
+        } catch (MalformedURLException e) {
+            return found;
+        }
+        Matcher tag = TAG.matcher(html);
+        while (tag.find()) {
+            String name = tag.group(1).toLowerCase(Locale.US);
+            String src = null;
+            String href = null;
+            String rel = "";
+            Matcher attribute = ATTRIBUTE.matcher(tag.group(2));
+            while (attribute.find()) {
+                String value = attribute.group(2) != null ? attribute.group(2)
+                        : attribute.group(3) != null ? attribute.group(3) : attribute.group(4);
+                String attributeName = attribute.group(1).toLowerCase(Locale.US);
+                if (attributeName.equals("src")) {
+                    src = value;
+                } else if (attributeName.equals("href")) {
+                    href = value;
+                } else {
+                    rel = value.toLowerCase(Locale.US);
+                }
+            }
+            String ref = null;
+            if (name.equals("link")) {
+                if (rel.contains("stylesheet") || rel.contains("preload") || rel.contains("icon")) {
+                    ref = href;
+                }
+            } else {
+                ref = src;
+            }
+            if (ref == null || ref.length() == 0 || ref.startsWith("data:")) {
+                continue;
+            }
+            try {
+                URL resolved = new URL(base, ref.trim());
+                String protocol = resolved.getProtocol();
+                if (protocol.equals("http") || protocol.equals("https")) {
+                    String url = resolved.toString();
+                    int fragment = url.indexOf('#');
+                    found.add(fragment < 0 ? url : url.substring(0, fragment));
+                }
+            } catch (MalformedURLException e) {
+            }
+        }
+        return found;
+    }
+
+    private static class Request {
+        final String url;
+        final boolean document;
+
+        Request(String url, boolean document) {
+            this.url = url;
+            this.document = document;
+        }
+    }
+
+    /**
+     * One prefetch() call. Up to its concurrency of workers take URLs from its
+     * queue; documents add their subresources to the queue as they are read.
+     */
+    private class Job implements Runnable {
+        final String profile;
+        final int concurrency;
+        final long maxBytes;
+        final Listener listener;
+        final ArrayDeque<Request> queue = new ArrayDeque<Request>();
+        final HashSet<String> seen = new HashSet<String>();
+        final JSONArray resources = new JSONArray();
+        volatile boolean cancelled = false;
+        long bytes = 0;
+        int workers = 0;
+
+        Job(String profile, int concurrency, long maxBytes, Listener listener) {
+            this.profile = profile;
+            this.concurrency = concurrency;
+            this.maxBytes = maxBytes;
+            this.listener = listener;
+        }
+
+        synchronized void add(String url, boolean document) {
+            if (seen.add(url)) {
+                queue.add(new Request(url, document));
+            }
+        }
+
+        /** Start more workers if there is queued work for them. */
+        void spread() {
+            int start;
+            synchronized (this) {
+                start = Math.min(concurrency - workers, queue.size());
+                workers += start;
+                if (workers == 0) {
+                    // Nothing was queued at all
+                    finish();
+                    return;
+                }
+            }
+            for (int i = 0; i < start; i++) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Request next;
+                synchronized (this) {
+                    next = cancelled || bytes >= maxBytes ? null : queue.poll();
+                    if (next == null) {
+                        if (--workers == 0) {
+                            finish();
+                        }
+                        return;
+                    }
+                }
+                try {
+                    fetch(next);
+                } catch (JSONException e) {
+                    Log.d(LOG_TAG, "Should never happen");
+                }
+            }
+        }
+
+        @SuppressLint("NewApi")
+        private void fetch(Request request) throws JSONException {
+            JSONObject item = new JSONObject();
+            item.put("url", request.url);
+            long read = 0;
+            ByteArrayOutputStream document = null;
+            WebResourceResponse response = cache.load(profile, request.url, requestHeaders(request.document));
+            if (response == null) {
+                // A redirect, or the server could not be reached
+                item.put("status", 0);
+            } else {
+                item.put("status", response.getStatusCode());
+                String mimeType = response.getMimeType();
+                if (request.document && mimeType != null && mimeType.contains("html")) {
+                    document = new ByteArrayOutputStream();
+                }
+                InputStream in = response.getData();
+                byte[] buffer = new byte[8192];
+                try {
+                    int n;
+                    while ((n = in.read(buffer)) >= 0) {
+                        read += n;
+                        if (document != null && document.size() < MAX_DOCUMENT_SCAN) {
+                            document.write(buffer, 0, n);
+                        }
+                        boolean stop;
+                        synchronized (this) {
+                            bytes += n;
+                            stop = cancelled || bytes > maxBytes;
+                        }
+                        if (stop) {
+                            // Closing before the end keeps the partial body out of the cache
+                            document = null;
+                            break;
+                        }
+                    }
+                } catch (IOException e) {
+                    Log.d(LOG_TAG, "Cannot prefetch " + request.url + ": " + e.toString());
+                    document = null;
+                } finally {
+                    try {
+                        in.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+            item.put("bytes", read);
+            item.put("cached", cache.contains(profile, request.url));
+            synchronized (this) {
+                resources.put(item);
+            }
+            if (document != null && response.getStatusCode() == 200) {
+                String html;
+                try {
+                    html = document.toString("UTF-8");
+                } catch (java.io.UnsupportedEncodingException e) {
+                    return;
+                }
+                for (String url : findSubresources(html, request.url)) {
+                    add(url, false);
+                }
+                spread();
+            }
+        }
+
+        /** Called with the job locked, by the last worker to stop. */
+        private void finish() {
+            synchronized (jobs) {
+                jobs.remove(this);
+            }
+            try {
+                JSONObject result = new JSONObject();
+                result.put("type", PREFETCH_EVENT);
+                result.put("cancelled", cancelled);
+                result.put("bytes", bytes);
+                result.put("resources", resources);
+                listener.done(result);
+            } catch (JSONException e) {
+                Log.d(LOG_TAG, "Should never happen");
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.webkit.WebViewClient;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Loads the page the app expects to open next in a WebView that is not shown, so
+ * that open() can show it without waiting for it to load. The page is loaded with
+ * the client the open would use, which tells the Prerender when it has finished
+ * and keeps it from starting other apps.
+ *
+ * There is at most one prerender at a time; a new one replaces the old. It is
+ * dropped if it has not been used within its time to live, or when the system
+ * asks the app to trim memory. All methods except getStats() must be called on
+ * the UI thread.
+ */
+public class Prerenderer implements ComponentCallbacks2 {
+
+    private static final String LOG_TAG = "Prerenderer";
+    public static final int DEFAULT_TTL = 60;
+
+    /**
+     * A page loaded, or still loading, in a WebView that is not shown.
+     */
+    public static class Prerender {
+        public final String url;
+        /** The options string of the open it is for. */
+        public final String options;
+        public final InAppBrowserPool.Entry entry;
+        public final WebViewClient client;
+        // With har=yes, closed if the page is dropped
+        HarRecorder har;
+        long started;
+        long finished = -1;
+        String finalUrl;
+
+        /**
+         * @param url      The page to load.
+         * @param options  The options string of the open that may show it.
+         * @param entry    A WebView set up like the InAppBrowser's, and its dialog.
+         * @param client   The client to load the page with.
+         */
+        Prerender(String url, String options, InAppBrowserPool.Entry entry, WebViewClient client) {
+            this.url = url;
+            this.options = options;
+            this.entry = entry;
+            this.client = client;
+        }
+
+        /**
+         * The page finished loading. Called by the client on the UI thread.
+         *
+         * @param finalUrl  The URL the page ended up on.
+         */
+        void finished(String finalUrl) {
+            this.finished = SystemClock.uptimeMillis();
+            this.finalUrl = finalUrl;
+        }
+
+        /** @return whether the page has finished loading */
+        public boolean isFinished() {
+            return finished >= 0;
+        }
+
+        /** @return the URL the page ended up on, after any redirects */
+        public String getFinalUrl() {
+            return finalUrl != null ? finalUrl : url;
+        }
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private volatile Prerender current;
+
+    private int started = 0;
+    private int hits = 0;
+    private int expired = 0;
+    private int trimmed = 0;
+    private int replaced = 0;
+    private long timeSaved = 0;
+
+    private final Runnable expire = new Runnable() {
+        @Override
+        public void run() {
+            if (drop()) {
+                synchronized (Prerenderer.this) {
+                    expired++;
+                }
+            }
+        }
+    };
+
+    /**
+     * Start loading a page.
+     *
+     * @param prerender   The page, its WebView and client.
+     * @param ttlSeconds  How long to keep the page if open() does not ask for it.
+     */
+    public void start(Prerender prerender, int ttlSeconds) {
+        if (drop()) {
+            synchronized (this) {
+                replaced++;
+            }
+        }
+        prerender.started = SystemClock.uptimeMillis();
+        current = prerender;
+        synchronized (this) {
+            started++;
+        }
+        prerender.entry.webView.setWebViewClient(prerender.client);
+        prerender.entry.webView.loadUrl(prerender.url);
+        handler.removeCallbacks(expire);
+        handler.postDelayed(expire, ttlSeconds * 1000L);
+    }
+
+    /**
+     * Hand over the prerender of a URL, if there is one for the same options.
+     *
+     * @param url      The URL being opened.
+     * @param options  The options string it is opened with.
+     * @return the prerender, which the caller now owns, or null
+     */
+    public Prerender take(String url, String options) {
+        Prerender prerender = current;
+        if (prerender == null || !prerender.url.equals(url) || !prerender.options.equals(options)) {
+            return null;
+        }
+        current = null;
+        handler.removeCallbacks(expire);
+        long saved = (prerender.isFinished() ? prerender.finished : SystemClock.uptimeMillis()) - prerender.started;
+        synchronized (this) {
+            hits++;
+            timeSaved += saved;
+        }
+        return prerender;
+    }
+
+    /**
+     * Drop the prerender, e.g. when the plugin is destroyed.
+     *
+     * @return true if there was one
+     */
+    public boolean drop() {
+        Prerender prerender = current;
+        if (prerender == null) {
+            return false;
+        }
+        current = null;
+        handler.removeCallbacks(expire);
+        InAppBrowserPool.destroy(prerender.entry);
+        if (prerender.har != null) {
+            prerender.har.closeInBackground();
+        }
+        return true;
+    }
+
+    /**
+     * @return {started, hits, hitRate, expired, trimmed, replaced, timeSaved, pending}, with
+     *         timeSaved the total milliseconds of loading the hits did not have to wait for
+     */
+    public synchronized JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("started", started);
+        stats.put("hits", hits);
+        stats.put("hitRate", started == 0 ? 0 : (double) hits / started);
+        stats.put("expired", expired);
+        stats.put("trimmed", trimmed);
+        stats.put("replaced", replaced);
+        stats.put("timeSaved", timeSaved);
+        stats.put("pending", current != null);
+        return stats;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_RUNNING_LOW && drop()) {
+            Log.d(LOG_TAG, "dropped prerender, trim level " + level);
+            synchronized (this) {
+                trimmed++;
+            }
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_RUNNING_CRITICAL);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
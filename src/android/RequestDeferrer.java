@@ -0,0 +1,337 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.annotation.SuppressLint;
+import android.os.SystemClock;
+import android.webkit.WebResourceResponse;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds back the requests of one browser that match the defer option (analytics,
+ * chat widgets, tag managers) until its page is on screen, so they do not compete
+ * with the document and what it needs to render.
+ *
+ * The requests of a page are held from onPageStarted until the page becomes
+ * visible (onPageCommitVisible, API 23 and up), finishes loading, or the
+ * deferdelay runs out, whichever comes first. The WebView does not fire
+ * onPageFinished while requests of the page are outstanding, so without
+ * onPageCommitVisible it is mostly the delay that releases them. Released GET
+ * requests are then loaded by the plugin, at most defermax at a time; other
+ * requests go back to the WebView.
+ *
+ * Holding a request blocks the WebView thread that asked for it, which is why it
+ * is never held for longer than the delay, and why at most MAX_HELD requests are
+ * held at once. The WebView has only a few threads for shouldInterceptRequest;
+ * matching requests beyond that pass through unheld, so the page's own requests
+ * are not queued behind them.
+ */
+public class RequestDeferrer {
+
+    private static final String RELEASED_BY_COMMIT = "commit";
+    private static final String RELEASED_BY_LOAD = "load";
+    private static final String RELEASED_BY_TIMEOUT = "timeout";
+    private static final int MAX_HELD = 2;
+
+    /**
+     * Deferral counts over all browsers, for getMetrics.
+     */
+    public static class Stats {
+        private long pages = 0;
+        private long requests = 0;
+        private long timeouts = 0;
+        private long passed = 0;
+        private final LatencyHistogram held = new LatencyHistogram();
+        private final LatencyHistogram released = new LatencyHistogram();
+
+        synchronized void record(Page page) {
+            if (page.requests == 0) {
+                return;
+            }
+            pages++;
+            requests += page.requests;
+            if (RELEASED_BY_TIMEOUT.equals(page.releasedBy)) {
+                timeouts++;
+            }
+            released.record(page.releasedAt - page.start);
+        }
+
+        synchronized void recordHold(long millis) {
+            held.record(millis);
+        }
+
+        synchronized void recordPassed() {
+            passed++;
+        }
+
+        /**
+         * @return {pages, requests, timeouts, passed, held: {...}, released: {...}}: the
+         *         pages that had requests held, the requests let through because MAX_HELD
+         *         were held already, how long each request was held, and how long after
+         *         the page started its requests were let go
+         */
+        public synchronized JSONObject toJSON() throws JSONException {
+            JSONObject obj = new JSONObject();
+            obj.put("pages", pages);
+            obj.put("requests", requests);
+            obj.put("timeouts", timeouts);
+            obj.put("passed", passed);
+            obj.put("held", held.toJSON());
+            obj.put("released", released.toJSON());
+            return obj;
+        }
+    }
+
+    /**
+     * The requests of one page. Counted under the deferrer's lock, which Stats.record()
+     * is called under too.
+     */
+    static class Page {
+        final long start = SystemClock.uptimeMillis();
+        final CountDownLatch gate = new CountDownLatch(1);
+        int requests = 0;
+        long held = 0;
+        String releasedBy;
+        long releasedAt;
+    }
+
+    private final UrlRuleMatcher rules;
+    private final long delay;
+    private final Semaphore permits;
+    private final Stats stats;
+    private Page page;
+    private int holding = 0;
+
+    /**
+     * @param rules        Which requests to hold, from the defer option.
+     * @param delay        The longest a page's requests are held, in milliseconds.
+     * @param concurrency  How many released requests may load at once.
+     * @param stats        Where to count what was held.
+     */
+    public RequestDeferrer(UrlRuleMatcher rules, long delay, int concurrency, Stats stats) {
+        this.rules = rules;
+        this.delay = delay;
+        this.permits = new Semaphore(Math.max(1, concurrency), true);
+        this.stats = stats;
+    }
+
+    /**
+     * A page started loading; requests from now on are held for it. Releases what
+     * the previous page still held.
+     */
+    public void pageStarted() {
+        Page previous;
+        synchronized (this) {
+            previous = page;
+            page = new Page();
+        }
+        if (previous != null) {
+            release(previous, RELEASED_BY_LOAD);
+        }
+    }
+
+    /**
+     * The page became visible; let its requests go.
+     */
+    public void pageVisible() {
+        Page current;
+        synchronized (this) {
+            current = page;
+        }
+        if (current != null) {
+            release(current, RELEASED_BY_COMMIT);
+        }
+    }
+
+    /**
+     * The page finished loading; let its requests go, and count them.
+     *
+     * @return {requests, held, releasedBy, released} for the loadstop event, or null if
+     *         nothing was held: how many requests were held, for how many milliseconds
+     *         in all, what let them go ("commit", "load" or "timeout") and when, in
+     *         milliseconds since the page started
+     */
+    public JSONObject pageFinished() throws JSONException {
+        Page finished;
+        synchronized (this) {
+            finished = page;
+            page = null;
+        }
+        if (finished == null) {
+            return null;
+        }
+        release(finished, RELEASED_BY_LOAD);
+        JSONObject obj = new JSONObject();
+        synchronized (this) {
+            stats.record(finished);
+            if (finished.requests == 0) {
+                return null;
+            }
+            obj.put("requests", finished.requests);
+            obj.put("held", finished.held);
+            obj.put("releasedBy", finished.releasedBy);
+            obj.put("released", finished.releasedAt - finished.start);
+        }
+        return obj;
+    }
+
+    private void release(Page released, String by) {
+        synchronized (this) {
+            if (released.releasedBy != null) {
+                return;
+            }
+            released.releasedBy = by;
+            released.releasedAt = SystemClock.uptimeMillis();
+        }
+        released.gate.countDown();
+    }
+
+    /**
+     * Hold a request if it matches the defer rules and fewer than MAX_HELD are
+     * held. Called on the WebView's network threads, from shouldInterceptRequest.
+     *
+     * @param url             The request URL.
+     * @param method          The request method.
+     * @param requestHeaders  The headers the WebView would have sent.
+     * @param load            Whether to load a released GET request, or leave that to
+     *                        the caller, e.g. the ResourceCache.
+     * @return the response, or null to let the WebView, or the caller, load the URL
+     */
+    public WebResourceResponse intercept(String url, String method, Map<String, String> requestHeaders, boolean load) {
+        if (!rules.matches(url)) {
+            return null;
+        }
+        Page current;
+        synchronized (this) {
+            current = page;
+            if (current == null || current.releasedBy != null) {
+                return null;
+            }
+            if (holding >= MAX_HELD) {
+                stats.recordPassed();
+                return null;
+            }
+            holding++;
+            current.requests++;
+        }
+        long start = SystemClock.uptimeMillis();
+        long trace = InAppBrowserTrace.begin("deferRequest");
+        boolean interrupted = false;
+        try {
+            long remaining = current.start + delay - start;
+            if (remaining <= 0 || !current.gate.await(remaining, TimeUnit.MILLISECONDS)) {
+                release(current, RELEASED_BY_TIMEOUT);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            interrupted = true;
+        } finally {
+            InAppBrowserTrace.end("deferRequest", trace);
+        }
+        long held = SystemClock.uptimeMillis() - start;
+        synchronized (this) {
+            holding--;
+            current.held += held;
+        }
+        stats.recordHold(held);
+        if (interrupted) {
+            return null;
+        }
+        if (!load || !"GET".equals(method)) {
+            return null;
+        }
+        return fetch(url, requestHeaders);
+    }
+
+    /**
+     * Load a released request once fewer than the concurrency limit are loading.
+     * The permit is returned when the WebView has read or closed the body.
+     */
+    @SuppressLint("NewApi")
+    private WebResourceResponse fetch(String url, Map<String, String> requestHeaders) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        WebResourceResponse response = ResourceCache.fetch(url, requestHeaders);
+        if (response == null) {
+            permits.release();
+            return null;
+        }
+        response.setData(new PermitInputStream(response.getData()));
+        return response;
+    }
+
+    /**
+     * Returns its permit at the end of the body, or when closed.
+     */
+    private class PermitInputStream extends FilterInputStream {
+        private final AtomicBoolean held = new AtomicBoolean(true);
+
+        PermitInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                releasePermit();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read < 0) {
+                releasePermit();
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                releasePermit();
+            }
+        }
+
+        private void releasePermit() {
+            if (held.compareAndSet(true, false)) {
+                permits.release();
+            }
+        }
+    }
+}
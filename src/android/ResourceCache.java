@@ -0,0 +1,865 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.annotation.SuppressLint;
+import android.util.Log;
+import android.webkit.CookieManager;
+import android.webkit.WebResourceResponse;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An on-disk cache of subresources (scripts, style sheets, images, ...) for the
+ * InAppBrowser, consulted from shouldInterceptRequest for the origins a browser
+ * was opened with in its cacheorigins option.
+ *
+ * Responses are stored if they are 200s without Set-Cookie, are not marked
+ * no-store or private, and are either fresh for a while or can be revalidated
+ * with an ETag or Last-Modified date. Fresh entries are served from disk. Stale
+ * entries inside their stale-while-revalidate window are served from disk while
+ * they are revalidated in the background; older ones are revalidated before
+ * they are served.
+ *
+ * Each response lives in its own file. The index is a memory-mapped file of
+ * fixed-size slots (URL hash, last use, freshness, size), so finding an entry,
+ * checking its freshness and updating its last use never reads the entry file.
+ * When the cache is over its size, the least recently used entries are removed.
+ *
+ * Entries are kept per browsing profile (the profile option): a response stored
+ * for one profile is never served to another.
+ */
+public class ResourceCache {
+
+    private static final String LOG_TAG = "ResourceCache";
+
+    private static final String INDEX_FILE = "index";
+    private static final String ENTRY_SUFFIX = ".entry";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int INDEX_MAGIC = 0x49414231;
+    private static final int ENTRY_MAGIC = 0x49414245;
+    private static final int SLOTS = 2048;
+    private static final int HEADER_SIZE = 8;
+    private static final int SLOT_SIZE = 40;
+    private static final int INDEX_SIZE = HEADER_SIZE + SLOTS * SLOT_SIZE;
+
+    // Offsets within a slot
+    private static final int SLOT_HASH = 0;
+    private static final int SLOT_LAST_USED = 8;
+    private static final int SLOT_FRESH_UNTIL = 16;
+    private static final int SLOT_STALE_UNTIL = 24;
+    private static final int SLOT_BYTES = 32;
+
+    private static final int CONNECT_TIMEOUT = 15000;
+    private static final int READ_TIMEOUT = 30000;
+    // Cap on the freshness guessed from Last-Modified, like browsers do
+    private static final long MAX_HEURISTIC_LIFETIME = 24 * 60 * 60 * 1000L;
+
+    private final File dir;
+    private final long maxBytes;
+    private final Executor executor;
+    private final MappedByteBuffer index;
+    private final HashMap<Long, Integer> slots = new HashMap<Long, Integer>();
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<Integer>();
+    private final HashSet<Long> revalidating = new HashSet<Long>();
+    // Numbers the temp files, as one URL can be downloading more than once at a time
+    private final AtomicLong tempFiles = new AtomicLong();
+    private long totalBytes = 0;
+
+    private long hits = 0;
+    private long staleHits = 0;
+    private long revalidated = 0;
+    private long misses = 0;
+    private long stored = 0;
+    private long evicted = 0;
+    private long bytesSaved = 0;
+
+    /**
+     * Open the cache in a directory, creating it if needed.
+     *
+     * @param dir       An app-private directory for the cache alone.
+     * @param maxBytes  How much disk space the entries may take.
+     * @param executor  Runs background revalidations.
+     * @return ResourceCache, or null if the directory cannot be used
+     */
+    public static ResourceCache open(File dir, long maxBytes, Executor executor) {
+        try {
+            return new ResourceCache(dir, maxBytes, executor);
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Cannot open cache in " + dir + ": " + e.toString());
+            return null;
+        }
+    }
+
+    private ResourceCache(File dir, long maxBytes, Executor executor) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.executor = executor;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File indexFile = new File(dir, INDEX_FILE);
+        RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+        try {
+            file.setLength(INDEX_SIZE);
+            // The mapping stays valid after the file is closed
+            index = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, INDEX_SIZE);
+        } finally {
+            file.close();
+        }
+        if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != SLOTS) {
+            for (int i = 0; i < INDEX_SIZE; i += 8) {
+                index.putLong(i, 0);
+            }
+            index.putInt(0, INDEX_MAGIC);
+            index.putInt(4, SLOTS);
+        }
+        HashSet<String> known = new HashSet<String>();
+        known.add(INDEX_FILE);
+        for (int slot = 0; slot < SLOTS; slot++) {
+            long hash = index.getLong(offset(slot) + SLOT_HASH);
+            File entry = entryFile(hash);
+            if (hash != 0 && entry.isFile()) {
+                slots.put(hash, slot);
+                totalBytes += index.getLong(offset(slot) + SLOT_BYTES);
+                known.add(entry.getName());
+            } else {
+                index.putLong(offset(slot) + SLOT_HASH, 0);
+                freeSlots.add(slot);
+            }
+        }
+        // Left behind by a crash, or by entries the index lost
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (!known.contains(f.getName())) {
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Answer a GET request from the cache, fetching and storing it if needed.
+     * Called on the WebView's network threads.
+     *
+     * @param profile         The browsing profile, or null for the default one.
+     * @param url             The http(s) URL requested.
+     * @param requestHeaders  The headers the WebView would have sent.
+     * @return the response, or null to let the WebView load the URL itself
+     */
+    public WebResourceResponse load(String profile, String url, Map<String, String> requestHeaders) {
+        return load(key(profile, url), url, requestHeaders, false);
+    }
+
+    /**
+     * Answer a GET request from the cache if it holds a response that may be used
+     * without asking the server first, without going to the network otherwise.
+     *
+     * @param profile         The browsing profile, or null for the default one.
+     * @param url             The http(s) URL requested.
+     * @param requestHeaders  The headers the WebView would have sent.
+     * @return the response, or null to let the WebView load the URL itself
+     */
+    public WebResourceResponse lookup(String profile, String url, Map<String, String> requestHeaders) {
+        return load(key(profile, url), url, requestHeaders, true);
+    }
+
+    /**
+     * Load a GET request the way load() does on a miss, without the cache: with the
+     * WebView's cookies, handing cookies the response sets back to it. For requests
+     * the plugin takes over from the WebView for other reasons than caching.
+     *
+     * @param url             The http(s) URL requested.
+     * @param requestHeaders  The headers the WebView would have sent.
+     * @return the response, or null to let the WebView load the URL itself, e.g. for a redirect
+     */
+    static WebResourceResponse fetch(String url, Map<String, String> requestHeaders) {
+        HttpURLConnection connection = null;
+        try {
+            connection = connect(url, requestHeaders, null);
+            int status = connection.getResponseCode();
+            storeCookies(url, connection);
+            if (status < 200 || (status >= 300 && status < 400)) {
+                connection.disconnect();
+                return null;
+            }
+            Entry response = new Entry(url, connection);
+            InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            response.body = body != null ? body : new ByteArrayInputStream(new byte[0]);
+            return response.toResponse();
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Cannot load " + url + ": " + e.toString());
+            if (connection != null) {
+                connection.disconnect();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param profile  The browsing profile, or null for the default one.
+     * @param url      An http(s) URL.
+     * @return whether a response for the URL is stored for the profile, fresh or not
+     */
+    public synchronized boolean contains(String profile, String url) {
+        return slots.containsKey(key(profile, url));
+    }
+
+    private WebResourceResponse load(long hash, String url, Map<String, String> requestHeaders, boolean onlyIfCached) {
+        long now = System.currentTimeMillis();
+        long freshUntil = 0;
+        long staleUntil = 0;
+        boolean found;
+        synchronized (this) {
+            Integer slot = slots.get(hash);
+            found = slot != null;
+            if (found) {
+                freshUntil = index.getLong(offset(slot) + SLOT_FRESH_UNTIL);
+                staleUntil = index.getLong(offset(slot) + SLOT_STALE_UNTIL);
+            }
+        }
+        Entry cached = found ? readEntry(hash, url) : null;
+        if (cached != null && now < staleUntil) {
+            boolean fresh = now < freshUntil;
+            synchronized (this) {
+                if (fresh) {
+                    hits++;
+                } else {
+                    staleHits++;
+                }
+                bytesSaved += cached.bytes;
+                touch(hash, now);
+            }
+            if (!fresh) {
+                revalidateInBackground(hash, url, requestHeaders, cached.headers);
+            }
+            return cached.toResponse();
+        }
+        if (onlyIfCached) {
+            if (cached != null) {
+                cached.close();
+            }
+            return null;
+        }
+
+        HttpURLConnection connection = null;
+        try {
+            connection = connect(url, requestHeaders, cached == null ? null : cached.headers);
+            int status = connection.getResponseCode();
+            storeCookies(url, connection);
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                connection.disconnect();
+                refresh(hash, connection, now);
+                synchronized (this) {
+                    revalidated++;
+                    bytesSaved += cached.bytes;
+                }
+                return cached.toResponse();
+            }
+            if (cached != null) {
+                cached.close();
+                cached = null;
+            }
+            // WebResourceResponse cannot describe a redirect; let the WebView follow it
+            if (status < 200 || (status >= 300 && status < 400)) {
+                connection.disconnect();
+                return null;
+            }
+            synchronized (this) {
+                misses++;
+            }
+            Entry response = new Entry(url, connection);
+            InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            if (body == null) {
+                body = new ByteArrayInputStream(new byte[0]);
+            }
+            long[] freshness = isStorable(status, connection, requestHeaders) ? freshness(connection, now) : null;
+            if (freshness != null) {
+                body = new StoringInputStream(body, hash, response, freshness[0], freshness[1]);
+            } else if (found) {
+                remove(hash);
+            }
+            response.body = body;
+            return response.toResponse();
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Cannot load " + url + ": " + e.toString());
+            if (cached != null) {
+                cached.close();
+            }
+            if (connection != null) {
+                connection.disconnect();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return {entries, size, maxSize, hits, staleHits, revalidated, misses, stored, evicted, bytesSaved}
+     */
+    public synchronized JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("entries", slots.size());
+        stats.put("size", totalBytes);
+        stats.put("maxSize", maxBytes);
+        stats.put("hits", hits);
+        stats.put("staleHits", staleHits);
+        stats.put("revalidated", revalidated);
+        stats.put("misses", misses);
+        stats.put("stored", stored);
+        stats.put("evicted", evicted);
+        stats.put("bytesSaved", bytesSaved);
+        return stats;
+    }
+
+    private void revalidateInBackground(final long hash, final String url, final Map<String, String> requestHeaders,
+                                        final Map<String, String> cachedHeaders) {
+        synchronized (this) {
+            if (!revalidating.add(hash)) {
+                return;
+            }
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                HttpURLConnection connection = null;
+                try {
+                    long now = System.currentTimeMillis();
+                    connection = connect(url, requestHeaders, cachedHeaders);
+                    int status = connection.getResponseCode();
+                    storeCookies(url, connection);
+                    long[] freshness = isStorable(status, connection, requestHeaders) ? freshness(connection, now) : null;
+                    if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                        refresh(hash, connection, now);
+                    } else if (freshness != null) {
+                        InputStream in = new StoringInputStream(connection.getInputStream(), hash,
+                                new Entry(url, connection), freshness[0], freshness[1]);
+                        byte[] buffer = new byte[8192];
+                        while (in.read(buffer) >= 0) {
+                        }
+                        in.close();
+                    } else if (status < 500) {
+                        // Keep serving the stored copy through server errors
+                        remove(hash);
+                    }
+                } catch (IOException e) {
+                    Log.d(LOG_TAG, "Cannot revalidate " + url + ": " + e.toString());
+                } finally {
+                    if (connection != null) {
+                        connection.disconnect();
+                    }
+                    synchronized (ResourceCache.this) {
+                        revalidating.remove(hash);
+                    }
+                }
+            }
+        });
+    }
+
+    static HttpURLConnection connect(String url, Map<String, String> requestHeaders,
+                                             Map<String, String> cachedHeaders) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setInstanceFollowRedirects(false);
+        connection.setUseCaches(false);
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        if (requestHeaders != null) {
+            for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        String cookies = CookieManager.getInstance().getCookie(url);
+        if (cookies != null) {
+            connection.setRequestProperty("Cookie", cookies);
+        }
+        if (cachedHeaders != null) {
+            String etag = header(cachedHeaders, "ETag");
+            String lastModified = header(cachedHeaders, "Last-Modified");
+            if (etag != null) {
+                connection.setRequestProperty("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * The response is consumed here instead of by the WebView, so hand its cookies
+     * to the WebView's cookie store ourselves.
+     */
+    static void storeCookies(String url, HttpURLConnection connection) {
+        Map<String, List<String>> fields = connection.getHeaderFields();
+        for (Map.Entry<String, List<String>> field : fields.entrySet()) {
+            if (field.getKey() != null && field.getKey().equalsIgnoreCase("Set-Cookie")) {
+                for (String cookie : field.getValue()) {
+                    CookieManager.getInstance().setCookie(url, cookie);
+                }
+            }
+        }
+    }
+
+    private static boolean isStorable(int status, HttpURLConnection connection, Map<String, String> requestHeaders) {
+        if (status != HttpURLConnection.HTTP_OK || connection.getHeaderField("Set-Cookie") != null) {
+            return false;
+        }
+        if (requestHeaders != null && header(requestHeaders, "Authorization") != null) {
+            return false;
+        }
+        // The body is stored decoded, so varying on Accept-Encoding does not matter
+        String vary = connection.getHeaderField("Vary");
+        return vary == null || vary.trim().equalsIgnoreCase("Accept-Encoding");
+    }
+
+    /**
+     * Work out how long a response may be served without asking the server.
+     *
+     * @return {fresh until, stale until} in milliseconds since the epoch, or null if
+     *         the response must not be stored
+     */
+    private static long[] freshness(HttpURLConnection connection, long now) {
+        long maxAge = -1;
+        long staleWhileRevalidate = 0;
+        boolean noCache = false;
+        boolean mustRevalidate = false;
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.toLowerCase(Locale.US).split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-store") || directive.equals("private")) {
+                    return null;
+                } else if (directive.equals("no-cache")) {
+                    noCache = true;
+                } else if (directive.equals("must-revalidate") || directive.equals("proxy-revalidate")) {
+                    mustRevalidate = true;
+                } else if (directive.startsWith("max-age=")) {
+                    maxAge = seconds(directive.substring(8));
+                } else if (directive.startsWith("stale-while-revalidate=")) {
+                    staleWhileRevalidate = Math.max(0, seconds(directive.substring(23)));
+                }
+            }
+        }
+        long date = connection.getDate() > 0 ? connection.getDate() : now;
+        long lastModified = connection.getLastModified();
+        long lifetime;
+        if (noCache) {
+            lifetime = 0;
+        } else if (maxAge >= 0) {
+            lifetime = maxAge * 1000 - Math.max(0, connection.getHeaderFieldInt("Age", 0)) * 1000L;
+        } else if (connection.getExpiration() > 0) {
+            lifetime = connection.getExpiration() - date;
+        } else if (lastModified > 0 && lastModified < date) {
+            lifetime = Math.min((date - lastModified) / 10, MAX_HEURISTIC_LIFETIME);
+        } else {
+            lifetime = 0;
+        }
+        lifetime = Math.max(0, lifetime);
+        boolean canRevalidate = connection.getHeaderField("ETag") != null || connection.getHeaderField("Last-Modified") != null;
+        if (lifetime == 0 && !canRevalidate) {
+            return null;
+        }
+        long freshUntil = now + lifetime;
+        long staleUntil = mustRevalidate || noCache ? freshUntil : freshUntil + staleWhileRevalidate * 1000;
+        return new long[] { freshUntil, staleUntil };
+    }
+
+    private static long seconds(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A 304 came back: the stored response is good for another freshness lifetime.
+     */
+    private void refresh(long hash, HttpURLConnection connection, long now) {
+        long[] freshness = freshness(connection, now);
+        synchronized (this) {
+            Integer slot = slots.get(hash);
+            if (slot == null) {
+                return;
+            }
+            int offset = offset(slot);
+            index.putLong(offset + SLOT_LAST_USED, now);
+            index.putLong(offset + SLOT_FRESH_UNTIL, freshness == null ? now : freshness[0]);
+            index.putLong(offset + SLOT_STALE_UNTIL, freshness == null ? now : freshness[1]);
+        }
+    }
+
+    private void touch(long hash, long now) {
+        Integer slot = slots.get(hash);
+        if (slot != null) {
+            index.putLong(offset(slot) + SLOT_LAST_USED, now);
+        }
+    }
+
+    private synchronized void remove(long hash) {
+        Integer slot = slots.remove(hash);
+        if (slot != null) {
+            release(slot, hash);
+        }
+    }
+
+    private void release(int slot, long hash) {
+        totalBytes -= index.getLong(offset(slot) + SLOT_BYTES);
+        index.putLong(offset(slot) + SLOT_HASH, 0);
+        freeSlots.add(slot);
+        entryFile(hash).delete();
+    }
+
+    /**
+     * Move a completely written temp file into the cache, making room for it first.
+     */
+    private synchronized void commit(long hash, File temp, long freshUntil, long staleUntil) {
+        long bytes = temp.length();
+        remove(hash);
+        if (bytes > maxBytes) {
+            temp.delete();
+            return;
+        }
+        while (!slots.isEmpty() && (freeSlots.isEmpty() || totalBytes + bytes > maxBytes)) {
+            long oldestHash = 0;
+            int oldestSlot = -1;
+            long oldestUse = Long.MAX_VALUE;
+            for (Map.Entry<Long, Integer> entry : slots.entrySet()) {
+                long lastUsed = index.getLong(offset(entry.getValue()) + SLOT_LAST_USED);
+                if (lastUsed < oldestUse) {
+                    oldestUse = lastUsed;
+                    oldestHash = entry.getKey();
+                    oldestSlot = entry.getValue();
+                }
+            }
+            slots.remove(oldestHash);
+            release(oldestSlot, oldestHash);
+            evicted++;
+        }
+        if (!temp.renameTo(entryFile(hash))) {
+            temp.delete();
+            return;
+        }
+        int slot = freeSlots.poll();
+        int offset = offset(slot);
+        index.putLong(offset + SLOT_HASH, hash);
+        index.putLong(offset + SLOT_LAST_USED, System.currentTimeMillis());
+        index.putLong(offset + SLOT_FRESH_UNTIL, freshUntil);
+        index.putLong(offset + SLOT_STALE_UNTIL, staleUntil);
+        index.putLong(offset + SLOT_BYTES, bytes);
+        slots.put(hash, slot);
+        totalBytes += bytes;
+        stored++;
+    }
+
+    private Entry readEntry(long hash, String url) {
+        File file = entryFile(hash);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            Entry entry = Entry.read(in, url);
+            if (entry == null) {
+                // A different URL with the same hash
+                in.close();
+                return null;
+            }
+            entry.bytes = file.length();
+            return entry;
+        } catch (IOException e) {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+            remove(hash);
+            return null;
+        }
+    }
+
+    private File entryFile(long hash) {
+        return new File(dir, Long.toHexString(hash) + ENTRY_SUFFIX);
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    /**
+     * The index key of a URL in a profile. The default profile's keys are the
+     * URL hashes the cache has always used.
+     */
+    static long key(String profile, String url) {
+        return hash(profile == null ? url : profile + '\n' + url);
+    }
+
+    /**
+     * 64-bit FNV-1a of the URL. 0 marks an empty slot, so it is never returned.
+     */
+    static long hash(String url) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash ^= url.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static String header(Map<String, String> headers, String name) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A response: its status line and headers, and a stream positioned at its body.
+     * Also the format of the NetworkArchive.
+     */
+    static class Entry {
+        final String url;
+        int status;
+        String reason;
+        String mimeType;
+        String encoding;
+        final Map<String, String> headers = new HashMap<String, String>();
+        InputStream body;
+        long bytes;
+
+        /** Read from an entry file, after its magic number and URL. */
+        Entry(String url, DataInputStream in) throws IOException {
+            this.url = url;
+            status = in.readInt();
+            reason = in.readUTF();
+            mimeType = in.readUTF();
+            encoding = in.readUTF();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                headers.put(in.readUTF(), in.readUTF());
+            }
+            body = in;
+        }
+
+        /** Taken from a response, leaving out headers that describe the connection or set state. */
+        Entry(String url, HttpURLConnection connection) throws IOException {
+            this.url = url;
+            status = connection.getResponseCode();
+            reason = connection.getResponseMessage();
+            if (reason == null || reason.length() == 0) {
+                reason = status < 400 ? "OK" : "Error";
+            }
+            String contentType = connection.getContentType();
+            mimeType = "";
+            encoding = "";
+            if (contentType != null) {
+                int semicolon = contentType.indexOf(';');
+                mimeType = (semicolon < 0 ? contentType : contentType.substring(0, semicolon)).trim();
+                int charset = contentType.toLowerCase(Locale.US).indexOf("charset=");
+                if (charset >= 0) {
+                    encoding = contentType.substring(charset + 8).replace("\"", "").trim();
+                }
+            }
+            for (Map.Entry<String, List<String>> field : connection.getHeaderFields().entrySet()) {
+                String name = field.getKey();
+                if (name == null || isHopByHop(name)) {
+                    continue;
+                }
+                StringBuilder value = new StringBuilder();
+                for (String v : field.getValue()) {
+                    if (value.length() > 0) {
+                        value.append(", ");
+                    }
+                    value.append(v);
+                }
+                headers.put(name, value.toString());
+            }
+        }
+
+        private static boolean isHopByHop(String name) {
+            String lower = name.toLowerCase(Locale.US);
+            return lower.equals("set-cookie") || lower.equals("set-cookie2") || lower.equals("content-encoding")
+                    || lower.equals("content-length") || lower.equals("transfer-encoding") || lower.equals("connection")
+                    || lower.equals("keep-alive") || lower.startsWith("x-android-");
+        }
+
+        /**
+         * Read what writeHeader() wrote.
+         *
+         * @return the entry, with the stream as its body, or null if the stream does
+         *         not hold an entry for the URL
+         */
+        static Entry read(DataInputStream in, String url) throws IOException {
+            if (in.readInt() != ENTRY_MAGIC || !in.readUTF().equals(url)) {
+                return null;
+            }
+            return new Entry(url, in);
+        }
+
+        void writeHeader(DataOutputStream out) throws IOException {
+            out.writeInt(ENTRY_MAGIC);
+            out.writeUTF(url);
+            out.writeInt(status);
+            out.writeUTF(reason);
+            out.writeUTF(mimeType);
+            out.writeUTF(encoding);
+            out.writeInt(headers.size());
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                out.writeUTF(header.getKey());
+                out.writeUTF(header.getValue());
+            }
+        }
+
+        @SuppressLint("NewApi")
+        WebResourceResponse toResponse() {
+            return new WebResourceResponse(mimeType.length() == 0 ? null : mimeType,
+                    encoding.length() == 0 ? null : encoding, status, reason, headers, body);
+        }
+
+        void close() {
+            try {
+                body.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Passes a response body to the WebView while writing it to a temp file, which
+     * becomes the entry once the body has been read to the end. A body that is not
+     * read to the end, or that grows past an eighth of the cache, is not stored.
+     */
+    private class StoringInputStream extends FilterInputStream {
+        private final long hash;
+        private final long freshUntil;
+        private final long staleUntil;
+        private final File temp;
+        private DataOutputStream out;
+        private long written = 0;
+
+        StoringInputStream(InputStream in, long hash, Entry response, long freshUntil, long staleUntil) {
+            super(in);
+            this.hash = hash;
+            this.freshUntil = freshUntil;
+            this.staleUntil = staleUntil;
+            this.temp = new File(dir, Long.toHexString(hash) + "-" + tempFiles.incrementAndGet() + TEMP_SUFFIX);
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+                response.writeHeader(out);
+            } catch (IOException e) {
+                abandon();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                finish();
+            } else {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int n = super.read(buffer, offset, count);
+            if (n < 0) {
+                finish();
+            } else {
+                write(buffer, offset, n);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            abandon();
+            super.close();
+        }
+
+        private void write(byte[] buffer, int offset, int count) {
+            if (out == null) {
+                return;
+            }
+            written += count;
+            if (written > maxBytes / 8) {
+                abandon();
+                return;
+            }
+            try {
+                out.write(buffer, offset, count);
+            } catch (IOException e) {
+                abandon();
+            }
+        }
+
+        private void finish() {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.close();
+                out = null;
+                commit(hash, temp, freshUntil, staleUntil);
+            } catch (IOException e) {
+                abandon();
+            }
+        }
+
+        private void abandon() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+                out = null;
+            }
+            temp.delete();
+        }
+    }
+}
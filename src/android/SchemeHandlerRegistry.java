@@ -0,0 +1,218 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.net.Uri;
+import android.webkit.WebView;
+
+import org.apache.cordova.LOG;
+
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Maps URL schemes which the InAppBrowser should not load itself (tel:, sms:, ...)
+ * to the code that hands them to another app.
+ *
+ * Apps can add their own schemes through InAppBrowser.getSchemeHandlers(), for
+ * example:
+ *
+ *   inAppBrowser.getSchemeHandlers().register("intent", new SchemeHandlerRegistry.IntentHandler());
+ */
+public class SchemeHandlerRegistry {
+
+    private static final String LOG_TAG = "SchemeHandlerRegistry";
+
+    /**
+     * Handles URLs of one scheme.
+     */
+    public interface Handler {
+        /**
+         * @param activity  The Cordova activity, for starting other apps.
+         * @param view      The InAppBrowser WebView, or null if there is none.
+         * @param url       The URL to handle.
+         * @return true if the URL was handled and must not be loaded
+         */
+        boolean handle(Activity activity, WebView view, String url);
+    }
+
+    private final HashMap<String, Handler> handlers = new HashMap<String, Handler>();
+
+    /**
+     * A registry with handlers for tel:, sms:, geo:, mailto: and market: URLs.
+     *
+     * @return SchemeHandlerRegistry
+     */
+    public static SchemeHandlerRegistry createDefault() {
+        SchemeHandlerRegistry registry = new SchemeHandlerRegistry();
+        registry.register("tel", new DialHandler());
+        registry.register("sms", new SmsHandler());
+        registry.register("geo", new ViewHandler());
+        registry.register("mailto", new ViewHandler());
+        registry.register("market", new ViewHandler());
+        return registry;
+    }
+
+    /**
+     * Add or replace the handler for a scheme.
+     *
+     * @param scheme   The scheme, without the ':'.
+     * @param handler  The handler to use.
+     */
+    public synchronized void register(String scheme, Handler handler) {
+        handlers.put(scheme.toLowerCase(Locale.US), handler);
+    }
+
+    /**
+     * Remove the handler for a scheme, so its URLs are loaded normally.
+     *
+     * @param scheme   The scheme, without the ':'.
+     */
+    public synchronized void unregister(String scheme) {
+        handlers.remove(scheme.toLowerCase(Locale.US));
+    }
+
+    /**
+     * Pass the URL to the handler registered for its scheme, if there is one.
+     *
+     * @param activity  The Cordova activity.
+     * @param view      The InAppBrowser WebView, or null if there is none.
+     * @param url       The URL being navigated to.
+     * @return true if a handler took the URL
+     */
+    public boolean dispatch(Activity activity, WebView view, String url) {
+        int colon = url.indexOf(':');
+        if (colon <= 0) {
+            return false;
+        }
+        Handler handler;
+        synchronized (this) {
+            if (handlers.isEmpty()) {
+                return false;
+            }
+            handler = handlers.get(url.substring(0, colon).toLowerCase(Locale.US));
+        }
+        return handler != null && handler.handle(activity, view, url);
+    }
+
+    /**
+     * Opens the dialer, e.g. for tel:5551212
+     */
+    public static class DialHandler implements Handler {
+        public boolean handle(Activity activity, WebView view, String url) {
+            try {
+                Intent intent = new Intent(Intent.ACTION_DIAL);
+                intent.setData(Uri.parse(url));
+                activity.startActivity(intent);
+            } catch (android.content.ActivityNotFoundException e) {
+                LOG.e(LOG_TAG, "Error dialing " + url + ": " + e.toString());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Opens whichever app views the URL, e.g. for geo:, mailto: and market:
+     */
+    public static class ViewHandler implements Handler {
+        public boolean handle(Activity activity, WebView view, String url) {
+            try {
+                Intent intent = new Intent(Intent.ACTION_VIEW);
+                intent.setData(Uri.parse(url));
+                activity.startActivity(intent);
+            } catch (android.content.ActivityNotFoundException e) {
+                LOG.e(LOG_TAG, "Error with " + url + ": " + e.toString());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Opens the messaging app, e.g. for sms:5551212?body=This is the message
+     */
+    public static class SmsHandler implements Handler {
+        public boolean handle(Activity activity, WebView view, String url) {
+            try {
+                Intent intent = new Intent(Intent.ACTION_VIEW);
+
+                // Get address
+                String address = null;
+                int parmIndex = url.indexOf('?');
+                if (parmIndex == -1) {
+                    address = url.substring(4);
+                }
+                else {
+                    address = url.substring(4, parmIndex);
+
+                    // If body, then set sms body
+                    Uri uri = Uri.parse(url);
+                    String query = uri.getQuery();
+                    if (query != null) {
+                        if (query.startsWith("body=")) {
+                            intent.putExtra("sms_body", query.substring(5));
+                        }
+                    }
+                }
+                intent.setData(Uri.parse("sms:" + address));
+                intent.putExtra("address", address);
+                intent.setType("vnd.android-dir/mms-sms");
+                activity.startActivity(intent);
+            } catch (android.content.ActivityNotFoundException e) {
+                LOG.e(LOG_TAG, "Error sending sms " + url + ":" + e.toString());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Starts the activity described by an intent: URL, the way Chrome does. The
+     * intent is limited to browsable activities, and if no app can handle it the
+     * S.browser_fallback_url extra is loaded instead. Not registered by default.
+     */
+    public static class IntentHandler implements Handler {
+        public boolean handle(Activity activity, WebView view, String url) {
+            Intent intent;
+            try {
+                intent = Intent.parseUri(url, Intent.URI_INTENT_SCHEME);
+            } catch (URISyntaxException e) {
+                LOG.e(LOG_TAG, "Bad intent URL " + url + ": " + e.toString());
+                return true;
+            }
+            // Don't let web content start arbitrary components
+            intent.addCategory(Intent.CATEGORY_BROWSABLE);
+            intent.setComponent(null);
+            intent.setSelector(null);
+            try {
+                activity.startActivity(intent);
+            } catch (android.content.ActivityNotFoundException e) {
+                String fallback = intent.getStringExtra("browser_fallback_url");
+                if (fallback != null && view != null
+                        && (fallback.startsWith("http:") || fallback.startsWith("https:"))) {
+                    view.loadUrl(fallback);
+                } else {
+                    LOG.e(LOG_TAG, "Error with " + url + ": " + e.toString());
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+/**
+ * Quotes the source of the inject{Script|Style}{Code|File} actions into their
+ * JavaScript wrappers. Kept apart from InAppBrowser so that it can be measured
+ * without a device.
+ */
+public final class ScriptQuoting {
+
+    private ScriptQuoting() {
+    }
+
+    /**
+     * Put source into the wrapper's %s as a quoted JavaScript string. Does what
+     * String.format(jsWrapper, JSONArray-escaped source) did, in one pass into a
+     * single builder, since the source can be a script of a megabyte or more.
+     * U+2028 and U+2029 are escaped too, as they end a line in a JavaScript string.
+     *
+     * @param jsWrapper  JavaScript with one %s, and no other format specifiers.
+     * @param source     The string to quote.
+     * @return the wrapped script
+     */
+    public static String wrap(String jsWrapper, String source) {
+        int at = jsWrapper.indexOf("%s");
+        if (at < 0) {
+            return jsWrapper;
+        }
+        int length = source.length();
+        StringBuilder sb = new StringBuilder(jsWrapper.length() + length + (length >> 4) + 2);
+        sb.append(jsWrapper, 0, at).append('"');
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = source.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '/' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+            sb.append(source, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    sb.append('\\').append(c);
+                    break;
+                case '\b':
+                    sb.append("\\b");
+                    break;
+                case '\f':
+                    sb.append("\\f");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    sb.append("\\u");
+                    String hex = Integer.toHexString(c);
+                    for (int pad = hex.length(); pad < 4; pad++) {
+                        sb.append('0');
+                    }
+                    sb.append(hex);
+                    break;
+            }
+        }
+        sb.append(source, start, length).append('"');
+        sb.append(jsWrapper, at + 2, jsWrapper.length());
+        return sb.toString();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.os.Build;
+import android.webkit.JavascriptInterface;
+import android.webkit.WebView;
+
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Carries executeScript/insertCSS results from the InAppBrowser page back to
+ * JavaScript without going through prompt().
+ *
+ * The object is added to the InAppBrowser WebView as a JavascriptInterface.
+ * Every injected script that wants its result sent back gets a single-use random
+ * token, mapped here to its callback id, so the page cannot trigger callbacks it
+ * was not given a token for. post() only queues the message and returns, so the
+ * page's JavaScript is not held up while the result is parsed on a background
+ * thread.
+ *
+ * Before API 17 every public method of an interface object is reachable from
+ * JavaScript, so on those versions the prompt() bridge in InAppChromeClient is
+ * used instead.
+ */
+public class ScriptResultBridge {
+
+    public static final String JS_NAME = "_cordovaIabResult";
+    private static final int TOKEN_BYTES = 16;
+
+    private final CordovaWebView webView;
+    private final Executor executor;
+    private final SecureRandom random = new SecureRandom();
+    private final HashMap<String, String> callbacks = new HashMap<String, String>();
+
+    public ScriptResultBridge(CordovaWebView webView, Executor executor) {
+        this.webView = webView;
+        this.executor = executor;
+    }
+
+    /**
+     * Is it safe to use a JavascriptInterface on this version of Android?
+     *
+     * @return boolean
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1;
+    }
+
+    /**
+     * Make the bridge available to the pages the WebView loads from now on.
+     *
+     * @param view  The InAppBrowser WebView, before it loads its first page.
+     */
+    public void attach(WebView view) {
+        view.addJavascriptInterface(this, JS_NAME);
+    }
+
+    /**
+     * Hand out a token for one result.
+     *
+     * @param callbackId       The callback to send the result to.
+     * @param valueExpression  JavaScript expression for the JSON-encoded result.
+     * @return a JavaScript statement which sends valueExpression back to the callback
+     */
+    public String register(String callbackId, String valueExpression) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(TOKEN_BYTES * 2);
+        for (byte b : bytes) {
+            token.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        synchronized (callbacks) {
+            callbacks.put(token.toString(), callbackId);
+        }
+        return "window." + JS_NAME + ".post('" + token + "', " + valueExpression + ")";
+    }
+
+    /**
+     * Forget every outstanding token, e.g. when the browser closes.
+     */
+    public void clear() {
+        synchronized (callbacks) {
+            callbacks.clear();
+        }
+    }
+
+    /**
+     * Called by the page, on the WebView's JavaBridge thread.
+     *
+     * @param token    The token the script was given.
+     * @param message  A JSON-encoded array holding the result, or "" for none.
+     */
+    @JavascriptInterface
+    public void post(String token, final String message) {
+        final String callbackId;
+        synchronized (callbacks) {
+            callbackId = callbacks.remove(token);
+        }
+        if (callbackId == null) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                PluginResult scriptResult;
+                if (message == null || message.length() == 0) {
+                    scriptResult = new PluginResult(PluginResult.Status.OK, new JSONArray());
+                } else {
+                    try {
+                        scriptResult = new PluginResult(PluginResult.Status.OK, new JSONArray(message));
+                    } catch (JSONException e) {
+                        scriptResult = new PluginResult(PluginResult.Status.JSON_EXCEPTION, e.getMessage());
+                    }
+                }
+                webView.sendPluginResult(scriptResult, callbackId);
+            }
+        });
+    }
+}
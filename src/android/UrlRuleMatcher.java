@@ -0,0 +1,692 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A list of URL rules compiled into a host suffix trie, a path prefix trie and
+ * regular expressions, so that checking a URL does not compile or allocate.
+ * An expression that needs a piece of literal text in every match is only tried
+ * on URLs that contain it, which a trie of those pieces finds in one pass. The
+ * other expressions are combined: those that start with '^' into one that is
+ * only tried at the start of the URL, the rest into one that is searched for.
+ * Each thread has Matchers of its own, so checks do not wait for each other.
+ *
+ * Rules are separated by ';' and take one of these forms:
+ *
+ *   host:example.com    matches example.com and any of its subdomains
+ *   path:/checkout      matches any URL whose path starts with /checkout
+ *   regex:^https?://x   matches if the regular expression is found in the URL
+ *   ^https?://x         a rule without a prefix is a regular expression too
+ *
+ * A value in which no rule starts with host:, path: or regex: is not split at
+ * all, but taken as one regular expression, the way leaveiab always was, so a
+ * ';' in an existing expression keeps its meaning. Expressions with back
+ * references or named groups get a pattern of their own, as combining them
+ * with other rules would renumber or duplicate their groups.
+ *
+ * An empty rule list matches nothing.
+ */
+public class UrlRuleMatcher {
+
+    private static final String LOG_TAG = "UrlRuleMatcher";
+    private static final String HOST_RULE = "host:";
+    private static final String PATH_RULE = "path:";
+    private static final String REGEX_RULE = "regex:";
+    private static final char RULE_SEPARATOR = ';';
+
+    private static final Pattern[] NO_PATTERNS = new Pattern[0];
+    private static final boolean[] NO_FLAGS = new boolean[0];
+    // Shorter literals would let too many URLs through to their expressions
+    private static final int MIN_LITERAL = 3;
+    // Regular expression characters that are not literal text outside a class
+    private static final String META = "\\^$.|?*+()[]{}";
+    // \1 to \9, \k<name> or (?<name>, but not the look-behinds (?<= and (?<!
+    private static final Pattern GROUP_REFERENCE = Pattern.compile("\\\\[1-9k]|\\(\\?<[a-zA-Z]");
+
+    public static final UrlRuleMatcher EMPTY = new UrlRuleMatcher("", new Node(), new Node(), null, null,
+            new Node(), NO_PATTERNS, NO_FLAGS, NO_PATTERNS);
+
+    private final String source;
+    private final Node hosts;
+    private final Node paths;
+    // Matched with lookingAt(), then find(); either may be null
+    private final Pattern anchored;
+    private final Pattern unanchored;
+    // Expressions tried only on URLs that contain their literal, found with the trie
+    private final Node literals;
+    private final Pattern[] filtered;
+    private final boolean[] filteredAnchored;
+    private final Pattern[] separate;
+    // anchored, unanchored, filtered, then separate, as Matchers of the calling thread
+    private final ThreadLocal<Matcher[]> matchers = new ThreadLocal<Matcher[]>() {
+        @Override
+        protected Matcher[] initialValue() {
+            Matcher[] matchers = new Matcher[2 + filtered.length + separate.length];
+            matchers[0] = anchored == null ? null : anchored.matcher("");
+            matchers[1] = unanchored == null ? null : unanchored.matcher("");
+            for (int i = 0; i < filtered.length; i++) {
+                matchers[2 + i] = filtered[i].matcher("");
+            }
+            for (int i = 0; i < separate.length; i++) {
+                matchers[2 + filtered.length + i] = separate[i].matcher("");
+            }
+            return matchers;
+        }
+    };
+
+    private UrlRuleMatcher(String source, Node hosts, Node paths, Pattern anchored, Pattern unanchored,
+            Node literals, Pattern[] filtered, boolean[] filteredAnchored, Pattern[] separate) {
+        this.source = source;
+        this.hosts = hosts;
+        this.paths = paths;
+        this.anchored = anchored;
+        this.unanchored = unanchored;
+        this.literals = literals;
+        this.filtered = filtered;
+        this.filteredAnchored = filteredAnchored;
+        this.separate = separate;
+    }
+
+    /**
+     * Compile a rule list. Invalid regular expressions are logged and skipped.
+     *
+     * @param rules  The rules, separated by ';', or a single regular expression.
+     * @return UrlRuleMatcher
+     */
+    public static UrlRuleMatcher compile(String rules) {
+        if (rules == null || rules.length() == 0) {
+            return EMPTY;
+        }
+        if (!isRuleList(rules)) {
+            try {
+                Pattern pattern = Pattern.compile(rules);
+                boolean atStart = isAnchored(rules);
+                return new UrlRuleMatcher(rules, new Node(), new Node(), atStart ? pattern : null,
+                        atStart ? null : pattern, new Node(), NO_PATTERNS, NO_FLAGS, NO_PATTERNS);
+            } catch (PatternSyntaxException e) {
+                Log.d(LOG_TAG, "Ignoring invalid rule " + rules + ": " + e.getMessage());
+                return EMPTY;
+            }
+        }
+        Node hosts = new Node();
+        Node paths = new Node();
+        StringBuilder anchored = new StringBuilder();
+        StringBuilder unanchored = new StringBuilder();
+        Node literals = new Node();
+        ArrayList<Pattern> filtered = new ArrayList<Pattern>();
+        ArrayList<Boolean> filteredAnchored = new ArrayList<Boolean>();
+        ArrayList<Pattern> separate = new ArrayList<Pattern>();
+        int start = 0;
+        while (start <= rules.length()) {
+            int end = rules.indexOf(RULE_SEPARATOR, start);
+            if (end < 0) {
+                end = rules.length();
+            }
+            String rule = rules.substring(start, end).trim();
+            start = end + 1;
+
+            if (rule.length() == 0) {
+                continue;
+            }
+            if (rule.startsWith(HOST_RULE)) {
+                String host = rule.substring(HOST_RULE.length());
+                if (host.startsWith(".")) {
+                    host = host.substring(1);
+                }
+                if (host.length() > 0) {
+                    hosts.insertReversed(host);
+                }
+            } else if (rule.startsWith(PATH_RULE)) {
+                String path = rule.substring(PATH_RULE.length());
+                if (path.length() > 0) {
+                    paths.insert(path);
+                }
+            } else {
+                String expression = rule.startsWith(REGEX_RULE) ? rule.substring(REGEX_RULE.length()) : rule;
+                try {
+                    Pattern pattern = Pattern.compile(expression);
+                    String literal;
+                    if (GROUP_REFERENCE.matcher(expression).find()) {
+                        separate.add(pattern);
+                    } else if ((literal = requiredLiteral(expression)) != null) {
+                        literals.insert(literal).addRule(filtered.size());
+                        filtered.add(pattern);
+                        filteredAnchored.add(isAnchored(expression));
+                    } else {
+                        appendAlternative(isAnchored(expression) ? anchored : unanchored, expression);
+                    }
+                } catch (PatternSyntaxException e) {
+                    Log.d(LOG_TAG, "Ignoring invalid rule " + rule + ": " + e.getMessage());
+                }
+            }
+        }
+        return new UrlRuleMatcher(rules, hosts, paths,
+                anchored.length() == 0 ? null : Pattern.compile(anchored.toString()),
+                unanchored.length() == 0 ? null : Pattern.compile(unanchored.toString()),
+                literals, filtered.toArray(new Pattern[filtered.size()]), toArray(filteredAnchored),
+                separate.toArray(new Pattern[separate.size()]));
+    }
+
+    private static boolean[] toArray(ArrayList<Boolean> list) {
+        boolean[] array = new boolean[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * The longest run of literal text that every match of the expression contains,
+     * taken from outside its groups and classes.
+     *
+     * @return the text, or null if there is none of at least MIN_LITERAL characters,
+     *         or the expression has a '|' outside a group, sets flags, such as (?i),
+     *         or quotes with \\Q
+     */
+    static String requiredLiteral(String expression) {
+        if (expression.contains("\\Q")) {
+            return null;
+        }
+        String longest = "";
+        StringBuilder run = new StringBuilder();
+        int length = expression.length();
+        int i = 0;
+        while (i < length) {
+            char c = expression.charAt(i);
+            char literal;
+            int next;
+            if (c == '\\' && i + 1 < length && !Character.isLetterOrDigit(expression.charAt(i + 1))) {
+                literal = expression.charAt(i + 1);
+                next = i + 2;
+            } else if (META.indexOf(c) < 0) {
+                literal = c;
+                next = i + 1;
+            } else if (c == '|') {
+                return null;
+            } else if (c == '(') {
+                // Flags, unless it is a non-capturing group or a look-around
+                boolean flags = i + 2 < length && expression.charAt(i + 1) == '?'
+                        && ":=!<>".indexOf(expression.charAt(i + 2)) < 0;
+                if (flags) {
+                    return null;
+                }
+                next = skipGroup(expression, i);
+                if (next < 0) {
+                    return null;
+                }
+                longest = longer(longest, run);
+                i = next;
+                continue;
+            } else if (c == '[') {
+                next = skipClass(expression, i);
+                if (next < 0) {
+                    return null;
+                }
+                longest = longer(longest, run);
+                i = next;
+                continue;
+            } else {
+                // ^, $, ., a quantifier, or an escape such as \d
+                longest = longer(longest, run);
+                i += c == '\\' ? 2 : 1;
+                continue;
+            }
+            char after = next < length ? expression.charAt(next) : 0;
+            if (after == '?' || after == '*' || after == '{') {
+                // The character may not be there at all
+                longest = longer(longest, run);
+            } else {
+                run.append(literal);
+                if (after == '+') {
+                    // There, but maybe more than once
+                    longest = longer(longest, run);
+                }
+            }
+            i = next;
+        }
+        longest = longer(longest, run);
+        return longest.length() >= MIN_LITERAL ? longest : null;
+    }
+
+    /**
+     * The longer of longest and run, emptying run.
+     */
+    private static String longer(String longest, StringBuilder run) {
+        if (run.length() > longest.length()) {
+            longest = run.toString();
+        }
+        run.setLength(0);
+        return longest;
+    }
+
+    /**
+     * @return the index just past the group that starts at start, or -1 if it is not closed
+     */
+    private static int skipGroup(String expression, int start) {
+        int depth = 0;
+        int length = expression.length();
+        for (int i = start; i < length; i++) {
+            char c = expression.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                i = skipClass(expression, i) - 1;
+                if (i < 0) {
+                    return -1;
+                }
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index just past the character class that starts at start, or -1 if it is not closed
+     */
+    private static int skipClass(String expression, int start) {
+        int depth = 0;
+        int length = expression.length();
+        for (int i = start; i < length; i++) {
+            char c = expression.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                depth++;
+                // A ']' right after '[' or '[^' is a literal one
+                if (i + 1 < length && expression.charAt(i + 1) == '^') {
+                    i++;
+                }
+                if (i + 1 < length && expression.charAt(i + 1) == ']') {
+                    i++;
+                }
+            } else if (c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Can the expression only match at the start of the input: does it start with
+     * '^', with no '|' outside of a group or character class?
+     */
+    static boolean isAnchored(String expression) {
+        if (!expression.startsWith("^")) {
+            return false;
+        }
+        int groups = 0;
+        int classes = 0;
+        int length = expression.length();
+        for (int i = 1; i < length; i++) {
+            char c = expression.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < length && expression.charAt(i + 1) == 'Q') {
+                    int end = expression.indexOf("\\E", i + 2);
+                    if (end < 0) {
+                        return true;
+                    }
+                    i = end + 1;
+                } else {
+                    i++;
+                }
+            } else if (c == '[') {
+                classes++;
+                // A ']' right after '[' or '[^' is a literal one
+                if (i + 1 < length && expression.charAt(i + 1) == '^') {
+                    i++;
+                }
+                if (i + 1 < length && expression.charAt(i + 1) == ']') {
+                    i++;
+                }
+            } else if (classes > 0) {
+                if (c == ']') {
+                    classes--;
+                }
+            } else if (c == '(') {
+                groups++;
+            } else if (c == ')') {
+                groups--;
+            } else if (c == '|' && groups == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Does any rule of the value start with host:, path: or regex:?
+     */
+    private static boolean isRuleList(String rules) {
+        int start = 0;
+        while (start < rules.length()) {
+            while (start < rules.length() && Character.isWhitespace(rules.charAt(start))) {
+                start++;
+            }
+            if (rules.startsWith(HOST_RULE, start) || rules.startsWith(PATH_RULE, start)
+                    || rules.startsWith(REGEX_RULE, start)) {
+                return true;
+            }
+            int end = rules.indexOf(RULE_SEPARATOR, start);
+            if (end < 0) {
+                return false;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    private static void appendAlternative(StringBuilder regex, String expression) {
+        if (regex.length() > 0) {
+            regex.append('|');
+        }
+        regex.append("(?:").append(expression).append(')');
+    }
+
+    /**
+     * @return the rule list this matcher was compiled from
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return true if no rule can ever match
+     */
+    public boolean isEmpty() {
+        return hosts.isLeaf() && paths.isLeaf() && anchored == null && unanchored == null
+                && filtered.length == 0 && separate.length == 0;
+    }
+
+    /**
+     * Does any rule match the URL?
+     *
+     * @param url  The URL to check.
+     * @return boolean
+     */
+    public boolean matches(String url) {
+        if (url == null) {
+            return false;
+        }
+        if (!hosts.isLeaf() && matchesHost(url)) {
+            return true;
+        }
+        if (!paths.isLeaf() && matchesPath(url)) {
+            return true;
+        }
+        if (anchored == null && unanchored == null && filtered.length == 0 && separate.length == 0) {
+            return false;
+        }
+        Matcher[] matchers = this.matchers.get();
+        if (matchers[0] != null && matches(matchers[0], url, true)) {
+            return true;
+        }
+        if (filtered.length > 0 && matchesFiltered(matchers, url)) {
+            return true;
+        }
+        if (matchers[1] != null && matches(matchers[1], url, false)) {
+            return true;
+        }
+        for (int i = 2 + filtered.length; i < matchers.length; i++) {
+            if (matches(matchers[i], url, false)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Try the expressions whose literal is in the URL.
+     */
+    private boolean matchesFiltered(Matcher[] matchers, String url) {
+        int length = url.length();
+        for (int start = 0; start < length; start++) {
+            Node node = literals;
+            for (int i = start; i < length; i++) {
+                node = node.child(url.charAt(i));
+                if (node == null) {
+                    break;
+                }
+                for (int rule : node.rules) {
+                    if (matches(matchers[2 + rule], url, filteredAnchored[rule])) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(Matcher m, String url, boolean atStart) {
+        m.reset(url);
+        boolean found = atStart ? m.lookingAt() : m.find();
+        // Do not keep the URL alive
+        m.reset("");
+        return found;
+    }
+
+    /**
+     * Does a path rule match the start of the URL's path?
+     */
+    private boolean matchesPath(String url) {
+        int start = hostStart(url);
+        if (start < 0) {
+            return false;
+        }
+        return paths.matchesPrefix(url, authorityEnd(url, start));
+    }
+
+    /**
+     * Does a host rule match the URL's host? Only reads characters, so it can be
+     * used from any thread.
+     *
+     * @param url  The URL to check.
+     * @return boolean
+     */
+    public boolean matchesHost(String url) {
+        int start = hostStart(url);
+        if (start < 0) {
+            return false;
+        }
+        return hosts.matchesSuffix(url, start, hostEnd(url, start));
+    }
+
+    /**
+     * Index of the first character of the URL's host, or -1 if it has none.
+     */
+    static int hostStart(String url) {
+        int schemeEnd = url.indexOf("://");
+        if (schemeEnd <= 0) {
+            return -1;
+        }
+        for (int i = 0; i < schemeEnd; i++) {
+            char c = url.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '+' || c == '-' || c == '.')) {
+                return -1;
+            }
+        }
+        int start = schemeEnd + 3;
+        int length = url.length();
+        // Skip user info
+        for (int i = start; i < length; i++) {
+            char c = url.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+            if (c == '@') {
+                start = i + 1;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Index just past the last character of the URL's host, not including the port.
+     */
+    static int hostEnd(String url, int start) {
+        int length = url.length();
+        for (int i = start; i < length; i++) {
+            char c = url.charAt(i);
+            if (c == '/' || c == '?' || c == '#' || c == ':') {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Index just past the URL's authority, where its path, query or fragment starts.
+     */
+    static int authorityEnd(String url, int start) {
+        int length = url.length();
+        for (int i = start; i < length; i++) {
+            char c = url.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    private static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * Character trie of host names stored back to front, so that walking a host
+     * from its last character finds every rule that is a suffix of it, or of path
+     * prefixes stored as they are.
+     */
+    static final class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private boolean terminal = false;
+        // The expressions this literal is required by
+        private int[] rules = new int[0];
+
+        boolean isLeaf() {
+            return keys.length == 0 && !terminal;
+        }
+
+        Node child(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node childOrNew(char c) {
+            Node child = child(c);
+            if (child == null) {
+                child = new Node();
+                int n = keys.length;
+                char[] keys = new char[n + 1];
+                Node[] children = new Node[n + 1];
+                System.arraycopy(this.keys, 0, keys, 0, n);
+                System.arraycopy(this.children, 0, children, 0, n);
+                keys[n] = c;
+                children[n] = child;
+                this.keys = keys;
+                this.children = children;
+            }
+            return child;
+        }
+
+        void insertReversed(String host) {
+            Node node = this;
+            for (int i = host.length() - 1; i >= 0; i--) {
+                node = node.childOrNew(lower(host.charAt(i)));
+            }
+            node.terminal = true;
+        }
+
+        /**
+         * Store a path prefix or literal; unlike host names, its case matters.
+         *
+         * @return the node it ends at
+         */
+        Node insert(String prefix) {
+            Node node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.childOrNew(prefix.charAt(i));
+            }
+            node.terminal = true;
+            return node;
+        }
+
+        void addRule(int rule) {
+            int n = rules.length;
+            int[] rules = new int[n + 1];
+            System.arraycopy(this.rules, 0, rules, 0, n);
+            rules[n] = rule;
+            this.rules = rules;
+        }
+
+        /**
+         * Is a stored prefix a prefix of s from start on?
+         */
+        boolean matchesPrefix(String s, int start) {
+            Node node = this;
+            for (int i = start; i < s.length(); i++) {
+                node = node.child(s.charAt(i));
+                if (node == null) {
+                    return false;
+                }
+                if (node.terminal) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Is a stored host equal to s[start, end) or a parent domain of it?
+         */
+        boolean matchesSuffix(String s, int start, int end) {
+            Node node = this;
+            for (int i = end - 1; i >= start; i--) {
+                node = node.child(lower(s.charAt(i)));
+                if (node == null) {
+                    return false;
+                }
+                if (node.terminal && (i == start || s.charAt(i - 1) == '.')) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the options string of open(): once per string, and from the cache
+ * when the same string is opened again.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BrowserOptionsBenchmark {
+
+    static final String OPTIONS = "location=no,toolbar=yes,zoom=no,hardwareback=yes,reuse=yes,batchevents=yes,"
+            + "timings=yes,loadingcaption=Laddar...,"
+            + "leaveiab=host:facebook.com;host:instagram.com;path:/logout;regex:^https?://[^/]*\\.laget\\.se/(login|auth)/,"
+            + "cacheorigins=host:static.laget.se;host:cdn.jsdelivr.net,"
+            + "defer=host:google-analytics.com;host:googletagmanager.com;host:widget.intercom.io,deferdelay=2500";
+
+    // More distinct strings than the parse cache holds, so every parse misses it
+    private String[] distinct;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        distinct = new String[1024];
+        for (int i = 0; i < distinct.length; i++) {
+            distinct[i] = OPTIONS + ",archive=run" + i;
+        }
+        BrowserOptions.parse(OPTIONS);
+    }
+
+    @Benchmark
+    public BrowserOptions parseCached() {
+        return BrowserOptions.parse(OPTIONS);
+    }
+
+    @Benchmark
+    public BrowserOptions parseUncached() {
+        String options = distinct[next];
+        next = (next + 1) & (distinct.length - 1);
+        return BrowserOptions.parse(options);
+    }
+}
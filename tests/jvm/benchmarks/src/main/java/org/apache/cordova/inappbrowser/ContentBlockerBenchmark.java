@@ -0,0 +1,146 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The content blocker with a list the size of EasyList: the check of every
+ * subresource request, and the compile and load of the list at startup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ContentBlockerBenchmark {
+
+    static final int RULES = 60000;
+
+    static final String[] REQUESTS = {
+        "https://www.laget.se/Content/css/site.min.css?v=20261012",
+        "https://static.laget.se/images/teams/1234/logo.png",
+        "https://www.google-analytics.com/analytics.js",
+        "https://adserver17.com/serve/banner.js?zone=4",
+        "https://cdn.jsdelivr.net/npm/chart.js@4.4.0/dist/chart.umd.min.js",
+        "https://www.laget.se/IFKGoteborg/api/news?page=2",
+        "https://pixel.tracker203.net/p.gif?uid=8b3c&ev=view",
+        "https://fonts.gstatic.com/s/roboto/v30/KFOmCnqEu92Fr1Mu4mxK.woff2",
+    };
+
+    private List<String> lists;
+    private ContentBlocker blocker;
+    private File compiled;
+    private long version;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        lists = Collections.singletonList(easyList(RULES));
+        blocker = ContentBlocker.compile(lists);
+        version = ContentBlocker.versionOf(lists);
+        compiled = File.createTempFile("filters", ".bin");
+        blocker.save(compiled, version);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        compiled.delete();
+    }
+
+    /**
+     * A list shaped like EasyList: mostly ||domain^ rules, then URL fragments and
+     * paths, some with options, and a few exceptions.
+     */
+    static String easyList(int rules) {
+        StringBuilder list = new StringBuilder("[Adblock Plus 2.0]\n! Title: Benchmark list\n");
+        for (int i = 0; i < rules; i++) {
+            switch (i % 10) {
+                case 0:
+                case 1:
+                case 2:
+                case 3:
+                    list.append("||adserver").append(i).append(".com^\n");
+                    break;
+                case 4:
+                    list.append("||tracker").append(i).append(".net^$third-party\n");
+                    break;
+                case 5:
+                    list.append("/ads/banner").append(i).append("/*\n");
+                    break;
+                case 6:
+                    list.append("-ad-unit-").append(i).append(".\n");
+                    break;
+                case 7:
+                    list.append("&ad_slot=").append(i).append("&\n");
+                    break;
+                case 8:
+                    list.append("||media").append(i).append(".com/ads/*$image,domain=news").append(i).append(".com\n");
+                    break;
+                default:
+                    list.append("@@||cdn").append(i).append(".com^$script\n");
+                    break;
+            }
+        }
+        return list.toString();
+    }
+
+    @Benchmark
+    public boolean shouldBlock() {
+        String url = REQUESTS[next];
+        next = (next + 1) & (REQUESTS.length - 1);
+        return blocker.shouldBlock(url, "www.laget.se", ContentBlocker.typeOf(url, null));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    public ContentBlocker compile() {
+        return ContentBlocker.compile(lists);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    public ContentBlocker load() {
+        return ContentBlocker.load(compiled, version);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording a page load time, which happens on every navigation, and turning a
+ * full histogram into the JSON of getMetrics.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LatencyHistogramBenchmark {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private long[] samples;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        // Page loads: mostly a few hundred milliseconds, with a long tail
+        Random random = new Random(42);
+        samples = new long[4096];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (long) Math.exp(5.5 + random.nextGaussian());
+        }
+        for (long sample : samples) {
+            histogram.record(sample);
+        }
+    }
+
+    @Benchmark
+    public void record() {
+        histogram.record(samples[next]);
+        next = (next + 1) & (samples.length - 1);
+    }
+
+    @Benchmark
+    public long percentile() {
+        return histogram.percentile(0.99);
+    }
+
+    @Benchmark
+    public JSONObject toJSON() throws JSONException {
+        return histogram.toJSON();
+    }
+}
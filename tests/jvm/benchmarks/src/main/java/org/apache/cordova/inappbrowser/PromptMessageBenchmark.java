@@ -0,0 +1,80 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the message of an executeScript result, as InAppChromeClient.onJsPrompt
+ * does on the UI thread with new JSONArray(message), and with the string the
+ * PluginResult then encodes it back into.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PromptMessageBenchmark {
+
+    @Param({"1", "10000"})
+    int entries;
+
+    private String message;
+
+    @Setup
+    public void setUp() throws JSONException {
+        // What a page sends back for JSON.stringify([result])
+        JSONArray result = new JSONArray();
+        for (int i = 0; i < entries; i++) {
+            JSONObject entry = new JSONObject();
+            entry.put("id", i);
+            entry.put("title", "Matchrapport: IFK Göteborg - Örgryte " + (i % 7) + "-" + (i % 5));
+            entry.put("url", "https://www.laget.se/IFKGoteborg/News/" + (7300000 + i) + "/Matchrapport");
+            entry.put("visible", i % 3 != 0);
+            result.put(entry);
+        }
+        message = new JSONArray().put(result).toString();
+    }
+
+    @Benchmark
+    public JSONArray parse() throws JSONException {
+        return new JSONArray(message);
+    }
+
+    @Benchmark
+    public String parseAndEncode() throws JSONException {
+        return new JSONArray(message).toString();
+    }
+}
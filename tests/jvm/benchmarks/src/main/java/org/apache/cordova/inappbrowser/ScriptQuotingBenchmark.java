@@ -0,0 +1,82 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Quoting the source of executeScript into its wrapper, against the way
+ * injectDeferredObject used to do it: JSONArray, substring and String.format.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScriptQuotingBenchmark {
+
+    // What executeScript wraps code in when results come back through a prompt
+    static final String WRAPPER = "prompt(JSON.stringify([eval(%s)]), 'gap-iab://InAppBrowser1234567')";
+
+    static final String LINE = "document.querySelector(\"#main\").innerHTML = '<a href=\"/news/2024/\">Nyheter</a>';\n"
+            + "\tif (window.items && items.length > 0) { console.log(\"items: \" + items.length); }\r\n";
+
+    @Param({"1024", "1048576"})
+    int size;
+
+    private String script;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder(size + LINE.length());
+        while (sb.length() < size) {
+            sb.append(LINE);
+        }
+        sb.setLength(size);
+        script = sb.toString();
+    }
+
+    @Benchmark
+    public String wrap() {
+        return ScriptQuoting.wrap(WRAPPER, script);
+    }
+
+    @Benchmark
+    public String wrapLegacy() {
+        JSONArray jsonEsc = new JSONArray();
+        jsonEsc.put(script);
+        String jsonRepr = jsonEsc.toString();
+        String jsonSourceString = jsonRepr.substring(1, jsonRepr.length() - 1);
+        return String.format(WRAPPER, jsonSourceString);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the events InAppBrowserClient passes to sendUpdate and encoding them,
+ * as the PluginResult does, for every page load.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SendUpdateBenchmark {
+
+    static final String URL = "https://www.laget.se/IFKGoteborg/News/7312345/Matchrapport?ref=start#comments";
+
+    // What NavigationMetrics.finish gives loadstop with timings=yes
+    private JSONObject timing;
+
+    @Setup
+    public void setUp() throws JSONException {
+        timing = new JSONObject();
+        timing.put("duration", 1234.5);
+        timing.put("commit", 321.25);
+        timing.put("redirects", 1);
+        timing.put("errors", 0);
+    }
+
+    @Benchmark
+    public String loadStart() throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("type", "loadstart");
+        obj.put("url", URL);
+        return obj.toString();
+    }
+
+    @Benchmark
+    public String loadStop() throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("type", "loadstop");
+        obj.put("url", URL);
+        obj.put("timing", timing);
+        obj.put("blocked", 17);
+        return obj.toString();
+    }
+
+    @Benchmark
+    public String loadError() throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("type", "loaderror");
+        obj.put("url", URL);
+        obj.put("code", -2);
+        obj.put("message", "net::ERR_NAME_NOT_RESOLVED");
+        return obj.toString();
+    }
+}
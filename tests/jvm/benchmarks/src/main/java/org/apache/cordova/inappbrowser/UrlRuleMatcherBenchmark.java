@@ -0,0 +1,163 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * The leaveiab check of every navigation, with the rules an app typically
+ * gives: a few hosts, a path and a regular expression, and with 1,000 rules
+ * against compiling the same rules as one expression on every navigation, as
+ * onPageStarted used to. Also one matcher shared by four threads, as the
+ * cacheorigins and defer rules are by the WebView's network threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UrlRuleMatcherBenchmark {
+
+    static final String RULES = "host:facebook.com;host:instagram.com;host:.twitter.com;path:/logout;"
+            + "regex:^https?://[^/]*\\.laget\\.se/(login|auth)/";
+
+    static final String[] URLS = {
+        "https://www.laget.se/IFKGoteborg/News/7301234/Matchrapport",
+        "https://www.laget.se/IFKGoteborg/Event/Calendar?month=2026-10",
+        "https://m.facebook.com/sharer/sharer.php?u=https%3A%2F%2Fwww.laget.se",
+        "https://static.laget.se/images/logo.png",
+        "https://www.laget.se/logout",
+        "https://accounts.laget.se/login/?returnUrl=%2F",
+        "https://www.youtube.com/embed/dQw4w9WgXcQ",
+        "https://cdn.jsdelivr.net/npm/chart.js",
+    };
+
+    static final int MANY = 1000;
+
+    @State(Scope.Thread)
+    public static class ThousandRules {
+        String rules;
+        // What leaveiab had to be to say the same: one expression
+        String regex;
+        UrlRuleMatcher matcher;
+        int next;
+
+        @Setup
+        public void setUp() {
+            StringBuilder rules = new StringBuilder();
+            StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < MANY; i++) {
+                String rule;
+                String expression;
+                if (i % 5 < 3) {
+                    rule = "host:partner" + i + ".example.com";
+                    expression = "^https?://([^/?#]*\\.)?partner" + i + "\\.example\\.com([/:?#]|$)";
+                } else if (i % 5 == 3) {
+                    rule = "path:/out/" + i + "/";
+                    expression = "^https?://[^/?#]*/out/" + i + "/";
+                } else {
+                    rule = "regex:^https?://[^/]*\\.ads" + i + "\\.net/";
+                    expression = "^https?://[^/]*\\.ads" + i + "\\.net/";
+                }
+                if (i > 0) {
+                    rules.append(';');
+                    regex.append('|');
+                }
+                rules.append(rule);
+                regex.append(expression);
+            }
+            this.rules = rules.toString();
+            this.regex = regex.toString();
+            matcher = UrlRuleMatcher.compile(this.rules);
+        }
+
+        String nextUrl() {
+            String url = URLS[next];
+            next = (next + 1) & (URLS.length - 1);
+            return url;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SharedRules {
+        UrlRuleMatcher matcher;
+
+        @Setup
+        public void setUp() {
+            matcher = UrlRuleMatcher.compile(RULES);
+        }
+    }
+
+    private UrlRuleMatcher matcher;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        matcher = UrlRuleMatcher.compile(RULES);
+    }
+
+    @Benchmark
+    public boolean matches() {
+        String url = URLS[next];
+        next = (next + 1) & (URLS.length - 1);
+        return matcher.matches(url);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean matchesSharedFourThreads(SharedRules shared) {
+        String url = URLS[next];
+        next = (next + 1) & (URLS.length - 1);
+        return shared.matcher.matches(url);
+    }
+
+    @Benchmark
+    public UrlRuleMatcher compile() {
+        return UrlRuleMatcher.compile(RULES);
+    }
+
+    @Benchmark
+    public boolean matchesThousandRules(ThousandRules state) {
+        return state.matcher.matches(state.nextUrl());
+    }
+
+    @Benchmark
+    public boolean compilePerCallThousandRules(ThousandRules state) {
+        return Pattern.compile(state.regex).matcher(state.nextUrl()).find();
+    }
+
+    @Benchmark
+    public UrlRuleMatcher compileThousandRules(ThousandRules state) {
+        return UrlRuleMatcher.compile(state.rules);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova;
+
+import android.util.Log;
+
+/**
+ * The part of cordova-android's LOG the plugin uses.
+ */
+public class LOG {
+
+    public static void d(String tag, String s) {
+        Log.d(tag, s);
+    }
+
+    public static void d(String tag, String s, Object... args) {
+        Log.d(tag, String.format(s, args));
+    }
+
+    public static void w(String tag, String s) {
+        Log.w(tag, s);
+    }
+
+    public static void e(String tag, String s) {
+        Log.e(tag, s);
+    }
+
+    public static void e(String tag, String s, Throwable e) {
+        Log.e(tag, s, e);
+    }
+}
@@ -0,0 +1,346 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Robolectric only for android.util.Log, which load() reports unreadable files to
+@RunWith(RobolectricTestRunner.class)
+public class ContentBlockerTest {
+
+    private static final int ANY = 0xff;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ContentBlocker blocker(String... rules) {
+        return ContentBlocker.compile(lists(rules));
+    }
+
+    private static List<String> lists(String... rules) {
+        StringBuilder list = new StringBuilder();
+        for (String rule : rules) {
+            list.append(rule).append('\n');
+        }
+        return Collections.singletonList(list.toString());
+    }
+
+    @Test
+    public void plainRuleMatchesAnywhere() {
+        ContentBlocker blocker = blocker("/banner/ads/*");
+        assertTrue(blocker.shouldBlock("https://news.com/banner/ads/top.png", null, ANY));
+        assertTrue(blocker.shouldBlock("https://cdn.net/x?u=/banner/ads/", null, ANY));
+        assertFalse(blocker.shouldBlock("https://news.com/banner/news/top.png", null, ANY));
+    }
+
+    @Test
+    public void ruleBetweenSlashesIsARegexAndLeftOut() {
+        ContentBlocker blocker = blocker("/banner/");
+        assertFalse(blocker.shouldBlock("https://news.com/banner/top.png", null, ANY));
+    }
+
+    @Test
+    public void matchingIsCaseInsensitive() {
+        ContentBlocker blocker = blocker("/Banner/ADS/*");
+        assertTrue(blocker.shouldBlock("https://NEWS.com/banner/Ads/top.png", null, ANY));
+    }
+
+    @Test
+    public void startAnchorMatchesTheStartOfTheUrl() {
+        ContentBlocker blocker = blocker("|https://ads.");
+        assertTrue(blocker.shouldBlock("https://ads.example.com/x.js", null, ANY));
+        assertFalse(blocker.shouldBlock("http://ads.example.com/x.js", null, ANY));
+        assertFalse(blocker.shouldBlock("https://news.com/?next=https://ads.example.com", null, ANY));
+    }
+
+    @Test
+    public void endAnchorMatchesTheEndOfTheUrl() {
+        ContentBlocker blocker = blocker(".swf|");
+        assertTrue(blocker.shouldBlock("https://news.com/flash/intro.swf", null, ANY));
+        assertFalse(blocker.shouldBlock("https://news.com/flash/intro.swf?autoplay=1", null, ANY));
+    }
+
+    @Test
+    public void domainAnchorWithSeparatorMatchesTheDomainAndItsSubdomains() {
+        ContentBlocker blocker = blocker("||ads.example.com^");
+        assertTrue(blocker.shouldBlock("https://ads.example.com/x.js", null, ANY));
+        assertTrue(blocker.shouldBlock("https://eu.ads.example.com/x.js", null, ANY));
+        assertTrue(blocker.shouldBlock("https://ads.example.com", null, ANY));
+        assertTrue(blocker.shouldBlock("https://ads.example.com:8443/x.js", null, ANY));
+        assertFalse(blocker.shouldBlock("https://ads.example.com.cdn.net/x.js", null, ANY));
+        assertFalse(blocker.shouldBlock("https://badads.example.com/x.js", null, ANY));
+        assertFalse(blocker.shouldBlock("https://example.com/ads.example.com/x.js", null, ANY));
+    }
+
+    @Test
+    public void domainAnchorWithoutSeparatorIsAPrefix() {
+        ContentBlocker blocker = blocker("||example.com");
+        assertTrue(blocker.shouldBlock("https://example.com/", null, ANY));
+        assertTrue(blocker.shouldBlock("https://www.example.com/", null, ANY));
+        assertTrue(blocker.shouldBlock("https://example.com.cdn.net/x.js", null, ANY));
+        assertFalse(blocker.shouldBlock("https://notexample.com/", null, ANY));
+    }
+
+    @Test
+    public void domainAnchorWithPath() {
+        ContentBlocker blocker = blocker("||example.com/ads/");
+        assertTrue(blocker.shouldBlock("https://example.com/ads/1.png", null, ANY));
+        assertTrue(blocker.shouldBlock("https://static.example.com/ads/1.png", null, ANY));
+        assertFalse(blocker.shouldBlock("https://example.com/news/ads/1.png", null, ANY));
+    }
+
+    @Test
+    public void separatorMatchesAnythingButLettersDigitsAndUnreserved() {
+        ContentBlocker blocker = blocker("/track^");
+        assertTrue(blocker.shouldBlock("https://a.com/track?id=1", null, ANY));
+        assertTrue(blocker.shouldBlock("https://a.com/track/1", null, ANY));
+        assertTrue(blocker.shouldBlock("https://a.com/track", null, ANY));
+        assertFalse(blocker.shouldBlock("https://a.com/tracking", null, ANY));
+        assertFalse(blocker.shouldBlock("https://a.com/track.gif", null, ANY));
+        assertFalse(blocker.shouldBlock("https://a.com/track-1", null, ANY));
+    }
+
+    @Test
+    public void wildcardMatchesAnyRun() {
+        ContentBlocker blocker = blocker("/ads/*/banner", "*/pixel.gif*");
+        assertTrue(blocker.shouldBlock("https://a.com/ads/300x250/banner.png", null, ANY));
+        assertTrue(blocker.shouldBlock("https://a.com/ads//banner.png", null, ANY));
+        assertFalse(blocker.shouldBlock("https://a.com/ads/banner.png", null, ANY));
+        assertTrue(blocker.shouldBlock("https://t.net/v1/pixel.gif?u=1", null, ANY));
+    }
+
+    @Test
+    public void thirdPartyRulesOnlyApplyToOtherSites() {
+        ContentBlocker blocker = blocker("||cdn.ads.net^$third-party", "/pixel.gif$third-party");
+        assertTrue(blocker.shouldBlock("https://cdn.ads.net/a.js", "news.com", ANY));
+        assertFalse(blocker.shouldBlock("https://cdn.ads.net/a.js", "www.ads.net", ANY));
+        assertTrue(blocker.shouldBlock("https://t.net/pixel.gif", "news.com", ANY));
+        assertFalse(blocker.shouldBlock("https://t.net/pixel.gif", "t.net", ANY));
+        assertFalse(blocker.shouldBlock("https://t.net/pixel.gif", null, ANY));
+    }
+
+    @Test
+    public void firstPartyRulesOnlyApplyToTheSameSite() {
+        ContentBlocker blocker = blocker("||stats.news.com^$~third-party", "/beacon$~third-party");
+        assertTrue(blocker.shouldBlock("https://stats.news.com/a.js", "www.news.com", ANY));
+        assertFalse(blocker.shouldBlock("https://stats.news.com/a.js", "blog.net", ANY));
+        assertTrue(blocker.shouldBlock("https://news.com/beacon", "news.com", ANY));
+        assertFalse(blocker.shouldBlock("https://news.com/beacon", "blog.net", ANY));
+    }
+
+    @Test
+    public void exceptionsWinOverBlockingRules() {
+        ContentBlocker blocker = blocker("||ads.net^", "@@||ok.ads.net^", "/banner/*", "@@/banner/house/*");
+        assertTrue(blocker.shouldBlock("https://x.ads.net/a.js", null, ANY));
+        assertFalse(blocker.shouldBlock("https://ok.ads.net/a.js", null, ANY));
+        assertTrue(blocker.shouldBlock("https://a.com/banner/1.png", null, ANY));
+        assertFalse(blocker.shouldBlock("https://a.com/banner/house/1.png", null, ANY));
+    }
+
+    @Test
+    public void thirdPartyExceptionsOnlyAllowOtherSites() {
+        ContentBlocker blocker = blocker("||partner.com^", "@@||partner.com^$third-party",
+                "/widget/*", "@@/widget/*$third-party");
+        assertFalse(blocker.shouldBlock("https://partner.com/w.js", "news.com", ANY));
+        assertTrue(blocker.shouldBlock("https://partner.com/w.js", "www.partner.com", ANY));
+        assertFalse(blocker.shouldBlock("https://a.com/widget/w.js", "news.com", ANY));
+        assertTrue(blocker.shouldBlock("https://a.com/widget/w.js", "a.com", ANY));
+    }
+
+    @Test
+    public void firstPartyExceptionsOnlyAllowTheSameSite() {
+        ContentBlocker blocker = blocker("||partner.com^", "@@||partner.com^$~third-party");
+        assertFalse(blocker.shouldBlock("https://partner.com/w.js", "www.partner.com", ANY));
+        assertTrue(blocker.shouldBlock("https://partner.com/w.js", "news.com", ANY));
+    }
+
+    @Test
+    public void domainOptionLimitsTheRuleToPages() {
+        ContentBlocker blocker = blocker("/sponsor/$domain=news.com|~sports.news.com", "||ads.net^$domain=~blog.net");
+        assertTrue(blocker.shouldBlock("https://cdn.net/sponsor/1.png", "news.com", ANY));
+        assertTrue(blocker.shouldBlock("https://cdn.net/sponsor/1.png", "www.news.com", ANY));
+        assertFalse(blocker.shouldBlock("https://cdn.net/sponsor/1.png", "sports.news.com", ANY));
+        assertFalse(blocker.shouldBlock("https://cdn.net/sponsor/1.png", "othernews.com", ANY));
+        assertFalse(blocker.shouldBlock("https://cdn.net/sponsor/1.png", null, ANY));
+        assertTrue(blocker.shouldBlock("https://ads.net/a.js", "news.com", ANY));
+        assertFalse(blocker.shouldBlock("https://ads.net/a.js", "www.blog.net", ANY));
+    }
+
+    @Test
+    public void typeOptionsLimitTheRuleToRequestTypes() {
+        ContentBlocker blocker = blocker("/lib/$script", "/media/$~image", "||fonts.net^$font");
+        assertTrue(blocker.shouldBlock("https://a.com/lib/x.js", null, ContentBlocker.TYPE_SCRIPT));
+        assertFalse(blocker.shouldBlock("https://a.com/lib/x.css", null, ContentBlocker.TYPE_STYLESHEET));
+        assertTrue(blocker.shouldBlock("https://a.com/media/x.mp4", null, ContentBlocker.TYPE_MEDIA));
+        assertFalse(blocker.shouldBlock("https://a.com/media/x.png", null, ContentBlocker.TYPE_IMAGE));
+        assertTrue(blocker.shouldBlock("https://fonts.net/a.woff2", null, ContentBlocker.TYPE_FONT));
+        assertFalse(blocker.shouldBlock("https://fonts.net/a.css", null, ContentBlocker.TYPE_STYLESHEET));
+    }
+
+    @Test
+    public void typeOfGuessesFromTheExtensionThenTheAcceptHeader() {
+        assertEquals(ContentBlocker.TYPE_SCRIPT, ContentBlocker.typeOf("https://a.com/x.js?v=2", null));
+        assertEquals(ContentBlocker.TYPE_STYLESHEET, ContentBlocker.typeOf("https://a.com/x.CSS", null));
+        assertEquals(ContentBlocker.TYPE_IMAGE, ContentBlocker.typeOf("https://a.com/x.webp#t", null));
+        assertEquals(ContentBlocker.TYPE_FONT, ContentBlocker.typeOf("https://a.com/x.woff2", null));
+        assertEquals(ContentBlocker.TYPE_IMAGE, ContentBlocker.typeOf("https://a.com/img", "image/webp,*/*"));
+        assertEquals(ContentBlocker.TYPE_SUBDOCUMENT, ContentBlocker.typeOf("https://a.com/frame", "text/html"));
+        int unknown = ContentBlocker.typeOf("https://a.com/v1.2/api", "*/*");
+        assertTrue((unknown & ContentBlocker.TYPE_XHR) != 0);
+        assertTrue((unknown & ContentBlocker.TYPE_SCRIPT) != 0);
+    }
+
+    @Test
+    public void unsupportedRulesAreLeftOut() {
+        ContentBlocker blocker = blocker(
+                "! a comment /comment/",
+                "[Adblock Plus 2.0]",
+                "news.com##.ad-banner",
+                "news.com#@#.sponsor",
+                "/\\/ads[0-9]+\\//",
+                "/popunder/$popup",
+                "*",
+                "|");
+        assertFalse(blocker.shouldBlock("https://news.com/comment/1", "news.com", ANY));
+        assertFalse(blocker.shouldBlock("https://news.com/ads12/x.js", "news.com", ANY));
+        assertFalse(blocker.shouldBlock("https://news.com/popunder/x.js", "news.com", ANY));
+        assertFalse(blocker.shouldBlock("https://news.com/", "news.com", ANY));
+    }
+
+    @Test
+    public void urlsWithoutAHostAreNotBlocked() {
+        ContentBlocker blocker = blocker("data");
+        assertFalse(blocker.shouldBlock("data:image/png;base64,AAAA", null, ANY));
+    }
+
+    @Test
+    public void thirdPartyIsDecidedBySite() {
+        assertFalse(ContentBlocker.isThirdParty("static.news.com", "www.news.com"));
+        assertTrue(ContentBlocker.isThirdParty("news.net", "news.com"));
+        assertFalse(ContentBlocker.isThirdParty("img.bbc.co.uk", "www.bbc.co.uk"));
+        assertTrue(ContentBlocker.isThirdParty("itv.co.uk", "bbc.co.uk"));
+        assertFalse(ContentBlocker.isThirdParty("localhost", "LOCALHOST"));
+    }
+
+    @Test
+    public void statsCountRulesAndRequests() throws Exception {
+        ContentBlocker blocker = blocker("||ads.net^", "/banner/*", "/x^*");
+        blocker.shouldBlock("https://ads.net/a.js", null, ANY);
+        blocker.shouldBlock("https://a.com/", null, ANY);
+        assertEquals(2, blocker.getStats().getInt("rules"));
+        assertEquals(2, blocker.getStats().getLong("checked"));
+        assertEquals(1, blocker.getStats().getLong("blocked"));
+    }
+
+    private static final String[] ROUND_TRIP_RULES = {
+        "||ads.example.com^",
+        "||example.org",
+        "@@||ok.ads.example.com^",
+        "||partner.com^",
+        "@@||partner.com^$third-party",
+        "/banner/*/ad^",
+        "|https://track.",
+        ".swf|",
+        "/sponsor/$domain=news.com|~sports.news.com",
+        "/lib/$script,third-party",
+        "/x^",
+    };
+
+    private static final String[][] ROUND_TRIP_REQUESTS = {
+        { "https://eu.ads.example.com/a.js", null },
+        { "https://ok.ads.example.com/a.js", null },
+        { "https://example.org.cdn.net/a.js", null },
+        { "https://partner.com/w.js", "news.com" },
+        { "https://partner.com/w.js", "partner.com" },
+        { "https://a.com/banner/300/ad?x", null },
+        { "https://track.a.com/", null },
+        { "https://a.com/f.swf", null },
+        { "https://a.com/sponsor/1", "www.news.com" },
+        { "https://a.com/sponsor/1", "sports.news.com" },
+        { "https://a.com/lib/x.js", "news.com" },
+        { "https://a.com/lib/x.js", "a.com" },
+        { "https://a.com/x", null },
+        { "https://a.com/xy", null },
+    };
+
+    @Test
+    public void saveAndLoadKeepEveryDecision() throws Exception {
+        List<String> lists = lists(ROUND_TRIP_RULES);
+        long version = ContentBlocker.versionOf(lists);
+        ContentBlocker compiled = ContentBlocker.compile(lists);
+        File file = new File(folder.getRoot(), "filters.bin");
+        compiled.save(file, version);
+        assertFalse("no temporary file is left", new File(file.getPath() + ".tmp").exists());
+
+        ContentBlocker loaded = ContentBlocker.load(file, version);
+        assertNotNull(loaded);
+        int blocked = 0;
+        for (String[] request : ROUND_TRIP_REQUESTS) {
+            boolean expected = compiled.shouldBlock(request[0], request[1], ANY);
+            assertEquals(Arrays.toString(request), expected, loaded.shouldBlock(request[0], request[1], ANY));
+            blocked += expected ? 1 : 0;
+        }
+        assertEquals("the requests exercise both outcomes", 9, blocked);
+        assertEquals(compiled.getStats().getInt("rules"), loaded.getStats().getInt("rules"));
+        assertEquals(compiled.getStats().getInt("domainNodes"), loaded.getStats().getInt("domainNodes"));
+    }
+
+    @Test
+    public void loadRejectsOtherVersionsAndBrokenFiles() throws Exception {
+        List<String> lists = lists(ROUND_TRIP_RULES);
+        long version = ContentBlocker.versionOf(lists);
+        File file = new File(folder.getRoot(), "filters.bin");
+        assertNull("no file yet", ContentBlocker.load(file, version));
+
+        ContentBlocker.compile(lists).save(file, version);
+        assertNull("lists changed", ContentBlocker.load(file, ContentBlocker.versionOf(lists("/other/"))));
+
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.getChannel().truncate(file.length() / 2);
+        } finally {
+            out.close();
+        }
+        assertNull("truncated", ContentBlocker.load(file, version));
+    }
+
+    @Test
+    public void versionDependsOnTheTextOfEveryList() {
+        long one = ContentBlocker.versionOf(Arrays.asList("/a/\n", "/b/\n"));
+        assertEquals(one, ContentBlocker.versionOf(Arrays.asList("/a/\n", "/b/\n")));
+        assertFalse(one == ContentBlocker.versionOf(Arrays.asList("/a/\n/b/\n")));
+        assertFalse(one == ContentBlocker.versionOf(Arrays.asList("/b/\n", "/a/\n")));
+    }
+}
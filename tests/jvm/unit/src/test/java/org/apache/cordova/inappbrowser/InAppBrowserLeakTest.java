@@ -0,0 +1,131 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.app.Dialog;
+import android.webkit.WebView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowDialog;
+import org.robolectric.shadows.ShadowWindowManagerImpl;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Opening and closing the browser must not leave its dialog or WebView behind,
+ * and a destroyed plugin must not be kept alive by anything it started.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InAppBrowserLeakTest {
+
+    private static final int CYCLES = 1000;
+
+    @Test
+    public void openAndCloseKeepsNothing() throws Exception {
+        PluginHarness harness = new PluginHarness();
+        List<WeakReference<Object>> closed = new ArrayList<WeakReference<Object>>();
+        for (int i = 0; i < CYCLES; i++) {
+            openAndClose(harness, i, closed);
+        }
+        assertEquals("every close sends an exit event", CYCLES, countExits(harness));
+
+        // Robolectric remembers the dialogs it has shown, and the windows it was asked to
+        // remove with removeViewImmediate(); only the plugin's references count
+        ShadowDialog.reset();
+        ShadowWindowManagerImpl.reset();
+        // A long session keeps the plugin, so what it closed must go while it lives
+        assertEquals("dialogs and WebViews reachable from the live plugin", 0, countReachable(closed));
+
+        WeakReference<Object> plugin = new WeakReference<Object>(harness.plugin);
+        harness.destroy();
+        harness = null;
+        ShadowDialog.reset();
+        ShadowWindowManagerImpl.reset();
+
+        assertEquals("dialogs and WebViews still reachable", 0, countReachable(closed));
+        assertEquals("the destroyed plugin is still reachable", 0, countReachable(plugin));
+    }
+
+    /**
+     * One cycle, in a method of its own so that its locals are gone when it returns.
+     */
+    private static void openAndClose(PluginHarness harness, int i, List<WeakReference<Object>> closed)
+            throws Exception {
+        harness.exec("open", "https://example.com/page" + i, "_blank", "location=yes");
+        harness.idle();
+        Dialog dialog = ShadowDialog.getLatestDialog();
+        WebView webView = harness.shownWebView();
+        assertNotNull("open " + i + " shows a WebView", webView);
+        closed.add(new WeakReference<Object>(dialog));
+        closed.add(new WeakReference<Object>(webView));
+
+        harness.exec("close");
+        harness.idleFor(PluginHarness.CLOSE_DELAY);
+        assertFalse("close " + i + " dismisses the dialog", dialog.isShowing());
+    }
+
+    private static int countExits(PluginHarness harness) throws Exception {
+        int exits = 0;
+        for (org.json.JSONObject event : harness.webView.events()) {
+            if ("exit".equals(event.optString("type"))) {
+                exits++;
+            }
+        }
+        return exits;
+    }
+
+    private static int countReachable(WeakReference<Object> reference) {
+        List<WeakReference<Object>> references = new ArrayList<WeakReference<Object>>();
+        references.add(reference);
+        return countReachable(references);
+    }
+
+    /**
+     * @return how many of the referents are still there after collecting garbage
+     */
+    private static int countReachable(List<WeakReference<Object>> references) {
+        int reachable = references.size();
+        for (int attempt = 0; attempt < 20 && reachable > 0; attempt++) {
+            System.gc();
+            System.runFinalization();
+            reachable = 0;
+            for (WeakReference<Object> reference : references) {
+                if (reference.get() != null) {
+                    reachable++;
+                }
+            }
+            if (reachable > 0) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        return reachable;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import java.io.FilePermission;
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * StrictMode's detectDiskReads() and detectDiskWrites() for a desktop JVM, where
+ * java.io does not report to StrictMode: every file the UI thread reads, writes
+ * or deletes while the policy is installed is kept with the stack that did it.
+ * Everything else is permitted.
+ *
+ * Files read to load classes and resources from the class path are not counted,
+ * as on a device those come from the already mapped APK.
+ */
+class MainThreadDiskPolicy extends SecurityManager {
+
+    /**
+     * One file access by the UI thread.
+     */
+    static class Violation extends Throwable {
+        Violation(String action, String file) {
+            super(action + " " + file + " on the UI thread");
+        }
+    }
+
+    private final Thread mainThread;
+    private final List<Violation> violations = new ArrayList<Violation>();
+    private final ThreadLocal<Boolean> checking = new ThreadLocal<Boolean>();
+    private SecurityManager previous;
+
+    MainThreadDiskPolicy(Thread mainThread) {
+        this.mainThread = mainThread;
+    }
+
+    void install() {
+        previous = System.getSecurityManager();
+        System.setSecurityManager(this);
+    }
+
+    void uninstall() {
+        System.setSecurityManager(previous);
+    }
+
+    synchronized List<Violation> getViolations() {
+        return new ArrayList<Violation>(violations);
+    }
+
+    @Override
+    public void checkPermission(Permission permission) {
+        if (!(permission instanceof FilePermission) || Thread.currentThread() != mainThread
+                || checking.get() != null) {
+            return;
+        }
+        String file = permission.getName();
+        if (file.endsWith(".jar") || file.endsWith(".class")) {
+            return;
+        }
+        checking.set(Boolean.TRUE);
+        try {
+            Violation violation = new Violation(permission.getActions(), file);
+            if (!isClassPathLookup(violation.getStackTrace())) {
+                synchronized (this) {
+                    violations.add(violation);
+                }
+            }
+        } finally {
+            checking.remove();
+        }
+    }
+
+    @Override
+    public void checkPermission(Permission permission, Object context) {
+        checkPermission(permission);
+    }
+
+    private static boolean isClassPathLookup(StackTraceElement[] stack) {
+        for (StackTraceElement frame : stack) {
+            String method = frame.getMethodName();
+            if (frame.getClassName().endsWith("ClassLoader")
+                    && (method.startsWith("loadClass") || method.startsWith("findClass")
+                    || method.startsWith("getResource") || method.startsWith("findResource"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.List;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Opening the browser must not read or write files on the UI thread, whatever
+ * it is asked to clear.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class OpenDiskAccessTest {
+
+    private PluginHarness harness;
+    private MainThreadDiskPolicy policy;
+
+    @Before
+    public void setUp() {
+        harness = new PluginHarness();
+        policy = new MainThreadDiskPolicy(Looper.getMainLooper().getThread());
+    }
+
+    @After
+    public void tearDown() {
+        harness.destroy();
+    }
+
+    @Test
+    public void openDoesNotTouchTheDisk() throws Exception {
+        open("location=yes");
+    }
+
+    @Test
+    public void clearingCachesDoesNotTouchTheDisk() throws Exception {
+        open("location=yes,clearcache=yes");
+        open("location=yes,clearsessioncache=yes");
+    }
+
+    @Test
+    public void reopeningDoesNotTouchTheDisk() throws Exception {
+        open("location=no");
+        open("location=no");
+    }
+
+    private void open(String options) throws Exception {
+        policy.install();
+        try {
+            harness.exec("open", "https://example.com/", "_blank", options);
+            harness.idle();
+            assertNotNull("open shows a WebView", harness.shownWebView());
+            harness.exec("close");
+            harness.idleFor(PluginHarness.CLOSE_DELAY);
+        } finally {
+            policy.uninstall();
+        }
+        List<MainThreadDiskPolicy.Violation> violations = policy.getViolations();
+        if (!violations.isEmpty()) {
+            AssertionError error = new AssertionError("open(" + options + ") touched the disk on the UI thread "
+                    + violations.size() + " times, first: " + violations.get(0).getMessage());
+            error.initCause(violations.get(0));
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,522 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.net.Uri;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Page loads end to end, against a ThrottledHttpServer: the browser is opened with
+ * execute("open"), and this class plays the WebView, calling the InAppBrowserClient
+ * as a WebView would, onPageStarted and onPageFinished on the UI thread and
+ * shouldInterceptRequest on its own network threads, and loading from the server
+ * what the client does not answer. For every network and set of options it reports:
+ *
+ *   openLatencyMillis     execute("open") to onPageFinished of the first page
+ *   openShownMillis       execute("open") to the browser being on screen
+ *   loadMillis            onPageStarted to onPageFinished, for every page
+ *   eventsPerLoad         events sent to JavaScript per page, and bridge messages,
+ *                         also side by side with and without batchevents=yes
+ *   allocatedBytesPerNavigation  by the plugin on the UI thread, in
+ *                         shouldInterceptRequest and on the Cordova thread pool
+ *   uiThreadMillisPerNavigation  CPU time of the UI thread per page
+ *
+ * The results are written as JSON to target/pageload-result.json, or the file the
+ * pageload.result system property names, to compare between commits. Not a test,
+ * so mvn test leaves it out:
+ *
+ *   mvn -B test -Dtest=PageLoadBenchmark -Dsurefire.failIfNoSpecifiedTests=false
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PageLoadBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final ThrottledHttpServer.Network[] NETWORKS = {
+        new ThrottledHttpServer.Network("loopback", 0, 0, 0),
+        new ThrottledHttpServer.Network("4g", 40, 1500000, 1460),
+        new ThrottledHttpServer.Network("3g", 150, 200000, 1460),
+    };
+
+    static final String[] OPTIONS = {
+        "location=yes",
+        "location=yes,cacheorigins=host:127.0.0.1",
+        "location=yes,batchevents=yes",
+    };
+    // The options above that differ only in batchevents
+    static final int UNBATCHED = 0;
+    static final int BATCHED = 2;
+    // Long enough for a batch waiting for the next frame to be sent
+    static final int FRAME_MILLIS = 16;
+
+    // Pages after the first one of every open, followed by a link
+    static final int NAVIGATIONS = 4;
+    static final int ASSETS = 12;
+    static final int PAGE_BYTES = 24 * 1024;
+    static final int ASSET_BYTES = 8 * 1024;
+    // As many requests at a time as a WebView makes to one host
+    static final int CONNECTIONS = 6;
+
+    private static final String PAGE_ACCEPT = "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8";
+    private static final Pattern ASSET = Pattern.compile("(?:src|rel=\"stylesheet\" href)=\"([^\"]+)\"");
+    private static final Pattern LINK = Pattern.compile("<a href=\"([^\"]+)\"");
+
+    /**
+     * The pages: each has ASSETS scripts, stylesheets and images, half of them
+     * shared by every page, and a link to the next page.
+     */
+    static class Site implements ThrottledHttpServer.Handler {
+        @Override
+        public ThrottledHttpServer.Response handle(String method, String path) {
+            if (path.startsWith("/page/") && path.endsWith(".html")) {
+                int page = Integer.parseInt(path.substring("/page/".length(), path.length() - ".html".length()));
+                return new ThrottledHttpServer.Response(200, "text/html; charset=utf-8", "no-cache", page(page));
+            }
+            if (path.startsWith("/assets/")) {
+                byte[] body = new byte[ASSET_BYTES];
+                Arrays.fill(body, (byte) 'x');
+                return new ThrottledHttpServer.Response(200, contentType(path), "max-age=3600", body);
+            }
+            return null;
+        }
+
+        private static byte[] page(int page) {
+            StringBuilder html = new StringBuilder();
+            html.append("<!DOCTYPE html><html><head><title>Page ").append(page).append("</title>\n");
+            for (int i = 0; i < ASSETS; i++) {
+                String dir = i < ASSETS / 2 ? "common" : String.valueOf(page);
+                switch (i % 3) {
+                    case 0:
+                        html.append("<script src=\"/assets/").append(dir).append('/').append(i).append(".js\"></script>\n");
+                        break;
+                    case 1:
+                        html.append("<link rel=\"stylesheet\" href=\"/assets/").append(dir).append('/').append(i).append(".css\">\n");
+                        break;
+                    default:
+                        html.append("<img src=\"/assets/").append(dir).append('/').append(i).append(".png\">\n");
+                        break;
+                }
+            }
+            html.append("</head><body><a href=\"/page/").append(page + 1).append(".html\">Next</a>\n");
+            while (html.length() < PAGE_BYTES) {
+                html.append("<p>Matchrapport: ett lag, en boll och en lång eftermiddag.</p>\n");
+            }
+            html.append("</body></html>\n");
+            return html.toString().getBytes(UTF_8);
+        }
+
+        private static String contentType(String path) {
+            if (path.endsWith(".js")) {
+                return "application/javascript";
+            } else if (path.endsWith(".css")) {
+                return "text/css";
+            }
+            return "image/png";
+        }
+    }
+
+    /**
+     * What one network and set of options measured.
+     */
+    private static class Scenario {
+        final List<Double> openLatency = new ArrayList<Double>();
+        final List<Double> openShown = new ArrayList<Double>();
+        final List<Double> load = new ArrayList<Double>();
+        int navigations;
+        int events;
+        int messages;
+        long uiAllocated;
+        long uiCpuNanos;
+        long poolAllocated;
+        final AtomicLong interceptAllocated = new AtomicLong();
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong intercepted = new AtomicLong();
+        private long uiAllocatedAtStart;
+        private long uiCpuAtStart;
+
+        /**
+         * Count what the UI thread spends from now, until stopUi().
+         */
+        void startUi() {
+            uiAllocatedAtStart = ThreadCosts.allocatedBytes();
+            uiCpuAtStart = ThreadCosts.cpuNanos();
+        }
+
+        void stopUi() {
+            uiAllocated += ThreadCosts.allocatedBytes() - uiAllocatedAtStart;
+            uiCpuNanos += ThreadCosts.cpuNanos() - uiCpuAtStart;
+        }
+    }
+
+    private PluginHarness harness;
+    private ExecutorService network;
+
+    @Test
+    public void pageLoads() throws Exception {
+        int opens = Integer.getInteger("pageload.opens", 3);
+        // Load the classes and let the JIT compile before anything is measured
+        ThrottledHttpServer warmUp = new ThrottledHttpServer(NETWORKS[0], new Site());
+        warmUp.start();
+        try {
+            for (String options : OPTIONS) {
+                run(warmUp, options, 1);
+            }
+        } finally {
+            warmUp.stop();
+        }
+
+        JSONArray scenarios = new JSONArray();
+        JSONObject batching = new JSONObject();
+        for (ThrottledHttpServer.Network shape : NETWORKS) {
+            ThrottledHttpServer server = new ThrottledHttpServer(shape, new Site());
+            server.start();
+            try {
+                JSONObject[] results = new JSONObject[OPTIONS.length];
+                for (int i = 0; i < OPTIONS.length; i++) {
+                    long served = server.getRequests();
+                    Scenario scenario = run(server, OPTIONS[i], opens);
+                    results[i] = toJSON(shape, OPTIONS[i], opens, scenario);
+                    results[i].getJSONObject("requests").put("server", server.getRequests() - served);
+                    scenarios.put(results[i]);
+                }
+                JSONObject messages = new JSONObject();
+                messages.put("unbatched", results[UNBATCHED].get("bridgeMessagesPerLoad"));
+                messages.put("batched", results[BATCHED].get("bridgeMessagesPerLoad"));
+                messages.put("eventsPerLoad", results[BATCHED].get("eventsPerLoad"));
+                batching.put(shape.name, messages);
+            } finally {
+                server.stop();
+            }
+        }
+
+        JSONObject page = new JSONObject();
+        page.put("assets", ASSETS);
+        page.put("pageBytes", PAGE_BYTES);
+        page.put("assetBytes", ASSET_BYTES);
+        page.put("navigationsPerOpen", NAVIGATIONS + 1);
+        JSONObject results = new JSONObject();
+        results.put("java", System.getProperty("java.version"));
+        results.put("page", page);
+        results.put("bridgeMessagesPerLoad", batching);
+        results.put("scenarios", scenarios);
+        write(results, new File(System.getProperty("pageload.result", "target/pageload-result.json")));
+    }
+
+    private Scenario run(ThrottledHttpServer server, String options, int opens) throws Exception {
+        Scenario scenario = new Scenario();
+        harness = new PluginHarness();
+        network = Executors.newFixedThreadPool(CONNECTIONS);
+        try {
+            for (int i = 0; i < opens; i++) {
+                String url = server.getOrigin() + "/page/1.html";
+                int events = harness.webView.resultCount();
+                long pool = harness.threadPool.getAllocatedBytes();
+                long start = System.nanoTime();
+
+                scenario.startUi();
+                harness.exec("open", url, "_blank", options);
+                harness.idle();
+                scenario.stopUi();
+                WebView view = harness.shownWebView();
+                assertNotNull("open shows a WebView", view);
+                scenario.openShown.add(millisSince(start));
+                assertEquals(url, shadowOf(view).getLastLoadedUrl());
+
+                String html = load(scenario, view, url, true, events, pool);
+                scenario.openLatency.add(millisSince(start));
+                for (int n = 0; n < NAVIGATIONS; n++) {
+                    Matcher link = LINK.matcher(html);
+                    assertTrue("the page has a link", link.find());
+                    String next = server.getOrigin() + link.group(1);
+                    html = load(scenario, view, next, false, harness.webView.resultCount(),
+                            harness.threadPool.getAllocatedBytes());
+                }
+
+                harness.exec("close");
+                harness.idleFor(PluginHarness.CLOSE_DELAY);
+            }
+        } finally {
+            network.shutdownNow();
+            harness.destroy();
+        }
+        return scenario;
+    }
+
+    /**
+     * Load a page the way the WebView would, and tell the client.
+     *
+     * @param first       Whether the plugin has loaded the page, rather than a link.
+     * @param fromResult  The first result sent to JavaScript for this page.
+     * @param fromPool    What the thread pool had allocated before the page.
+     * @return the page
+     */
+    private String load(Scenario scenario, final WebView view, final String url, boolean first, int fromResult,
+                        long fromPool) throws Exception {
+        final WebViewClient client = shadowOf(view).getWebViewClient();
+        if (!first) {
+            scenario.startUi();
+            boolean overridden = client.shouldOverrideUrlLoading(view, request(url, true, PAGE_ACCEPT));
+            harness.idle();
+            scenario.stopUi();
+            assertFalse("the link stays in the browser", overridden);
+            view.loadUrl(url);
+        }
+        long start = System.nanoTime();
+        scenario.startUi();
+        client.onPageStarted(view, url, null);
+        harness.idle();
+        scenario.stopUi();
+
+        String html = new String(await(scenario, fetch(scenario, view, client, url, true, PAGE_ACCEPT)), UTF_8);
+        scenario.startUi();
+        client.onPageCommitVisible(view, url);
+        harness.idle();
+        scenario.stopUi();
+
+        List<Future<byte[]>> assets = new ArrayList<Future<byte[]>>();
+        Matcher asset = ASSET.matcher(html);
+        while (asset.find()) {
+            String path = asset.group(1);
+            String accept = path.endsWith(".css") ? "text/css,*/*;q=0.1"
+                    : path.endsWith(".png") ? "image/webp,image/apng,image/*,*/*;q=0.8" : "*/*";
+            assets.add(fetch(scenario, view, client, Uri.parse(url).buildUpon().path(path).build().toString(), false, accept));
+        }
+        for (Future<byte[]> future : assets) {
+            assertEquals(ASSET_BYTES, await(scenario, future).length);
+        }
+
+        scenario.startUi();
+        client.onPageFinished(view, url);
+        harness.idleFor(FRAME_MILLIS);
+        scenario.stopUi();
+        scenario.load.add(millisSince(start));
+        scenario.poolAllocated += harness.threadPool.getAllocatedBytes() - fromPool;
+
+        scenario.navigations++;
+        scenario.messages += harness.webView.resultCount() - fromResult;
+        scenario.events += harness.webView.events(fromResult).size();
+        return html;
+    }
+
+    /**
+     * Let the UI thread run what is posted to it until a request is answered. Only
+     * running the posts counts as UI thread time, not the waiting.
+     */
+    private byte[] await(Scenario scenario, Future<byte[]> future) throws Exception {
+        while (!future.isDone()) {
+            scenario.startUi();
+            harness.idle();
+            scenario.stopUi();
+            Thread.sleep(1);
+        }
+        return future.get();
+    }
+
+    /**
+     * Ask the client for a response on a network thread, and load the request from
+     * the server if it has none.
+     */
+    private Future<byte[]> fetch(final Scenario scenario, final WebView view, final WebViewClient client,
+                                 final String url, final boolean mainFrame, final String accept) {
+        return network.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                scenario.requests.incrementAndGet();
+                long allocated = ThreadCosts.allocatedBytes();
+                WebResourceResponse response = client.shouldInterceptRequest(view, request(url, mainFrame, accept));
+                scenario.interceptAllocated.addAndGet(ThreadCosts.allocatedBytes() - allocated);
+                if (response != null) {
+                    scenario.intercepted.incrementAndGet();
+                    return response.getData() == null ? new byte[0] : readAll(response.getData());
+                }
+                HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+                try {
+                    connection.setRequestProperty("Accept", accept);
+                    return readAll(connection.getInputStream());
+                } finally {
+                    connection.disconnect();
+                }
+            }
+        });
+    }
+
+    private static WebResourceRequest request(String url, final boolean mainFrame, String accept) {
+        final Uri uri = Uri.parse(url);
+        final Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Accept", accept);
+        return new WebResourceRequest() {
+            @Override
+            public Uri getUrl() {
+                return uri;
+            }
+
+            @Override
+            public boolean isForMainFrame() {
+                return mainFrame;
+            }
+
+            @Override
+            public boolean isRedirect() {
+                return false;
+            }
+
+            @Override
+            public boolean hasGesture() {
+                return mainFrame;
+            }
+
+            @Override
+            public String getMethod() {
+                return "GET";
+            }
+
+            @Override
+            public Map<String, String> getRequestHeaders() {
+                return headers;
+            }
+        };
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static double millisSince(long start) {
+        return (System.nanoTime() - start) / 1000000.0;
+    }
+
+    private static JSONObject toJSON(ThrottledHttpServer.Network shape, String options, int opens, Scenario scenario)
+            throws JSONException {
+        JSONObject network = new JSONObject();
+        network.put("name", shape.name);
+        network.put("latencyMillis", shape.latencyMillis);
+        network.put("bytesPerSecond", shape.bytesPerSecond);
+        network.put("packetBytes", shape.packetBytes);
+
+        int navigations = scenario.navigations;
+        JSONObject allocated = new JSONObject();
+        allocated.put("uiThread", scenario.uiAllocated / navigations);
+        allocated.put("intercept", scenario.interceptAllocated.get() / navigations);
+        allocated.put("threadPool", scenario.poolAllocated / navigations);
+        allocated.put("total", (scenario.uiAllocated + scenario.interceptAllocated.get() + scenario.poolAllocated) / navigations);
+
+        JSONObject requests = new JSONObject();
+        requests.put("made", scenario.requests.get());
+        requests.put("intercepted", scenario.intercepted.get());
+
+        JSONObject result = new JSONObject();
+        result.put("network", network);
+        result.put("options", options);
+        result.put("opens", opens);
+        result.put("navigations", navigations);
+        result.put("openLatencyMillis", summary(scenario.openLatency));
+        result.put("openShownMillis", summary(scenario.openShown));
+        result.put("loadMillis", summary(scenario.load));
+        result.put("eventsPerLoad", round((double) scenario.events / navigations));
+        result.put("bridgeMessagesPerLoad", round((double) scenario.messages / navigations));
+        result.put("allocatedBytesPerNavigation", allocated);
+        result.put("uiThreadMillisPerNavigation", round(scenario.uiCpuNanos / 1000000.0 / navigations));
+        result.put("requests", requests);
+        return result;
+    }
+
+    /**
+     * @return {median, p90, max}
+     */
+    private static JSONObject summary(List<Double> values) throws JSONException {
+        double[] sorted = new double[values.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = values.get(i);
+        }
+        Arrays.sort(sorted);
+        JSONObject summary = new JSONObject();
+        summary.put("median", round(sorted[sorted.length / 2]));
+        summary.put("p90", round(sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * 0.9) - 1)]));
+        summary.put("max", round(sorted[sorted.length - 1]));
+        return summary;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    private static void write(JSONObject results, File file) throws IOException, JSONException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+        try {
+            out.write(results.toString(2));
+            out.write('\n');
+        } finally {
+            out.close();
+        }
+        System.out.println("Page load results: " + file.getAbsolutePath());
+    }
+}
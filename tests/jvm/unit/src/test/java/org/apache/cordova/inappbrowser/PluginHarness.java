@@ -0,0 +1,298 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.app.Activity;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.webkit.WebView;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaArgs;
+import org.apache.cordova.CordovaInterface;
+import org.apache.cordova.CordovaResourceApi;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginManager;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.robolectric.Robolectric;
+import org.robolectric.shadows.ShadowDialog;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.Scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * An InAppBrowser in a Robolectric activity, with a CordovaInterface whose thread
+ * pool can be waited on, and a CordovaWebView that keeps what the plugin sends.
+ */
+class PluginHarness {
+
+    /**
+     * Keeps the results sent to JavaScript.
+     */
+    static class RecordingWebView implements CordovaWebView {
+        final List<String> loaded = new ArrayList<String>();
+        final List<PluginResult> results = new ArrayList<PluginResult>();
+        // When the last result was sent, in System.nanoTime()
+        volatile long lastResultNanos;
+        private final PluginManager pluginManager = new PluginManager();
+
+        @Override
+        public void loadUrl(String url) {
+            loaded.add(url);
+        }
+
+        @Override
+        public synchronized void sendPluginResult(PluginResult result, String callbackId) {
+            lastResultNanos = System.nanoTime();
+            results.add(result);
+        }
+
+        @Override
+        public CordovaResourceApi getResourceApi() {
+            return new CordovaResourceApi();
+        }
+
+        // Found by reflection, as on cordova-android 4 and later
+        public PluginManager getPluginManager() {
+            return pluginManager;
+        }
+
+        synchronized int resultCount() {
+            return results.size();
+        }
+
+        /**
+         * @return the message of every result so far, as JSON objects; other results are left out
+         */
+        List<JSONObject> events() throws JSONException {
+            return events(0);
+        }
+
+        /**
+         * @param from  The index of the first result to look at, see resultCount().
+         * @return the message of every result from there on, as JSON objects, with
+         *         the events of a batchevents=yes batch taken out of it
+         */
+        synchronized List<JSONObject> events(int from) throws JSONException {
+            List<JSONObject> events = new ArrayList<JSONObject>();
+            for (PluginResult result : results.subList(from, results.size())) {
+                String message = result.getMessage();
+                if (message.startsWith("{")) {
+                    JSONObject event = new JSONObject(message);
+                    JSONArray batch = "batch".equals(event.optString("type")) ? event.optJSONArray("events") : null;
+                    if (batch == null) {
+                        events.add(event);
+                        continue;
+                    }
+                    for (int i = 0; i < batch.length(); i++) {
+                        events.add(batch.getJSONObject(i));
+                    }
+                } else if (message.startsWith("[")) {
+                    JSONArray batch = new JSONArray(message);
+                    for (int i = 0; i < batch.length(); i++) {
+                        events.add(batch.getJSONObject(i));
+                    }
+                }
+            }
+            return events;
+        }
+    }
+
+    /**
+     * Counts the tasks it has not finished yet, and what the tasks cost.
+     */
+    static class CountingThreadPool extends ThreadPoolExecutor {
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicLong allocatedBytes = new AtomicLong();
+        private final AtomicLong cpuNanos = new AtomicLong();
+        private final ThreadLocal<long[]> started = new ThreadLocal<long[]>();
+
+        CountingThreadPool() {
+            super(0, 16, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+            setCorePoolSize(4);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            pending.incrementAndGet();
+            try {
+                super.execute(command);
+            } catch (RuntimeException e) {
+                pending.decrementAndGet();
+                throw e;
+            }
+        }
+
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            started.set(new long[] { ThreadCosts.allocatedBytes(), ThreadCosts.cpuNanos() });
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            long[] start = started.get();
+            allocatedBytes.addAndGet(ThreadCosts.allocatedBytes() - start[0]);
+            cpuNanos.addAndGet(ThreadCosts.cpuNanos() - start[1]);
+            pending.decrementAndGet();
+        }
+
+        boolean isQuiet() {
+            return pending.get() == 0;
+        }
+
+        /**
+         * @return the bytes the tasks run so far have allocated
+         */
+        long getAllocatedBytes() {
+            return allocatedBytes.get();
+        }
+
+        /**
+         * @return the CPU time of the tasks run so far, in nanoseconds
+         */
+        long getCpuNanos() {
+            return cpuNanos.get();
+        }
+    }
+
+    // Longer than the plugin waits for about:blank before it destroys a closed WebView
+    static final long CLOSE_DELAY = 2000;
+
+    final Activity activity;
+    final CountingThreadPool threadPool = new CountingThreadPool();
+    final RecordingWebView webView = new RecordingWebView();
+    final InAppBrowser plugin;
+    private int callbacks = 0;
+
+    PluginHarness() {
+        // Run what is posted to the UI thread only when the test says so, as on a device
+        ShadowLooper.pauseMainLooper();
+        activity = Robolectric.buildActivity(Activity.class).setup().get();
+        plugin = new InAppBrowser();
+        plugin.privateInitialize(new CordovaInterface() {
+            @Override
+            public Activity getActivity() {
+                return activity;
+            }
+
+            @Override
+            public ExecutorService getThreadPool() {
+                return threadPool;
+            }
+        }, webView);
+        idle();
+    }
+
+    /**
+     * Call an action as exec() from JavaScript would.
+     */
+    CallbackContext exec(String action, Object... args) throws JSONException {
+        JSONArray array = new JSONArray();
+        for (Object arg : args) {
+            array.put(arg);
+        }
+        CallbackContext callbackContext = new CallbackContext("InAppBrowser" + ++callbacks, webView);
+        plugin.execute(action, new CordovaArgs(array), callbackContext);
+        return callbackContext;
+    }
+
+    /**
+     * Run what the plugin has handed to its thread pool and posted to the UI thread,
+     * until neither has anything left to do now.
+     */
+    void idle() {
+        for (int round = 0; round < 1000; round++) {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!threadPool.isQuiet()) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new AssertionError("The thread pool did not finish its tasks");
+                }
+                // Not a busy wait, which would count as UI thread time
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new AssertionError("Interrupted");
+                }
+            }
+            Scheduler scheduler = shadowOf(Looper.getMainLooper()).getScheduler();
+            if (!scheduler.areAnyRunnable()) {
+                return;
+            }
+            scheduler.advanceBy(0, TimeUnit.MILLISECONDS);
+        }
+        throw new AssertionError("The UI thread did not become idle");
+    }
+
+    /**
+     * idle(), and let the UI thread's clock run on, for the delays of a close.
+     */
+    void idleFor(long millis) {
+        idle();
+        shadowOf(Looper.getMainLooper()).getScheduler().advanceBy(millis, TimeUnit.MILLISECONDS);
+        idle();
+    }
+
+    /**
+     * @return the WebView of the browser shown last, or null
+     */
+    WebView shownWebView() {
+        android.app.Dialog dialog = ShadowDialog.getLatestDialog();
+        if (dialog == null || !dialog.isShowing()) {
+            return null;
+        }
+        return find(dialog.getWindow().getDecorView());
+    }
+
+    private static WebView find(View view) {
+        if (view instanceof WebView) {
+            return (WebView) view;
+        }
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                WebView found = find(group.getChildAt(i));
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    void destroy() {
+        plugin.onDestroy();
+        idleFor(CLOSE_DELAY);
+        threadPool.shutdown();
+    }
+}
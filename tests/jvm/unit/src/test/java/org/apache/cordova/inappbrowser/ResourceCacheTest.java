@@ -0,0 +1,128 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.webkit.WebResourceResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class ResourceCacheTest {
+
+    private static final int BODY_BYTES = 64 * 1024;
+    private static final Map<String, String> NO_HEADERS = Collections.emptyMap();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ThrottledHttpServer server;
+    private ResourceCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        final AtomicInteger responses = new AtomicInteger();
+        server = new ThrottledHttpServer(new ThrottledHttpServer.Network("loopback", 0, 0, 0),
+                new ThrottledHttpServer.Handler() {
+                    @Override
+                    public ThrottledHttpServer.Response handle(String method, String path) {
+                        // Every response different, so a mix of two is told apart
+                        return new ThrottledHttpServer.Response(200, "application/javascript", "max-age=3600",
+                                body('a' + responses.getAndIncrement()));
+                    }
+                });
+        server.start();
+        cache = ResourceCache.open(folder.newFolder("cache"), 16 * 1024 * 1024, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        assertNotNull(cache);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop();
+    }
+
+    private static byte[] body(int fill) {
+        byte[] body = new byte[BODY_BYTES];
+        Arrays.fill(body, (byte) fill);
+        return body;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, count);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void storesAResponseOnceItIsRead() throws IOException {
+        String url = server.getOrigin() + "/app.js";
+        assertArrayEquals(body('a'), readAll(cache.load(null, url, NO_HEADERS).getData()));
+        WebResourceResponse cached = cache.lookup(null, url, NO_HEADERS);
+        assertNotNull("stored", cached);
+        assertArrayEquals(body('a'), readAll(cached.getData()));
+    }
+
+    @Test
+    public void twoDownloadsOfOneUrlOnOneThreadDoNotMix() throws IOException {
+        String url = server.getOrigin() + "/app.js";
+        // Both intercepted on this thread; the WebView reads them later, interleaved
+        InputStream first = cache.load(null, url, NO_HEADERS).getData();
+        InputStream second = cache.load(null, url, NO_HEADERS).getData();
+        byte[] start = new byte[1000];
+        assertTrue(first.read(start) > 0);
+        byte[] secondBody = readAll(second);
+        byte[] firstRest = readAll(first);
+        assertArrayEquals(body('b'), secondBody);
+        assertTrue(firstRest.length > 0);
+
+        WebResourceResponse cached = cache.lookup(null, url, NO_HEADERS);
+        assertNotNull("stored", cached);
+        byte[] stored = readAll(cached.getData());
+        assertTrue("stored one whole response",
+                Arrays.equals(body('a'), stored) || Arrays.equals(body('b'), stored));
+    }
+}
@@ -0,0 +1,280 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import android.webkit.JsPromptResult;
+import android.webkit.JsResult;
+import android.webkit.WebChromeClient;
+import android.webkit.WebView;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * executeScript round trips, with the result sent back either way the plugin has:
+ * through prompt(), which InAppChromeClient.onJsPrompt answers on the UI thread
+ * while the page waits, or through ScriptResultBridge.post, which the page calls
+ * on the WebView's JavaBridge thread and which parses on the Cordova thread pool.
+ * The script is injected with execute("injectScriptCode") and this class plays
+ * the page, sending back a result of 1 or of 10,000 entries. For every transport
+ * and size it reports:
+ *
+ *   roundTripMillis       execute("injectScriptCode") to the result being sent to JavaScript
+ *   returnMillis          the page sending the result to it being sent to JavaScript
+ *   pageBlockedMillis     how long the page's call to the transport takes
+ *   uiThreadMillis        CPU time of the UI thread on the way back
+ *   allocatedBytes        on the UI thread and the thread pool, on the way back
+ *
+ * The results are written as JSON to target/scriptresult-result.json, or the file
+ * the scriptresult.result system property names. Not a test, so mvn test leaves
+ * it out:
+ *
+ *   mvn -B test -Dtest=ScriptResultBenchmark -Dsurefire.failIfNoSpecifiedTests=false
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ScriptResultBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final int[] ENTRIES = { 1, 10000 };
+    static final String PROMPT = "prompt";
+    static final String BRIDGE = "bridge";
+    static final int WARM_UP = 5;
+
+    private static final String CODE = "Array.prototype.map.call(document.querySelectorAll('a'), describe)";
+    private static final Pattern TOKEN = Pattern.compile("post\\('([0-9a-f]+)'");
+
+    /**
+     * What a page sends back for a result of this many entries: JSON.stringify([result]).
+     */
+    static String message(int entries) throws JSONException {
+        JSONArray result = new JSONArray();
+        for (int i = 0; i < entries; i++) {
+            JSONObject entry = new JSONObject();
+            entry.put("id", i);
+            entry.put("title", "Matchrapport: IFK Göteborg - Örgryte " + (i % 7) + "-" + (i % 5));
+            entry.put("url", "https://www.laget.se/IFKGoteborg/News/" + (7300000 + i) + "/Matchrapport");
+            entry.put("visible", i % 3 != 0);
+            result.put(entry);
+        }
+        return new JSONArray().put(result).toString();
+    }
+
+    private static class Run {
+        final List<Double> roundTrip = new ArrayList<Double>();
+        final List<Double> back = new ArrayList<Double>();
+        final List<Double> pageBlocked = new ArrayList<Double>();
+        long uiCpuNanos;
+        long uiAllocated;
+        long poolAllocated;
+    }
+
+    // What the WebView passes to onJsPrompt; it lets the page go on once confirmed
+    private static final JsResult.ResultReceiver PAGE = new JsResult.ResultReceiver() {
+        @Override
+        public void onJsResultComplete(JsResult result) {
+        }
+    };
+
+    private PluginHarness harness;
+    private WebView view;
+    private ExecutorService javaBridge;
+
+    @Test
+    public void scriptResults() throws Exception {
+        int runs = Integer.getInteger("scriptresult.runs", 20);
+        harness = new PluginHarness();
+        javaBridge = Executors.newSingleThreadExecutor();
+        try {
+            harness.exec("open", "https://www.laget.se/", "_blank", "location=yes");
+            harness.idle();
+            view = harness.shownWebView();
+            assertNotNull("open shows a WebView", view);
+
+            JSONArray scenarios = new JSONArray();
+            for (int entries : ENTRIES) {
+                String message = message(entries);
+                for (String transport : new String[] { PROMPT, BRIDGE }) {
+                    // Load the classes and let the JIT compile before anything is measured
+                    run(transport, message, WARM_UP);
+                    Run run = run(transport, message, runs);
+
+                    JSONObject result = new JSONObject();
+                    result.put("transport", transport);
+                    result.put("entries", entries);
+                    result.put("messageBytes", message.getBytes(UTF_8).length);
+                    result.put("runs", runs);
+                    result.put("roundTripMillis", summary(run.roundTrip));
+                    result.put("returnMillis", summary(run.back));
+                    result.put("pageBlockedMillis", summary(run.pageBlocked));
+                    result.put("uiThreadMillis", round(run.uiCpuNanos / 1000000.0 / runs));
+                    JSONObject allocated = new JSONObject();
+                    allocated.put("uiThread", run.uiAllocated / runs);
+                    allocated.put("threadPool", run.poolAllocated / runs);
+                    result.put("allocatedBytes", allocated);
+                    scenarios.put(result);
+                }
+            }
+
+            JSONObject results = new JSONObject();
+            results.put("java", System.getProperty("java.version"));
+            results.put("scenarios", scenarios);
+            write(results, new File(System.getProperty("scriptresult.result", "target/scriptresult-result.json")));
+        } finally {
+            javaBridge.shutdownNow();
+            harness.destroy();
+        }
+    }
+
+    private Run run(String transport, String message, int runs) throws Exception {
+        Run run = new Run();
+        for (int i = 0; i < runs; i++) {
+            int before = harness.webView.resultCount();
+            long start = System.nanoTime();
+            String callbackId = harness.exec("injectScriptCode", CODE, true).getCallbackId();
+            harness.idle();
+            String injected = shadowOf(view).getLastEvaluatedJavascript();
+            assertTrue("the script was injected", injected != null && injected.contains(CODE));
+
+            long pool = harness.threadPool.getAllocatedBytes();
+            long uiAllocated = ThreadCosts.allocatedBytes();
+            long uiCpu = ThreadCosts.cpuNanos();
+            long sent = System.nanoTime();
+            long blocked;
+            if (PROMPT.equals(transport)) {
+                blocked = prompt(message, callbackId);
+            } else {
+                blocked = post(message, injected);
+            }
+            harness.idle();
+            run.uiCpuNanos += ThreadCosts.cpuNanos() - uiCpu;
+            run.uiAllocated += ThreadCosts.allocatedBytes() - uiAllocated;
+            run.poolAllocated += harness.threadPool.getAllocatedBytes() - pool;
+
+            assertEquals("one result per script", before + 1, harness.webView.resultCount());
+            PluginResult result = harness.webView.results.get(before);
+            assertEquals(PluginResult.Status.OK.ordinal(), result.getStatus());
+            assertEquals(message.length(), result.getMessage().length());
+            long received = harness.webView.lastResultNanos;
+            run.roundTrip.add((received - start) / 1000000.0);
+            run.back.add((received - sent) / 1000000.0);
+            run.pageBlocked.add(blocked / 1000000.0);
+        }
+        return run;
+    }
+
+    /**
+     * The page calls prompt(message, 'gap-iab://callbackId'), which the WebView hands
+     * to the chrome client on the UI thread, holding the page until it is answered.
+     *
+     * @return nanoseconds the page waited
+     */
+    private long prompt(String message, String callbackId) {
+        WebChromeClient client = shadowOf(view).getWebChromeClient();
+        JsPromptResult result = new JsPromptResult(PAGE);
+        long start = System.nanoTime();
+        boolean handled = client.onJsPrompt(view, "https://www.laget.se/", message, "gap-iab://" + callbackId, result);
+        long blocked = System.nanoTime() - start;
+        assertTrue("the prompt is answered", handled);
+        return blocked;
+    }
+
+    /**
+     * The page calls the bridge with the token of its script, on the JavaBridge thread.
+     *
+     * @return nanoseconds the page waited
+     */
+    private long post(final String message, String injected) throws Exception {
+        Matcher token = TOKEN.matcher(injected);
+        assertTrue("the script posts its result", token.find());
+        final String key = token.group(1);
+        final ScriptResultBridge bridge =
+                (ScriptResultBridge) shadowOf(view).getJavascriptInterface(ScriptResultBridge.JS_NAME);
+        Future<Long> blocked = javaBridge.submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                long start = System.nanoTime();
+                bridge.post(key, message);
+                return System.nanoTime() - start;
+            }
+        });
+        return blocked.get();
+    }
+
+    /**
+     * @return {median, p90, max}
+     */
+    private static JSONObject summary(List<Double> values) throws JSONException {
+        double[] sorted = new double[values.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = values.get(i);
+        }
+        Arrays.sort(sorted);
+        JSONObject summary = new JSONObject();
+        summary.put("median", round(sorted[sorted.length / 2]));
+        summary.put("p90", round(sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * 0.9) - 1)]));
+        summary.put("max", round(sorted[sorted.length - 1]));
+        return summary;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    private static void write(JSONObject results, File file) throws IOException, JSONException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+        try {
+            out.write(results.toString(2));
+            out.write('\n');
+        } finally {
+            out.close();
+        }
+        System.out.println("Script result results: " + file.getAbsolutePath());
+    }
+}
@@ -0,0 +1,256 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.inappbrowser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An HTTP/1.0 server on the loopback interface that answers as if over a slower
+ * network: every response waits the network's latency before its first byte, and
+ * is then sent in packets at the network's bandwidth. The bandwidth is that of one
+ * link, shared by all connections, so parallel requests slow each other down.
+ */
+class ThrottledHttpServer {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * A network to shape responses like.
+     */
+    static class Network {
+        final String name;
+        final int latencyMillis;
+        // 0 for unlimited
+        final int bytesPerSecond;
+        final int packetBytes;
+
+        Network(String name, int latencyMillis, int bytesPerSecond, int packetBytes) {
+            this.name = name;
+            this.latencyMillis = latencyMillis;
+            this.bytesPerSecond = bytesPerSecond;
+            this.packetBytes = packetBytes;
+        }
+    }
+
+    /**
+     * A response; the server adds Content-Length and Connection: close.
+     */
+    static class Response {
+        final int status;
+        final String contentType;
+        final String cacheControl;
+        final byte[] body;
+
+        Response(int status, String contentType, String cacheControl, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.cacheControl = cacheControl;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Answers the requests.
+     */
+    interface Handler {
+        /**
+         * @return the response, or null for 404
+         */
+        Response handle(String method, String path);
+    }
+
+    private final Network network;
+    private final Handler handler;
+    private final ServerSocket socket;
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    // When the link is free to send the next packet, in System.nanoTime()
+    private long linkFree;
+    private volatile boolean stopped;
+
+    ThrottledHttpServer(Network network, Handler handler) throws IOException {
+        this.network = network;
+        this.handler = handler;
+        this.socket = new ServerSocket(0, 64, InetAddress.getByName("127.0.0.1"));
+    }
+
+    void start() {
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!stopped) {
+                    final Socket connection;
+                    try {
+                        connection = socket.accept();
+                    } catch (IOException e) {
+                        return;
+                    }
+                    connections.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(connection);
+                        }
+                    });
+                }
+            }
+        }, "ThrottledHttpServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    void stop() throws IOException {
+        stopped = true;
+        socket.close();
+        connections.shutdownNow();
+    }
+
+    /**
+     * @return http://127.0.0.1:port
+     */
+    String getOrigin() {
+        return "http://127.0.0.1:" + socket.getLocalPort();
+    }
+
+    Network getNetwork() {
+        return network;
+    }
+
+    long getRequests() {
+        return requests.get();
+    }
+
+    long getBytes() {
+        return bytes.get();
+    }
+
+    private void serve(Socket connection) {
+        try {
+            try {
+                String requestLine = readHead(connection.getInputStream());
+                if (requestLine == null) {
+                    return;
+                }
+                String[] parts = requestLine.split(" ");
+                String method = parts[0];
+                String path = parts.length > 1 ? parts[1] : "/";
+                requests.incrementAndGet();
+                Response response = handler.handle(method, path);
+                if (response == null) {
+                    response = new Response(404, "text/plain", "no-store", "Not found".getBytes(ASCII));
+                }
+                send(connection.getOutputStream(), response, !"HEAD".equals(method));
+            } finally {
+                connection.close();
+            }
+        } catch (SocketException e) {
+            // The client went away
+        } catch (IOException e) {
+            // As above
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Read up to the blank line that ends the request head.
+     *
+     * @return the request line, or null if the connection closed first
+     */
+    private static String readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        String requestLine = null;
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\r') {
+                continue;
+            }
+            if (c != '\n') {
+                line.write(c);
+                continue;
+            }
+            if (line.size() == 0) {
+                return requestLine;
+            }
+            if (requestLine == null) {
+                requestLine = new String(line.toByteArray(), ASCII);
+            }
+            line.reset();
+        }
+        return null;
+    }
+
+    private void send(OutputStream out, Response response, boolean withBody) throws IOException, InterruptedException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.0 ").append(response.status).append(response.status == 200 ? " OK" : " Not Found").append("\r\n");
+        head.append("Content-Type: ").append(response.contentType).append("\r\n");
+        head.append("Content-Length: ").append(response.body.length).append("\r\n");
+        head.append("Cache-Control: ").append(response.cacheControl).append("\r\n");
+        head.append("Connection: close\r\n\r\n");
+        byte[] headBytes = head.toString().getBytes(ASCII);
+        int length = headBytes.length + (withBody ? response.body.length : 0);
+        byte[] all = new byte[length];
+        System.arraycopy(headBytes, 0, all, 0, headBytes.length);
+        if (withBody) {
+            System.arraycopy(response.body, 0, all, headBytes.length, response.body.length);
+        }
+
+        Thread.sleep(network.latencyMillis);
+        int packet = network.bytesPerSecond > 0 ? network.packetBytes : length;
+        for (int offset = 0; offset < length; offset += packet) {
+            int size = Math.min(packet, length - offset);
+            waitForLink(size);
+            out.write(all, offset, size);
+            out.flush();
+        }
+        bytes.addAndGet(length);
+    }
+
+    /**
+     * Take the link for one packet, and wait until it has been sent.
+     */
+    private void waitForLink(int size) throws InterruptedException {
+        if (network.bytesPerSecond <= 0) {
+            return;
+        }
+        long duration = size * 1000000000L / network.bytesPerSecond;
+        long sent;
+        synchronized (this) {
+            long start = Math.max(System.nanoTime(), linkFree);
+            sent = start + duration;
+            linkFree = sent;
+        }
+        long wait = sent - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
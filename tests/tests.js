@@ -201,6 +201,83 @@ exports.defineManualTests = function (contentEl, createActionButton) {
         }
     }
 
+    // Page load benchmark (Android): opens a page repeatedly from a recorded archive, so
+    // runs do not depend on the network, and reports JSON to compare between builds
+    var benchmarkUrl = 'https://cordova.apache.org/';
+    var benchmarkArchive = 'benchmark';
+    var benchmarkRuns = 10;
+
+    function recordBenchmark() {
+        var iab = cordova.InAppBrowser.open(benchmarkUrl, '_blank',
+            'netmode=record,archive=' + benchmarkArchive);
+        iab.addEventListener('loadstop', function () {
+            iab.close();
+            document.getElementById('benchmarkResults').textContent = 'Recorded ' + benchmarkUrl;
+        });
+    }
+
+    function runBenchmark(profile) {
+        var options = 'netmode=replay,archive=' + benchmarkArchive + ',timings=yes' + (profile ? ',' + profile : '');
+        var results = {
+            url: benchmarkUrl,
+            options: options,
+            userAgent: navigator.userAgent,
+            loads: []
+        };
+        var out = document.getElementById('benchmarkResults');
+
+        function finish() {
+            cordova.InAppBrowser.getMetrics(function (metrics) {
+                results.metrics = metrics;
+                out.textContent = JSON.stringify(results, null, 2);
+                console.log('InAppBrowser benchmark: ' + JSON.stringify(results));
+            }, function (error) {
+                out.textContent = 'getMetrics failed: ' + error;
+            });
+        }
+
+        function load(run) {
+            if (run === benchmarkRuns) {
+                finish();
+                return;
+            }
+            out.textContent = 'Load ' + (run + 1) + ' of ' + benchmarkRuns + '...';
+            var start = Date.now();
+            var events = 0;
+            var result = { run: run };
+            var iab = cordova.InAppBrowser.open(benchmarkUrl, '_blank', options);
+            function count() {
+                events++;
+            }
+            iab.addEventListener('loadstart', count);
+            iab.addEventListener('loaderror', count);
+            iab.addEventListener('openstats', function (e) {
+                events++;
+                result.stages = e.stages;
+                result.bridge = e.bridge;
+                result.reused = e.reused;
+            });
+            iab.addEventListener('loadstop', function (e) {
+                events++;
+                if (result.openToLoadstop === undefined) {
+                    result.openToLoadstop = Date.now() - start;
+                    result.timing = e.timing;
+                    // openstats follows the first loadstop; give it a moment before closing
+                    setTimeout(function () {
+                        iab.close();
+                    }, 500);
+                }
+            });
+            iab.addEventListener('exit', function () {
+                result.events = events;
+                results.loads.push(result);
+                load(run + 1);
+            });
+        }
+
+        load(0);
+    }
+
     var info_div = '<h1>InAppBrowser</h1>' +
         '<div id="info">' +
         'Make sure http://cordova.apache.org and http://google.co.uk and https://www.google.co.uk are white listed. </br>' +
@@ -321,6 +398,15 @@ exports.defineManualTests = function (contentEl, createActionButton) {
         '<div id="openRemoteVideo"></div>' +
         'Expected result: open successfully in InAppBrowser with an embedded video that works after clicking the "play" button.';
 
+    var benchmark_tests = '<h1>Page load benchmark (Android)</h1>' +
+        '<div id="recordBenchmark"></div>' +
+        'Expected result: opens ' + benchmarkUrl + ' once, saving its responses to an archive, then closes.' +
+        '<p/> <div id="runBenchmark"></div>' +
+        'Expected result: after recording, opens and closes the page ' + benchmarkRuns + ' times from the archive, without the network, and shows the results as JSON below.' +
+        '<p/> <div id="runBenchmarkSlow"></div>' +
+        'Expected result: the same, with every response delayed by 150ms and sent at 1.6 Mbit/s.' +
+        '<pre id="benchmarkResults"></pre>';
+
     var local_with_anchor_tag_tests = '<h1>Local with anchor tag</h1>' +
         '<div id="openAnchor1"></div>' +
         'Expected result: open successfully in InAppBrowser to the local page, scrolled to the top as normal.' +
@@ -332,11 +418,11 @@ exports.defineManualTests = function (contentEl, createActionButton) {
     if (window.MSApp && window.MSApp.execUnsafeLocalFunction) {
         MSApp.execUnsafeLocalFunction(function() {
             contentEl.innerHTML = info_div + local_tests + white_listed_tests + non_white_listed_tests + page_with_redirects_tests + pdf_url_tests + invalid_url_tests +
-                css_js_injection_tests + open_hidden_tests + clearing_cache_tests + video_tag_tests + local_with_anchor_tag_tests;
+                css_js_injection_tests + open_hidden_tests + clearing_cache_tests + video_tag_tests + local_with_anchor_tag_tests + benchmark_tests;
         });
     } else {
         contentEl.innerHTML = info_div + local_tests + white_listed_tests + non_white_listed_tests + page_with_redirects_tests + pdf_url_tests + invalid_url_tests +
-            css_js_injection_tests + open_hidden_tests + clearing_cache_tests + video_tag_tests + local_with_anchor_tag_tests;
+            css_js_injection_tests + open_hidden_tests + clearing_cache_tests + video_tag_tests + local_with_anchor_tag_tests + benchmark_tests;
     }
 
     document.getElementById("user-agent").textContent = navigator.userAgent;
@@ -515,5 +601,16 @@ exports.defineManualTests = function (contentEl, createActionButton) {
     createActionButton('Anchor2', function () {
         doOpen(localhtml + '#anchor2', '_blank');
     }, 'openAnchor2');
+
+    //Page load benchmark
+    createActionButton('Record', function () {
+        recordBenchmark();
+    }, 'recordBenchmark');
+    createActionButton('Replay ' + benchmarkRuns + ' loads', function () {
+        runBenchmark();
+    }, 'runBenchmark');
+    createActionButton('Replay ' + benchmarkRuns + ' loads, slow network', function () {
+        runBenchmark('replaylatency=150,replaybandwidth=1600');
+    }, 'runBenchmarkSlow');
 };
 
@@ -0,0 +1,95 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+*/
+
+// Android-only calls that do not need an open InAppBrowser window.
+// Merged into cordova.InAppBrowser next to cordova.InAppBrowser.open.
+
+var exec = require('cordova/exec');
+
+module.exports = {
+    getPoolStats: function (success, error) {
+        exec(success, error, "InAppBrowser", "getPoolStats", []);
+    },
+    getMetrics: function (success, error) {
+        exec(success, error, "InAppBrowser", "getMetrics", []);
+    },
+    prefetch: function (urls, options, success, error) {
+        if (typeof options === 'function') {
+            error = success;
+            success = options;
+            options = null;
+        }
+        exec(success, error, "InAppBrowser", "prefetch", [urls, options]);
+    },
+    cancelPrefetch: function (success, error) {
+        exec(success, error, "InAppBrowser", "cancelPrefetch", []);
+    },
+    prerender: function (url, options, ttl, success, error) {
+        if (typeof options === 'function') {
+            error = ttl;
+            success = options;
+            options = null;
+            ttl = null;
+        } else if (typeof ttl === 'function') {
+            error = success;
+            success = ttl;
+            ttl = null;
+        }
+        exec(success, error, "InAppBrowser", "prerender", [url, options, ttl]);
+    },
+    setTracing: function (enabled, capacity, success, error) {
+        if (typeof capacity === 'function') {
+            error = success;
+            success = capacity;
+            capacity = null;
+        }
+        exec(success, error, "InAppBrowser", "setTracing", [!!enabled, capacity]);
+    },
+    getTrace: function (success, error) {
+        exec(success, error, "InAppBrowser", "getTrace", []);
+    },
+    getHar: function (success, error) {
+        exec(success, error, "InAppBrowser", "getHar", []);
+    },
+    getCookies: function (url, success, error) {
+        exec(success, error, "InAppBrowser", "getCookies", [url]);
+    },
+    setCookie: function (url, cookie, success, error) {
+        // Either a Set-Cookie header value or {name, value, domain, path, ...}
+        var item = typeof cookie === 'string' ? { cookie: cookie } : JSON.parse(JSON.stringify(cookie));
+        item.url = url;
+        exec(success, error, "InAppBrowser", "setCookies", [[item]]);
+    },
+    importCookies: function (cookies, success, error) {
+        exec(success, error, "InAppBrowser", "setCookies", [cookies]);
+    },
+    exportCookies: function (urls, success, error) {
+        exec(success, error, "InAppBrowser", "exportCookies", [urls]);
+    },
+    clearCookies: function (url, path, success, error) {
+        if (typeof path === 'function') {
+            error = success;
+            success = path;
+            path = null;
+        }
+        exec(success, error, "InAppBrowser", "clearCookies", [url, path]);
+    }
+};
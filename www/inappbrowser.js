@@ -29,12 +29,20 @@ function InAppBrowser() {
         'loadstart': channel.create('loadstart'),
         'loadstop' : channel.create('loadstop'),
         'loaderror' : channel.create('loaderror'),
+        'openstats' : channel.create('openstats'),
         'exit' : channel.create('exit')
    };
 }
 
 InAppBrowser.prototype = {
     _eventHandler: function (event) {
+        // batchevents=yes delivers several events, in order, in one message
+        if (event && event.type === 'batch') {
+            for (var i = 0; i < event.events.length; i++) {
+                this._eventHandler(event.events[i]);
+            }
+            return;
+        }
         if (event && (event.type in this.channels)) {
             this.channels[event.type].fire(event);
         }
@@ -98,7 +106,8 @@ module.exports = function(strUrl, strWindowName, strWindowFeatures, callbacks) {
 
     strWindowFeatures = strWindowFeatures || "";
 
-    exec(cb, cb, "InAppBrowser", "open", [strUrl, strWindowName, strWindowFeatures]);
+    // The send time lets Android measure how long the call takes to reach it
+    exec(cb, cb, "InAppBrowser", "open", [strUrl, strWindowName, strWindowFeatures, Date.now()]);
     return iab;
 };
 